@@ -31,14 +31,34 @@ public final class Constants {
   public static final int MAX_UPSCALE_RESOLUTION = 8;
   public static final int CHUNK_SIZE = 16;
 
+  // Overlays that can be selected instead of the normal layer renderer
+  public static final String OVERLAY_SHAPES = "shapes";
+  public static final String OVERLAY_ERROR = "error";
+
   public static final String CQ_HINGE = "hinge";
   public static final String CQ_LAYER = "layer";
   public static double LOSS_EXPONENT = 2;
   public static boolean CORRECT = false;
+  public static boolean CONTIGUOUS_SHAPEMAPS = true;
+  public static boolean PARALLEL_BANDS = true;
+  // Defaults for the banks that have not been calibrated, and for the buffer arena until a bank needs a larger one
+  public static boolean FIXED_POINT = false;
+  public static long ARENA_BYTES = 64L * 1024 * 1024;
+  public static int RENDER_CACHE_TILES = 256;
+  public static String OVERLAY = "none";
+  public static int METRICS_INTERVAL = 60;
+  public static boolean REPORT = false;
+  // Limits on matching the stacked shapes of a single tile. They only apply to contiguous shapemaps; with nested
+  // shapemaps, a tile is matched in full however much memory and time it takes.
+  public static long TILE_BUDGET_BYTES = 512L * 1024 * 1024;
+  public static int TILE_BUDGET_SECONDS = 120;
+  public static boolean CALIBRATE = true;
 
   // File names
   public static final String MAPPING_NAME = "mappings.csv";
   public static final String HEAD_MAPPING_NAME = "head_mappings.csv";
+  public static final String REPORT_DIR_NAME = "slabify-reports";
+  public static final String CALIBRATION_NAME = "slabify-calibration.properties";
 
   private Constants() {
     // Prevent instantiation
@@ -64,5 +84,91 @@ public final class Constants {
         // Keep default of false
       }
     }
+
+    s = System.getProperty("com.gmail.frogocomics.slabify.contiguous");
+
+    if (s != null) {
+      CONTIGUOUS_SHAPEMAPS = Boolean.parseBoolean(s);
+    }
+
+    s = System.getProperty("com.gmail.frogocomics.slabify.parallel");
+
+    if (s != null) {
+      PARALLEL_BANDS = Boolean.parseBoolean(s);
+    }
+
+    s = System.getProperty("com.gmail.frogocomics.slabify.fixed");
+
+    if (s != null) {
+      FIXED_POINT = Boolean.parseBoolean(s);
+    }
+
+    s = System.getProperty("com.gmail.frogocomics.slabify.arena");
+
+    if (s != null) {
+      try {
+        ARENA_BYTES = Long.parseLong(s) * 1024 * 1024;
+      } catch (NumberFormatException ignored) {
+        // Keep default of 64 MB
+      }
+    }
+
+    s = System.getProperty("com.gmail.frogocomics.slabify.renderCache");
+
+    if (s != null) {
+      try {
+        RENDER_CACHE_TILES = Integer.parseInt(s);
+      } catch (NumberFormatException ignored) {
+        // Keep default of 256
+      }
+    }
+
+    s = System.getProperty("com.gmail.frogocomics.slabify.overlay");
+
+    if (s != null) {
+      OVERLAY = s;
+    }
+
+    s = System.getProperty("com.gmail.frogocomics.slabify.metricsInterval");
+
+    if (s != null) {
+      try {
+        METRICS_INTERVAL = Integer.parseInt(s);
+      } catch (NumberFormatException ignored) {
+        // Keep default of 60 seconds
+      }
+    }
+
+    s = System.getProperty("com.gmail.frogocomics.slabify.report");
+
+    if (s != null) {
+      REPORT = Boolean.parseBoolean(s);
+    }
+
+    s = System.getProperty("com.gmail.frogocomics.slabify.tileMemory");
+
+    if (s != null) {
+      try {
+        TILE_BUDGET_BYTES = Long.parseLong(s) * 1024 * 1024;
+      } catch (NumberFormatException ignored) {
+        // Keep default of 512 MB
+      }
+    }
+
+    s = System.getProperty("com.gmail.frogocomics.slabify.tileTime");
+
+    if (s != null) {
+      try {
+        TILE_BUDGET_SECONDS = Integer.parseInt(s);
+      } catch (NumberFormatException ignored) {
+        // Keep default of 120 seconds
+      }
+    }
+
+    s = System.getProperty("com.gmail.frogocomics.slabify.calibrate");
+
+    if (s != null) {
+      CALIBRATE = Boolean.parseBoolean(s);
+    }
   }
 }
@@ -19,6 +19,7 @@
 package com.gmail.frogocomics.slabify;
 
 import com.gmail.frogocomics.slabify.gui.SlabCustomLayerEditor;
+import com.gmail.frogocomics.slabify.layers.KernelCalibration;
 import com.gmail.frogocomics.slabify.layers.Slab;
 import com.gmail.frogocomics.slabify.shape.Shapes;
 import org.pepsoft.worldpainter.Platform;
@@ -48,6 +49,7 @@ public final class SlabifyWPPlugin extends AbstractPlugin implements CustomLayer
   public SlabifyWPPlugin() {
     super(NAME, VERSION);
     Shapes.init();
+    KernelCalibration.load();
   }
 
   @Override
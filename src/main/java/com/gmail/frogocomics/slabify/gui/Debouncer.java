@@ -0,0 +1,118 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.gui;
+
+import javax.swing.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs a task in the background a short while after it was last scheduled, so that a burst of changes to the settings
+ * only computes one result. A task that is still running when another one starts is cancelled, and only the result of
+ * the latest task is handed back, on the event dispatch thread.
+ *
+ * <p>Every method must be called on the event dispatch thread.
+ *
+ * @param <T> the type of the result.
+ */
+final class Debouncer<T> {
+
+  private final ExecutorService executor;
+  private final Consumer<? super T> done;
+  private final Consumer<? super RuntimeException> failed;
+  private final Timer timer;
+  private Supplier<? extends T> task;
+  private Future<?> future;
+  private int generation = 0;
+
+  /**
+   * Create a new debouncer.
+   *
+   * @param delay    the milliseconds to wait for further changes before running the task.
+   * @param executor runs the tasks.
+   * @param done     receives the result of the latest task.
+   * @param failed   receives the exception if the latest task fails.
+   */
+  Debouncer(int delay, ExecutorService executor, Consumer<? super T> done, Consumer<? super RuntimeException> failed) {
+    this.executor = executor;
+    this.done = done;
+    this.failed = failed;
+    timer = new Timer(delay, e -> start());
+    timer.setRepeats(false);
+  }
+
+  /**
+   * Run a task once no other task has been scheduled for the delay, replacing any task that is waiting.
+   *
+   * @param task computes the result. It should stop with a {@link CancellationException} if it is interrupted.
+   */
+  void schedule(Supplier<? extends T> task) {
+    this.task = task;
+    timer.restart();
+  }
+
+  /**
+   * Cancel the task that is waiting or running, if any. Its result is not handed back.
+   */
+  void stop() {
+    timer.stop();
+    cancel();
+    generation++;
+  }
+
+  private void start() {
+    cancel();
+    int current = ++generation;
+    Supplier<? extends T> task = this.task;
+
+    future = executor.submit(() -> {
+      T result;
+
+      try {
+        result = task.get();
+      } catch (CancellationException e) {
+        return;
+      } catch (RuntimeException e) {
+        SwingUtilities.invokeLater(() -> {
+          if (generation == current) {
+            failed.accept(e);
+          }
+        });
+        return;
+      }
+
+      SwingUtilities.invokeLater(() -> {
+        // Ignore results that have been superseded
+        if (generation == current) {
+          done.accept(result);
+        }
+      });
+    });
+  }
+
+  private void cancel() {
+    if (future != null) {
+      future.cancel(true);
+      future = null;
+    }
+  }
+}
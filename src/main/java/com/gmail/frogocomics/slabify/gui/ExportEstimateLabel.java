@@ -0,0 +1,105 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.gui;
+
+import com.gmail.frogocomics.slabify.layers.ExportEstimator;
+import com.gmail.frogocomics.slabify.layers.ExportEstimator.Estimate;
+import com.gmail.frogocomics.slabify.layers.Slab;
+import com.gmail.frogocomics.slabify.utils.Utils;
+import org.jspecify.annotations.Nullable;
+import org.pepsoft.worldpainter.Dimension;
+import org.pepsoft.worldpainter.layers.Layer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shows how long the layer being edited is projected to take to export, and how much memory it needs. The estimate is
+ * computed in the background with {@link ExportEstimator}, a short while after the settings last changed, and an
+ * estimate that is still being computed when the settings change again is cancelled.
+ */
+final class ExportEstimateLabel extends JLabel {
+
+  private static final Logger logger = LoggerFactory.getLogger(ExportEstimateLabel.class);
+  // Milliseconds to wait for further changes before estimating
+  private static final int DELAY = 500;
+  private static final ExecutorService executor = Executors.newSingleThreadExecutor(
+      Utils.newThreadFactory("Slabify export estimator", Thread.MIN_PRIORITY));
+
+  private final Debouncer<Estimate> debouncer = new Debouncer<>(DELAY, executor, this::setEstimate, e -> {
+    logger.warn("Could not estimate the export", e);
+    setText("Could not estimate the export");
+    setToolTipText(null);
+  });
+
+  ExportEstimateLabel() {
+    super("Estimating...");
+  }
+
+  /**
+   * Estimate the cost again with new settings. This must be called on the event dispatch thread.
+   *
+   * @param settings  a copy of the layer with the settings to estimate, which must not be modified afterwards.
+   * @param layer     the layer that is being edited, which is used to find where it is painted.
+   * @param dimension the dimension that is being edited, or {@code null} if there is none.
+   */
+  void update(Slab settings, Layer layer, @Nullable Dimension dimension) {
+    setText("Estimating...");
+    debouncer.schedule(() -> ExportEstimator.estimate(settings, layer, dimension));
+  }
+
+  private void setEstimate(@Nullable Estimate estimate) {
+    if (estimate == null) {
+      setText("Every shape is disabled");
+      setToolTipText(null);
+    } else {
+      setText(formatNanos(estimate.getNanosPerTile()) + " per tile, " + (estimate.getTiles() > 0
+          ? "about " + formatNanos(estimate.getNanos()) + " for " + estimate.getTiles() + " tiles, "
+          : "") + formatBytes(estimate.getPeakBytes()) + " of memory");
+      setToolTipText("Resolution " + estimate.getResolution() + ", " + estimate.getShapes()
+          + " shapes. Only the shape matching is timed.");
+    }
+  }
+
+  private static String formatNanos(long nanos) {
+    long seconds = TimeUnit.NANOSECONDS.toSeconds(nanos);
+
+    if (seconds < 1) {
+      return TimeUnit.NANOSECONDS.toMillis(nanos) + " ms";
+    } else if (seconds < 60) {
+      return String.format("%.1f s", nanos / 1e9);
+    } else if (seconds < 3600) {
+      return (seconds / 60) + " min " + (seconds % 60) + " s";
+    }
+
+    return (seconds / 3600) + " h " + (seconds % 3600 / 60) + " min";
+  }
+
+  private static String formatBytes(long bytes) {
+    if (bytes < 1024L * 1024 * 1024) {
+      return (bytes / (1024 * 1024)) + " MB";
+    }
+
+    return String.format("%.1f GB", bytes / (1024.0 * 1024 * 1024));
+  }
+}
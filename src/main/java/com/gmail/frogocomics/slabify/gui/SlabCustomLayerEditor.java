@@ -50,6 +50,8 @@ import java.awt.event.ItemEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.*;
 import java.text.Collator;
 import java.util.*;
@@ -74,6 +76,14 @@ public final class SlabCustomLayerEditor extends AbstractLayerEditor<Slab> {
   // Interpolation method
   private JLabel interpolationLabel;
   private JComboBox<Interpolation> interpolationBox;
+  // Terrain preview
+  private JLabel terrainPreviewLabel;
+  private JButton terrainPreviewButton;
+  // Export estimate
+  private JLabel estimateLabel;
+  private ExportEstimateLabel estimateValueLabel;
+  private TerrainPreviewPanel terrainPreviewPanel;
+  private JDialog terrainPreviewDialog;
   // Mimic underlying blocks
   private JLabel mimicLabel;
   private JCheckBox mimicBox;
@@ -180,6 +190,19 @@ public final class SlabCustomLayerEditor extends AbstractLayerEditor<Slab> {
 
     // Shape selection
     shapesBox.addActionListener(e -> openShapesDialog());
+
+    // Update the terrain preview and the export estimate when the settings that affect the shapes change
+    terrainPreviewButton.addActionListener(e -> openTerrainPreviewDialog());
+    additiveSpinner.addChangeListener(e -> shapeSettingsChanged());
+    conquestBox.addItemListener(e -> shapeSettingsChanged());
+    interpolationBox.addItemListener(e -> shapeSettingsChanged());
+    stackingCheckBox.addItemListener(e -> shapeSettingsChanged());
+
+    for (Map<Options, JCheckBox> rowMap : shapeSelectionMap.values()) {
+      for (JCheckBox checkBox : rowMap.values()) {
+        checkBox.addItemListener(e -> shapeSettingsChanged());
+      }
+    }
   }
 
   @Override
@@ -226,6 +249,7 @@ public final class SlabCustomLayerEditor extends AbstractLayerEditor<Slab> {
     previewButton.setEnabled(layer.mimicsTerrain());
 
     settingsChanged();
+    shapeSettingsChanged();
   }
 
   private void updateMimicTable(Map<String, Material> mapping) {
@@ -282,9 +306,14 @@ public final class SlabCustomLayerEditor extends AbstractLayerEditor<Slab> {
     layer.setOpacity(paintPicker.getOpacity());
     layer.setReplaceNonSolidBlocks(replaceMaterialBox.isSelected());
     layer.setMimic(mimicBox.isSelected());
+    layer.setMapping(getCurrentMapping());
+    saveShapeSettings(layer);
+  }
+
+  // The settings that affect which shapes are placed
+  private void saveShapeSettings(Slab layer) {
     layer.setHeight(((Number) additiveSpinner.getValue()).floatValue());
     layer.setAllowConquest(conquestBox.isSelected());
-    layer.setMapping(getCurrentMapping());
 
     // Get from shapes dialog
     Map<String, Options> newShapes = new HashMap<>();
@@ -359,6 +388,14 @@ public final class SlabCustomLayerEditor extends AbstractLayerEditor<Slab> {
     interpolationBox = new JComboBox<>(Interpolation.values());
     interpolationBox.setSelectedIndex(0);
 
+    terrainPreviewLabel = new JLabel("Terrain preview:");
+    terrainPreviewLabel.setToolTipText("Preview the shapes on a patch of terrain as the settings change");
+    terrainPreviewButton = new JButton("Show");
+
+    estimateLabel = new JLabel("Export estimate:");
+    estimateLabel.setToolTipText("The projected time and memory needed to export the shapes of this layer");
+    estimateValueLabel = new ExportEstimateLabel();
+
     nameLabel = new JLabel("Name:");
     nameField = new JTextField();
 
@@ -381,6 +418,8 @@ public final class SlabCustomLayerEditor extends AbstractLayerEditor<Slab> {
                 .addComponent(conquestLabel)
                 .addComponent(shapesLabel)
                 .addComponent(interpolationLabel)
+                .addComponent(terrainPreviewLabel)
+                .addComponent(estimateLabel)
             )
             .addGroup(layout.createParallelGroup(Alignment.LEADING)
                 .addComponent(nameField, GroupLayout.PREFERRED_SIZE, GroupLayout.DEFAULT_SIZE,
@@ -396,6 +435,8 @@ public final class SlabCustomLayerEditor extends AbstractLayerEditor<Slab> {
                 .addComponent(shapesBox)
                 .addComponent(interpolationBox, GroupLayout.PREFERRED_SIZE, GroupLayout.DEFAULT_SIZE,
                     GroupLayout.DEFAULT_SIZE)
+                .addComponent(terrainPreviewButton)
+                .addComponent(estimateValueLabel)
             )
     );
 
@@ -448,6 +489,16 @@ public final class SlabCustomLayerEditor extends AbstractLayerEditor<Slab> {
                 .addComponent(interpolationLabel)
                 .addComponent(interpolationBox)
             )
+            .addPreferredGap(ComponentPlacement.RELATED)
+            .addGroup(layout.createParallelGroup(Alignment.LEADING)
+                .addComponent(terrainPreviewLabel)
+                .addComponent(terrainPreviewButton)
+            )
+            .addPreferredGap(ComponentPlacement.RELATED)
+            .addGroup(layout.createParallelGroup(Alignment.LEADING)
+                .addComponent(estimateLabel)
+                .addComponent(estimateValueLabel)
+            )
     );
 
     model = new CustomTableModel();
@@ -818,6 +869,65 @@ public final class SlabCustomLayerEditor extends AbstractLayerEditor<Slab> {
     dialog.setVisible(true);
   }
 
+  private void openTerrainPreviewDialog() {
+    if (terrainPreviewDialog != null) {
+      terrainPreviewDialog.toFront();
+      return;
+    }
+
+    // Not modal, so that the settings can be changed while the preview is open
+    Window parentWindow = SwingUtilities.getWindowAncestor(this);
+    JDialog dialog = new JDialog(parentWindow, "Terrain Preview", Dialog.ModalityType.MODELESS);
+    dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+
+    terrainPreviewPanel = new TerrainPreviewPanel();
+    dialog.add(terrainPreviewPanel, BorderLayout.CENTER);
+    dialog.addWindowListener(new WindowAdapter() {
+      @Override
+      public void windowClosed(WindowEvent e) {
+        terrainPreviewPanel.stop();
+        terrainPreviewPanel = null;
+        terrainPreviewDialog = null;
+      }
+    });
+
+    dialog.pack();
+    dialog.setLocationRelativeTo(parentWindow);
+    dialog.getRootPane().registerKeyboardAction(e -> dialog.dispose(),
+        KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), JComponent.WHEN_IN_FOCUSED_WINDOW);
+    terrainPreviewDialog = dialog;
+    dialog.setVisible(true);
+
+    if (layer != null) {
+      terrainPreviewPanel.update(getShapeSettings(), layer, getEditedDimension());
+    }
+  }
+
+  private void shapeSettingsChanged() {
+    if (layer == null) {
+      return;
+    }
+
+    Slab settings = getShapeSettings();
+    estimateValueLabel.update(settings, layer, getEditedDimension());
+
+    if (terrainPreviewPanel != null) {
+      terrainPreviewPanel.update(settings, layer, getEditedDimension());
+    }
+  }
+
+  // A copy of the layer with the current settings, so that the layer is only changed when they are committed
+  private Slab getShapeSettings() {
+    Slab settings = layer.clone();
+    settings.setPaint(paintPicker.getPaint());
+    saveShapeSettings(settings);
+    return settings;
+  }
+
+  private org.pepsoft.worldpainter.Dimension getEditedDimension() {
+    return context != null ? context.getDimension() : null;
+  }
+
   private void openPreviewDialog() {
     JFrame parentFrame = (JFrame) SwingUtilities.getAncestorOfClass(JFrame.class, this);
     JDialog dialog = new JDialog(parentFrame, "Preview Window", true);
@@ -0,0 +1,180 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.gui;
+
+import com.gmail.frogocomics.slabify.layers.Slab;
+import com.gmail.frogocomics.slabify.layers.TerrainPreview;
+import com.gmail.frogocomics.slabify.utils.Utils;
+import org.jspecify.annotations.Nullable;
+import org.pepsoft.worldpainter.*;
+import org.pepsoft.worldpainter.Dimension;
+import org.pepsoft.worldpainter.Dimension.Anchor;
+import org.pepsoft.worldpainter.layers.Layer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.pepsoft.worldpainter.Constants.TILE_SIZE;
+
+/**
+ * Shows the surface that the layer being edited would produce on a patch of terrain. The patch is taken from a tile
+ * of the dimension that the layer is painted on or, if the dimension has no tiles, from generated hills.
+ *
+ * <p>The preview is rendered in the background, a short while after the settings last changed. The previous preview
+ * stays visible until the new one is ready, and a preview that is still being rendered when the settings change again
+ * is cancelled.
+ */
+final class TerrainPreviewPanel extends JPanel {
+
+  private static final Logger logger = LoggerFactory.getLogger(TerrainPreviewPanel.class);
+  // Size of the patch in blocks
+  private static final int PATCH_SIZE = 32;
+  // Milliseconds to wait for further changes before rendering
+  private static final int DELAY = 150;
+  private static final ExecutorService executor = Executors.newSingleThreadExecutor(
+      Utils.newThreadFactory("Slabify terrain preview", Thread.MIN_PRIORITY));
+  private static Dimension hills; // Guarded by TerrainPreviewPanel.class
+
+  private final Debouncer<Preview> debouncer = new Debouncer<>(DELAY, executor, this::setPreview, e -> {
+    logger.warn("Could not render the terrain preview", e);
+    setPreview(new Preview(null, "Could not render the preview"));
+  });
+  private BufferedImage image;
+  private String status = "Updating...";
+  private boolean updating = false;
+
+  TerrainPreviewPanel() {
+    setPreferredSize(new java.awt.Dimension(384, 384));
+    setBackground(Color.DARK_GRAY);
+  }
+
+  /**
+   * Render the preview again with new settings. This must be called on the event dispatch thread.
+   *
+   * @param settings  a copy of the layer with the settings to preview, which must not be modified afterwards.
+   * @param layer     the layer that is being edited, which is used to find where it is painted.
+   * @param dimension the dimension that is being edited, or {@code null} to use generated hills.
+   */
+  void update(Slab settings, Layer layer, @Nullable Dimension dimension) {
+    updating = true;
+    repaint();
+    debouncer.schedule(() -> render(settings, layer, dimension));
+  }
+
+  /**
+   * Stop rendering the preview. This must be called on the event dispatch thread.
+   */
+  void stop() {
+    debouncer.stop();
+    updating = false;
+  }
+
+  private void setPreview(Preview preview) {
+    image = preview.image;
+    status = preview.message;
+    updating = false;
+    repaint();
+  }
+
+  @Override
+  protected void paintComponent(Graphics g) {
+    super.paintComponent(g);
+    Graphics2D g2 = (Graphics2D) g;
+
+    if (image != null) {
+      // Scale to fit, keeping the blocks square
+      int size = Math.min(getWidth(), getHeight());
+      g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+      g2.drawImage(image, (getWidth() - size) / 2, (getHeight() - size) / 2, size, size, null);
+    }
+
+    String text = updating ? "Updating..." : status;
+    FontMetrics metrics = g2.getFontMetrics();
+    g2.setColor(new Color(0, 0, 0, 160));
+    g2.fillRect(0, getHeight() - metrics.getHeight() - 4, metrics.stringWidth(text) + 8, metrics.getHeight() + 4);
+    g2.setColor(Color.WHITE);
+    g2.drawString(text, 4, getHeight() - metrics.getDescent() - 2);
+  }
+
+  private static Preview render(Slab settings, Layer layer, @Nullable Dimension dimension) {
+    Tile tile = dimension != null ? getSampleTile(dimension, layer) : null;
+    Dimension source = tile != null ? dimension : getHills();
+
+    if (tile == null) {
+      tile = source.getTile(0, 0);
+    }
+
+    int offset = (TILE_SIZE - PATCH_SIZE) / 2;
+    BufferedImage image = TerrainPreview.render(settings, tile, source, offset, offset, PATCH_SIZE);
+    return new Preview(image, image == null ? "Every shape is disabled"
+        : source == dimension ? "Tile " + tile.getX() + ", " + tile.getY() : "Generated hills");
+  }
+
+  // A tile that the layer is painted on, or any tile if it is not painted yet
+  private static Tile getSampleTile(Dimension dimension, Layer layer) {
+    Tile sample = null;
+
+    for (Tile tile : dimension.getTiles()) {
+      if (tile.hasLayer(layer)) {
+        return tile;
+      } else if (sample == null) {
+        sample = tile;
+      }
+    }
+
+    return sample;
+  }
+
+  private static synchronized Dimension getHills() {
+    if (hills == null) {
+      TileFactory tileFactory = TileFactoryFactory.createNoiseTileFactory(0L, Terrain.GRASS,
+          DefaultPlugin.JAVA_ANVIL_1_15.minZ, DefaultPlugin.JAVA_ANVIL_1_15.standardMaxHeight, 58, 62, false, true,
+          20, 1);
+      Dimension dimension = new World2(DefaultPlugin.JAVA_ANVIL_1_15, 0, tileFactory).getDimension(
+          Anchor.NORMAL_DETAIL);
+
+      // The neighbours are needed to upscale the edges of the middle tile
+      for (int x = -1; x <= 1; x++) {
+        for (int y = -1; y <= 1; y++) {
+          dimension.addTile(tileFactory.createTile(x, y));
+        }
+      }
+
+      hills = dimension;
+    }
+
+    return hills;
+  }
+
+  private static final class Preview {
+
+    private final BufferedImage image;
+    private final String message;
+
+    private Preview(@Nullable BufferedImage image, String message) {
+      this.image = image;
+      this.message = message;
+    }
+  }
+}
@@ -0,0 +1,428 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.layers;
+
+import com.gmail.frogocomics.slabify.Constants;
+import com.gmail.frogocomics.slabify.utils.Utils;
+import org.pepsoft.worldpainter.Dimension;
+import org.pepsoft.worldpainter.Tile;
+import org.pepsoft.worldpainter.layers.Layer;
+import org.pepsoft.worldpainter.layers.renderers.BitLayerRenderer;
+import org.pepsoft.worldpainter.layers.renderers.DimensionAwareRenderer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.SwingUtilities;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static org.pepsoft.worldpainter.Constants.TILE_SIZE_BITS;
+import static org.pepsoft.worldpainter.Constants.TILE_SIZE_MASK;
+
+/**
+ * A renderer that draws a result that is computed per tile in the background, such as the shapes that an export would
+ * place. The first time a tile is rendered, its result is scheduled and the tile is drawn by the fallback renderer;
+ * once the result is ready, the tile is {@link #refresh(Tile) redrawn} with it.
+ *
+ * <p>Tiles requested most recently are computed first. Only a few tiles are kept waiting, and the work for older tiles,
+ * which have usually been scrolled out of view, is cancelled. A cancelled tile is redrawn once there is room again, so
+ * that it is requested again if it is still in view. At most {@link Constants#RENDER_CACHE_TILES} results (but no fewer
+ * than the number of waiting tiles) are kept, and a result is dropped when the heights or the layer data of its tile
+ * change, or when one of its neighbours, whose heights pad the tile, is changed, added or removed. A tile whose
+ * neighbour changed is redrawn, as WorldPainter only redraws the tiles that change.
+ *
+ * @param <T> the type of the result.
+ */
+abstract class BackgroundTileRenderer<T> implements BitLayerRenderer, DimensionAwareRenderer {
+
+  private static final Logger logger = LoggerFactory.getLogger(BackgroundTileRenderer.class);
+  private static final int MAX_PENDING = 16;
+  // The number of cancelled tiles that are remembered, to be redrawn later
+  private static final int MAX_DROPPED = 64;
+  private static final ExecutorService executor = createExecutor();
+
+  private final Layer layer;
+  private final SlabCustomLayerRenderer fallback;
+  private final Object lock = new Object();
+  // Least recently used first
+  private final Map<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  // Least recently requested first
+  private final Map<Long, Entry> pending = new LinkedHashMap<>();
+  // Tiles whose work was cancelled while they were waiting, least recently cancelled first
+  private final Deque<Tile> dropped = new ArrayDeque<>();
+  private final Dimension.Listener tileRemover = new Dimension.Listener() {
+    @Override
+    public void tilesAdded(Dimension dimension, Set<Tile> tiles) {
+      // The padding of the neighbours of the new tiles changes
+      tilesChanged(tiles);
+    }
+
+    @Override
+    public void tilesRemoved(Dimension dimension, Set<Tile> tiles) {
+      tilesChanged(tiles);
+    }
+
+    private void tilesChanged(Set<Tile> tiles) {
+      List<Entry> removed;
+
+      synchronized (lock) {
+        removed = entries.values().stream()
+            .filter(entry -> tiles.stream().anyMatch(tile -> isNear(entry.tile, tile)))
+            .collect(Collectors.toList());
+      }
+
+      for (Entry entry : removed) {
+        invalidate(entry);
+
+        if (!tiles.contains(entry.tile)) {
+          refresh(entry.tile);
+        }
+      }
+    }
+  };
+  private Dimension dimension;
+  // Pixels are mostly rendered a tile at a time, so this saves looking up the result
+  private volatile Entry lastEntry;
+
+  /**
+   * Create a new renderer.
+   *
+   * @param layer    the layer that is rendered.
+   * @param fallback draws tiles until their result is ready.
+   */
+  BackgroundTileRenderer(Layer layer, SlabCustomLayerRenderer fallback) {
+    this.layer = layer;
+    this.fallback = fallback;
+  }
+
+  /**
+   * Compute the result of a tile. This is called on a background thread, and should check
+   * {@link Utils#checkCancelled()} between expensive steps.
+   *
+   * @param tile      the tile.
+   * @param dimension the dimension of the tile.
+   * @return the result, or {@code null} to draw the tile with the fallback renderer.
+   */
+  protected abstract T compute(Tile tile, Dimension dimension);
+
+  /**
+   * Get the colour of a pixel of a tile whose result is ready. The layer is present at the pixel.
+   *
+   * @param result           the result of the tile.
+   * @param x                the x coordinate within the tile.
+   * @param y                the y coordinate within the tile.
+   * @param underlyingColour the colour of the pixel below the layer.
+   * @return the colour of the pixel.
+   */
+  protected abstract int getPixelColour(T result, int x, int y, int underlyingColour);
+
+  /**
+   * Called on a background thread once no more tiles are waiting to be computed, such as after the tiles in view have
+   * all been drawn. Does nothing by default.
+   */
+  protected void idle() {
+  }
+
+  @Override
+  public int getPixelColour(int globalX, int globalY, int underlyingColour, boolean b) {
+    if (!b) {
+      return underlyingColour;
+    }
+
+    T result = getResult(globalX >> TILE_SIZE_BITS, globalY >> TILE_SIZE_BITS);
+
+    if (result == null) {
+      return fallback.getPixelColour(globalX, globalY, underlyingColour, true);
+    }
+
+    return getPixelColour(result, globalX & TILE_SIZE_MASK, globalY & TILE_SIZE_MASK, underlyingColour);
+  }
+
+  @Override
+  public void setDimension(Dimension dimension) {
+    List<Entry> removed;
+
+    synchronized (lock) {
+      removed = new ArrayList<>(entries.values());
+      dropped.clear();
+      lastEntry = null;
+
+      if (this.dimension != null) {
+        this.dimension.removeDimensionListener(tileRemover);
+      }
+
+      this.dimension = dimension;
+
+      if (dimension != null) {
+        dimension.addDimensionListener(tileRemover);
+      }
+    }
+
+    for (Entry entry : removed) {
+      invalidate(entry);
+    }
+
+    fallback.setDimension(dimension);
+  }
+
+  private T getResult(int tileX, int tileY) {
+    Entry entry = lastEntry;
+
+    if (entry != null && entry.done && entry.valid && entry.tile.getX() == tileX && entry.tile.getY() == tileY) {
+      return entry.value;
+    }
+
+    long key = ((long) tileX << 32) | (tileY & 0xFFFFFFFFL);
+    Entry evicted = null;
+    Entry cancelled = null;
+
+    synchronized (lock) {
+      entry = entries.get(key);
+
+      if (entry == null) {
+        Tile tile = dimension != null ? dimension.getTile(tileX, tileY) : null;
+
+        if (tile == null) {
+          return null;
+        }
+
+        dropped.remove(tile);
+
+        entry = new Entry(key, tile, dimension);
+        tile.addListener(entry);
+
+        for (Tile neighbour : entry.neighbours) {
+          neighbour.addListener(entry);
+        }
+
+        entries.put(key, entry);
+        pending.put(key, entry);
+        entry.future = executor.submit(entry::run);
+
+        if (entries.size() > Math.max(Constants.RENDER_CACHE_TILES, MAX_PENDING)) {
+          evicted = entries.values().iterator().next();
+        }
+
+        if (pending.size() > MAX_PENDING) {
+          cancelled = pending.values().iterator().next();
+          dropped.addLast(cancelled.tile);
+
+          if (dropped.size() > MAX_DROPPED) {
+            dropped.removeFirst();
+          }
+        }
+      } else if (!entry.done) {
+        // Requested again, so move it to the back of the queue
+        pending.remove(key);
+        pending.put(key, entry);
+      }
+    }
+
+    if (evicted != null) {
+      invalidate(evicted);
+    }
+
+    if (cancelled != null) {
+      invalidate(cancelled);
+    }
+
+    if (entry.done) {
+      lastEntry = entry;
+      return entry.value;
+    }
+
+    return null;
+  }
+
+  private void invalidate(Entry entry) {
+    synchronized (lock) {
+      entries.remove(entry.key, entry);
+      pending.remove(entry.key, entry);
+      entry.valid = false;
+
+      if (entry.future != null) {
+        entry.future.cancel(true);
+      }
+    }
+
+    entry.tile.removeListener(entry);
+
+    for (Tile neighbour : entry.neighbours) {
+      neighbour.removeListener(entry);
+    }
+  }
+
+  // Whether two tiles are the same or next to each other
+  private static boolean isNear(Tile tile, Tile other) {
+    return Math.abs(tile.getX() - other.getX()) <= 1 && Math.abs(tile.getY() - other.getY()) <= 1;
+  }
+
+  /**
+   * Ask WorldPainter to redraw a tile. Plugins cannot reach the view, which redraws a tile whenever the tile reports a
+   * change, so the terrain of one block is set to what it already is. Entries ignore changes to the terrain, so this
+   * does not drop the result that is to be drawn.
+   *
+   * @param tile the tile.
+   */
+  private static void refresh(Tile tile) {
+    SwingUtilities.invokeLater(() -> tile.setTerrain(0, 0, tile.getTerrain(0, 0)));
+  }
+
+  private static ExecutorService createExecutor() {
+    int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    // Last in, first out, so that the tiles in view are computed first
+    BlockingQueue<Runnable> queue = new LinkedBlockingDeque<Runnable>() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public boolean offer(Runnable runnable) {
+        return offerFirst(runnable);
+      }
+    };
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, queue,
+        Utils.newThreadFactory("Slabify overlay renderer", Thread.MIN_PRIORITY));
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  /**
+   * The result of a tile, which is pending until it has been computed.
+   */
+  private final class Entry implements Tile.Listener {
+
+    private final long key;
+    private final Tile tile;
+    private final Dimension dimension;
+    // The tiles around the tile, which are listened to for changes to their heights
+    private final List<Tile> neighbours = new ArrayList<>();
+    private Future<?> future; // Guarded by lock
+    private volatile T value;
+    private volatile boolean done = false;
+    private volatile boolean valid = true;
+
+    private Entry(long key, Tile tile, Dimension dimension) {
+      this.key = key;
+      this.tile = tile;
+      this.dimension = dimension;
+
+      for (int dx = -1; dx <= 1; dx++) {
+        for (int dy = -1; dy <= 1; dy++) {
+          Tile neighbour = dx != 0 || dy != 0 ? dimension.getTile(tile.getX() + dx, tile.getY() + dy) : null;
+
+          if (neighbour != null) {
+            neighbours.add(neighbour);
+          }
+        }
+      }
+    }
+
+    private void run() {
+      if (!valid) {
+        return;
+      }
+
+      T result;
+
+      try {
+        result = compute(tile, dimension);
+      } catch (CancellationException e) {
+        return;
+      } catch (RuntimeException e) {
+        logger.warn("Could not render tile {}, {}", tile.getX(), tile.getY(), e);
+        result = null;
+      }
+
+      Tile next = null;
+      boolean idle;
+
+      synchronized (lock) {
+        if (!valid) {
+          return;
+        }
+
+        value = result;
+        done = true;
+        pending.remove(key, this);
+
+        // Make room for the tile that was cancelled last, which is requested again if it is still in view
+        if (pending.size() < MAX_PENDING) {
+          next = dropped.pollLast();
+        }
+
+        idle = pending.isEmpty();
+      }
+
+      if (result != null) {
+        refresh(tile);
+      }
+
+      if (next != null) {
+        refresh(next);
+      }
+
+      if (idle) {
+        idle();
+      }
+    }
+
+    @Override
+    public void heightMapChanged(Tile tile) {
+      invalidate(this);
+
+      if (tile != this.tile) {
+        refresh(this.tile);
+      }
+    }
+
+    @Override
+    public void terrainChanged(Tile tile) {
+      // Not rendered
+    }
+
+    @Override
+    public void waterLevelChanged(Tile tile) {
+      // Not rendered
+    }
+
+    @Override
+    public void layerDataChanged(Tile tile, Set<Layer> changedLayers) {
+      if (tile == this.tile && changedLayers.contains(layer)) {
+        invalidate(this);
+      }
+    }
+
+    @Override
+    public void allBitLayerDataChanged(Tile tile) {
+      if (tile == this.tile) {
+        invalidate(this);
+      }
+    }
+
+    @Override
+    public void allNonBitlayerDataChanged(Tile tile) {
+      // Not rendered
+    }
+
+    @Override
+    public void seedsChanged(Tile tile) {
+      // Not rendered
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.layers;
+
+import com.gmail.frogocomics.slabify.shape.ShapeBank;
+import com.gmail.frogocomics.slabify.shape.Shapemap;
+import com.gmail.frogocomics.slabify.utils.BufferArena;
+import com.gmail.frogocomics.slabify.utils.DifferenceMap;
+import com.gmail.frogocomics.slabify.utils.Utils;
+import org.pepsoft.util.ColourUtils;
+import org.pepsoft.worldpainter.Dimension;
+import org.pepsoft.worldpainter.Tile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Color;
+
+import static org.pepsoft.worldpainter.Constants.TILE_SIZE;
+import static org.pepsoft.worldpainter.Constants.TILE_SIZE_BITS;
+
+/**
+ * Draws how far the shape that an export is predicted to place on every block is from the upscaled terrain, from green
+ * for an exact fit to red for an error of half a block or more, as measured by {@link FitError}. Once the tiles in view
+ * have been computed, the mean error of their blocks and the worst tile are logged, so that the resolution and the
+ * interpolation can be compared. The mean error of every tile is also logged at debug level.
+ *
+ * <p>The predicted shape is the best one in the whole bank. Where the block below has no variant of that shape, the
+ * export places a worse fitting one, so the error drawn there can be lower than the error of the export.
+ */
+final class ErrorHeatmapRenderer extends BackgroundTileRenderer<float[]> {
+
+  private static final Logger logger = LoggerFactory.getLogger(ErrorHeatmapRenderer.class);
+  // Errors of this many blocks or more are drawn in red
+  private static final float MAX_ERROR = 0.5f;
+
+  private final Slab layer;
+  private final int intensity;
+  // The tiles computed since the last summary, guarded by this
+  private double batchSum = 0;
+  private long batchBlocks = 0;
+  private int batchTiles = 0;
+  private float worstMean = 0;
+  private Tile worstTile;
+  private int resolution;
+
+  ErrorHeatmapRenderer(Slab layer, int color, float opacity) {
+    super(layer, new SlabCustomLayerRenderer(color, opacity));
+    this.layer = layer;
+    this.intensity = (int) (255 * opacity);
+  }
+
+  @Override
+  protected float[] compute(Tile tile, Dimension dimension) {
+    ShapeBank bank = SlabCustomLayerExporter.getBank(layer);
+
+    if (bank == null) {
+      return null;
+    }
+
+    boolean stacking = SlabCustomLayerExporter.isStacking(layer);
+    DifferenceMap heights = SlabCustomLayerExporter.upscale(tile, dimension, layer, bank.getResolution(),
+        KernelCalibration.isFixedPoint(bank, stacking));
+
+    try {
+      Utils.checkCancelled();
+      Shapemap shapemap = SlabCustomLayerExporter.match(tile, heights, layer, bank, stacking);
+
+      try {
+        return getErrors(tile, heights, shapemap, bank, stacking);
+      } finally {
+        shapemap.release();
+      }
+    } finally {
+      BufferArena.release(heights);
+    }
+  }
+
+  @Override
+  protected int getPixelColour(float[] result, int x, int y, int underlyingColour) {
+    float error = result[(x << TILE_SIZE_BITS) | y];
+
+    if (Float.isNaN(error)) {
+      return underlyingColour;
+    }
+
+    // Green to red
+    float hue = (1 - Math.min(1, error / MAX_ERROR)) / 3;
+    return ColourUtils.mix(Color.HSBtoRGB(hue, 1, 1) & 0xFFFFFF, underlyingColour, intensity);
+  }
+
+  // The error of every block, or NaN where the layer is not present or nothing is placed
+  private float[] getErrors(Tile tile, DifferenceMap heights, Shapemap shapemap, ShapeBank bank, boolean stacking) {
+    FitError fitError = new FitError(heights, bank, layer, stacking);
+    float[] errors = new float[TILE_SIZE * TILE_SIZE];
+    double sum = 0;
+    int count = 0;
+
+    for (int x = 0; x < TILE_SIZE; x++) {
+      for (int y = 0; y < TILE_SIZE; y++) {
+        float error = tile.getBitLayerValue(layer, x, y) ? fitError.get(shapemap, x, y) : Float.NaN;
+        errors[(x << TILE_SIZE_BITS) | y] = error;
+
+        if (!Float.isNaN(error)) {
+          sum += error;
+          count++;
+        }
+      }
+    }
+
+    float mean = count > 0 ? (float) (sum / count) : 0;
+
+    synchronized (this) {
+      batchSum += sum;
+      batchBlocks += count;
+      batchTiles++;
+      resolution = heights.getResolution();
+
+      if (count > 0 && (worstTile == null || mean > worstMean)) {
+        worstMean = mean;
+        worstTile = tile;
+      }
+    }
+
+    logger.debug("Tile {}, {}: mean fit error of {} blocks at resolution {} with {} interpolation", tile.getX(),
+        tile.getY(), String.format("%.3f", mean), heights.getResolution(), layer.getInterpolation());
+    return errors;
+  }
+
+  @Override
+  protected void idle() {
+    String summary = null;
+
+    synchronized (this) {
+      if (batchBlocks > 0) {
+        summary = String.format("Mean fit error of %.3f blocks over %d blocks in %d tiles, worst tile %d, %d at %.3f, "
+                + "at resolution %d with %s interpolation", batchSum / batchBlocks, batchBlocks, batchTiles,
+            worstTile.getX(), worstTile.getY(), worstMean, resolution, layer.getInterpolation());
+      }
+
+      batchSum = 0;
+      batchBlocks = 0;
+      batchTiles = 0;
+      worstTile = null;
+    }
+
+    if (summary != null) {
+      logger.info(summary);
+    }
+  }
+}
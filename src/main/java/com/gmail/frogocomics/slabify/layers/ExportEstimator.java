@@ -0,0 +1,274 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.layers;
+
+import com.gmail.frogocomics.slabify.shape.ShapeBank;
+import com.gmail.frogocomics.slabify.utils.BufferArena;
+import com.gmail.frogocomics.slabify.utils.DifferenceMap;
+import com.gmail.frogocomics.slabify.utils.Utils;
+import org.jspecify.annotations.Nullable;
+import org.pepsoft.worldpainter.Dimension;
+import org.pepsoft.worldpainter.Tile;
+import org.pepsoft.worldpainter.layers.Layer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import static org.pepsoft.worldpainter.Constants.TILE_SIZE;
+
+/**
+ * Estimates how long the shapes of a layer take to export and how much memory they need. The shapes of the layer are
+ * compiled, and the upscaling and matching of the export are timed on a few generated tiles, from gentle to steep. The
+ * time per tile is then multiplied by the number of tiles that the layer is painted on. It is not divided between the
+ * processors: the timed tiles are already split into bands over the idle processors, while during an export the
+ * processors are kept busy by other regions instead, so either way a tile takes its share of every processor.
+ *
+ * <p>Only the upscaling and matching are timed, which take most of the time of an export with detailed shapes. The
+ * memory is that of the compiled shapes, plus that of one tile being matched on every processor. The memory of a tile
+ * is what every thread allocates while it is matched, so it also counts the bands, and anything that other threads
+ * allocate at the same time.
+ */
+public final class ExportEstimator {
+
+  // Amplitudes of the generated tiles, in blocks
+  static final float[] AMPLITUDES = {2, 6, 16};
+
+  private ExportEstimator() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Estimate the cost of exporting a layer. This takes about as long as matching a few tiles, so it should not be
+   * called on the event dispatch thread. It stops with a {@link CancellationException} if the calling thread is
+   * interrupted.
+   *
+   * @param layer     the layer, whose settings are used.
+   * @param painted   the layer to look for in the dimension, which may be a different copy of {@code layer}.
+   * @param dimension the dimension, or {@code null} to only estimate the cost per tile.
+   * @return the estimate, or {@code null} if every shape of the layer is disabled.
+   * @throws CancellationException if the thread was interrupted.
+   */
+  public static Estimate estimate(Slab layer, Layer painted, @Nullable Dimension dimension) {
+    ShapeBank bank = SlabCustomLayerExporter.getBank(layer);
+
+    if (bank == null) {
+      return null;
+    }
+
+    boolean stacking = SlabCustomLayerExporter.isStacking(layer);
+    boolean fixedPoint = KernelCalibration.isFixedPoint(bank, stacking);
+    int resolution = bank.getResolution();
+    int shapes = bank.getShapeMatrices().size() + bank.getShapeMatricesStacked().size();
+    long bankBytes = (long) shapes * resolution * resolution * Float.BYTES;
+
+    boolean[][] layerValue = null;
+
+    if (stacking) {
+      layerValue = new boolean[TILE_SIZE][TILE_SIZE];
+
+      for (boolean[] row : layerValue) {
+        Arrays.fill(row, true);
+      }
+    }
+
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    Random random = new Random(0);
+    Tile[] samples = new Tile[AMPLITUDES.length];
+
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = createTile(AMPLITUDES[i], random);
+    }
+
+    // The first tile is matched once more beforehand, as it is slowed down by compilation
+    match(samples[0], layer, bank, layerValue, fixedPoint);
+    long totalNanos = 0;
+    long allocated = 0;
+
+    for (Tile tile : samples) {
+      Map<Long, Long> allocatedBefore = getAllocatedBytes(threads);
+      long start = System.nanoTime();
+      match(tile, layer, bank, layerValue, fixedPoint);
+      totalNanos += System.nanoTime() - start;
+      allocated = Math.max(allocated, getAllocatedSince(threads, allocatedBefore));
+    }
+
+    long nanosPerTile = totalNanos / samples.length;
+    // The upscaled heights are borrowed, so they are not counted as allocated; they are copied to add the height
+    long heightsBytes = (long) TILE_SIZE * TILE_SIZE * resolution * resolution
+        * (fixedPoint ? Short.BYTES : Float.BYTES)
+        * (layer.getHeight() != 0 ? 2 : 1);
+    int processors = Runtime.getRuntime().availableProcessors();
+    long peakBytes = bankBytes + processors * (heightsBytes + allocated);
+
+    int tiles = 0;
+
+    if (dimension != null) {
+      for (Tile tile : dimension.getTiles()) {
+        if (tile.hasLayer(painted)) {
+          tiles++;
+        }
+      }
+    }
+
+    return new Estimate(resolution, shapes, nanosPerTile, tiles, nanosPerTile * tiles, peakBytes);
+  }
+
+  private static void match(Tile tile, Slab layer, ShapeBank bank, boolean[][] layerValue, boolean fixedPoint) {
+    Utils.checkCancelled();
+    DifferenceMap heights = SlabCustomLayerExporter.upscale(tile, null, layer, bank.getResolution(), fixedPoint);
+
+    try {
+      SlabCustomLayerExporter.match(tile, heights, layer, bank, layerValue).release();
+    } finally {
+      BufferArena.release(heights);
+    }
+  }
+
+  // Hills of the given amplitude, with some noise
+  static Tile createTile(float amplitude, Random random) {
+    Tile tile = new Tile(0, 0, 0, 256);
+    double phaseX = random.nextDouble() * Math.PI * 2;
+    double phaseY = random.nextDouble() * Math.PI * 2;
+
+    for (int x = 0; x < TILE_SIZE; x++) {
+      for (int y = 0; y < TILE_SIZE; y++) {
+        double height = 64 + amplitude * (Math.sin(x * 0.07 + phaseX) * Math.cos(y * 0.05 + phaseY)
+            + 0.3 * Math.sin((x + y) * 0.23)) + random.nextFloat() * 0.2;
+        tile.setHeight(x, y, (float) height);
+      }
+    }
+
+    return tile;
+  }
+
+  // The bytes allocated so far by every live thread, by thread id, or none if this cannot be measured
+  private static Map<Long, Long> getAllocatedBytes(ThreadMXBean threads) {
+    Map<Long, Long> allocated = new HashMap<>();
+
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+
+      if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled()) {
+        long[] ids = hotspot.getAllThreadIds();
+        long[] bytes = hotspot.getThreadAllocatedBytes(ids);
+
+        for (int i = 0; i < ids.length; i++) {
+          // -1 if the thread has ended in the meantime
+          if (bytes[i] >= 0) {
+            allocated.put(ids[i], bytes[i]);
+          }
+        }
+      }
+    }
+
+    return allocated;
+  }
+
+  // The bytes allocated by every thread since the snapshot, except by threads that have ended since
+  private static long getAllocatedSince(ThreadMXBean threads, Map<Long, Long> before) {
+    long total = 0;
+
+    for (Map.Entry<Long, Long> entry : getAllocatedBytes(threads).entrySet()) {
+      total += entry.getValue() - before.getOrDefault(entry.getKey(), 0L);
+    }
+
+    return total;
+  }
+
+  /**
+   * An estimate of the cost of exporting a layer.
+   */
+  public static final class Estimate {
+
+    private final int resolution;
+    private final int shapes;
+    private final long nanosPerTile;
+    private final int tiles;
+    private final long nanos;
+    private final long peakBytes;
+
+    private Estimate(int resolution, int shapes, long nanosPerTile, int tiles, long nanos, long peakBytes) {
+      this.resolution = resolution;
+      this.shapes = shapes;
+      this.nanosPerTile = nanosPerTile;
+      this.tiles = tiles;
+      this.nanos = nanos;
+      this.peakBytes = peakBytes;
+    }
+
+    /**
+     * Get the resolution of the shapes.
+     *
+     * @return the resolution.
+     */
+    public int getResolution() {
+      return resolution;
+    }
+
+    /**
+     * Get the number of shapes that every block is matched against, including stacked shapes.
+     *
+     * @return the number of shapes.
+     */
+    public int getShapes() {
+      return shapes;
+    }
+
+    /**
+     * Get the time taken to upscale and match a tile on a single thread.
+     *
+     * @return the time per tile, in nanoseconds.
+     */
+    public long getNanosPerTile() {
+      return nanosPerTile;
+    }
+
+    /**
+     * Get the number of tiles that the layer is painted on.
+     *
+     * @return the number of tiles.
+     */
+    public int getTiles() {
+      return tiles;
+    }
+
+    /**
+     * Get the projected time taken to upscale and match every tile that the layer is painted on.
+     *
+     * @return the projected time, in nanoseconds.
+     */
+    public long getNanos() {
+      return nanos;
+    }
+
+    /**
+     * Get the projected memory used by the shapes and the tiles being matched at the same time.
+     *
+     * @return the projected memory, in bytes.
+     */
+    public long getPeakBytes() {
+      return peakBytes;
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.layers;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder events of the export, shown under "Slabify" in JDK Mission Control.
+ *
+ * <p>Events are created, begun and only filled in once {@link Event#shouldCommit()} returns {@code true}. While no
+ * recording is running, {@code begin()} and {@code shouldCommit()} do nothing and the event does not escape, so the
+ * JIT removes the event entirely.
+ */
+final class ExportEvents {
+
+  private ExportEvents() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Padding, upscaling and differencing the heights of a tile, which are done in a single pass.
+   */
+  @Name("com.gmail.frogocomics.slabify.Upscale")
+  @Label("Upscale Tile")
+  @Category({"Slabify", "Export"})
+  @Description("Padding, upscaling and differencing the heights of a tile")
+  @StackTrace(false)
+  static final class UpscaleEvent extends Event {
+
+    @Label("Tile X")
+    int tileX;
+
+    @Label("Tile Y")
+    int tileY;
+
+    @Label("Resolution")
+    int resolution;
+
+    @Label("Interpolation")
+    String interpolation;
+
+    @Label("Fixed Point")
+    boolean fixedPoint;
+  }
+
+  /**
+   * Matching the shapes of a tile.
+   */
+  @Name("com.gmail.frogocomics.slabify.Match")
+  @Label("Match Tile")
+  @Category({"Slabify", "Export"})
+  @Description("Finding the closest shapes of every column of a tile")
+  @StackTrace(false)
+  static final class MatchEvent extends Event {
+
+    @Label("Tile X")
+    int tileX;
+
+    @Label("Tile Y")
+    int tileY;
+
+    @Label("Strategy")
+    @Description("The vertical layout of the shapemap, or flat if the blocks are not stacked")
+    String strategy;
+
+    @Label("Resolution")
+    int resolution;
+
+    @Label("Bank Size")
+    @Description("The number of shapes that the top level of a column is matched against")
+    int bankSize;
+
+    @Label("Stacked Bank Size")
+    @Description("The number of shapes that the levels below the top are matched against")
+    int stackedBankSize;
+
+    @Label("Minimum Z")
+    @Description("The lowest level of any column, relative to the terrain height")
+    int minZ;
+
+    @Label("Maximum Z")
+    @Description("The highest level of any column, relative to the terrain height")
+    int maxZ;
+
+    @Label("Shapemap Size")
+    @DataAmount
+    long shapemapBytes;
+
+    @Label("Degraded")
+    @Description("Whether the tile was over its budget, so that fewer shapes were kept or columns were approximated")
+    boolean degraded;
+  }
+
+  /**
+   * Placing the blocks of a chunk.
+   */
+  @Name("com.gmail.frogocomics.slabify.Place")
+  @Label("Place Chunk")
+  @Category({"Slabify", "Export"})
+  @Description("Placing the shapes of a chunk")
+  @StackTrace(false)
+  static final class PlaceEvent extends Event {
+
+    @Label("Tile X")
+    int tileX;
+
+    @Label("Tile Y")
+    int tileY;
+
+    @Label("Chunk X")
+    int chunkX;
+
+    @Label("Chunk Z")
+    int chunkZ;
+
+    @Label("Layer")
+    String layer;
+
+    @Label("Blocks Written")
+    long blocks;
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.layers;
+
+import com.gmail.frogocomics.slabify.Constants;
+import com.gmail.frogocomics.slabify.linalg.Matrix;
+import com.gmail.frogocomics.slabify.shape.ShapeBank;
+import com.gmail.frogocomics.slabify.shape.Shapemap;
+import com.gmail.frogocomics.slabify.utils.DifferenceMap;
+
+/**
+ * Measures how far the closest shape of a column is from the upscaled terrain. The error is the loss of the shape
+ * against the difference map, as a distance in blocks, so it can be compared across resolutions. With stacking, it is
+ * the error of the topmost level that is not empty.
+ *
+ * <p>This does not check which shapes are available for the block below. An instance reuses its buffers, so it must
+ * only be used by one thread.
+ */
+final class FitError {
+
+  private final DifferenceMap heights;
+  private final ShapeBank bank;
+  private final float layerHeight;
+  private final boolean stacking;
+  private final int samples;
+  private final float[] column;
+  private final float[] level;
+  private final float[] min0;
+  private final float[] max1;
+
+  /**
+   * Create a new instance.
+   *
+   * @param heights  the heights of the tile, from {@link SlabCustomLayerExporter#upscale}.
+   * @param bank     the shapes of the layer.
+   * @param layer    the layer.
+   * @param stacking whether the blocks of the layer are stacked.
+   */
+  FitError(DifferenceMap heights, ShapeBank bank, Slab layer, boolean stacking) {
+    this.heights = heights;
+    this.bank = bank;
+    this.layerHeight = layer.getHeight();
+    this.stacking = stacking;
+    samples = heights.getResolution() * heights.getResolution();
+    column = new float[samples];
+    level = new float[samples];
+    min0 = new float[samples];
+    max1 = new float[samples];
+  }
+
+  /**
+   * Get the error of a column.
+   *
+   * @param shapemap the shapemap of the tile, matched against {@code heights}.
+   * @param x        the x coordinate.
+   * @param y        the y coordinate.
+   * @return the error in blocks, or {@code NaN} if nothing is placed.
+   */
+  float get(Shapemap shapemap, int x, int y) {
+    heights.copyColumn(x, y, column);
+
+    for (int i = 0; i < samples; i++) {
+      column[i] += layerHeight;
+    }
+
+    float loss = stacking ? getStackedLoss(shapemap, x, y)
+        : bank.getShapeMatrices().get(shapemap.getIndicesAt(x, y, -1)[0]).getLoss(column, Constants.LOSS_EXPONENT);
+
+    // As a distance in blocks
+    return (float) Math.pow(loss / samples, 1 / Constants.LOSS_EXPONENT);
+  }
+
+  // The loss of the topmost non-empty level, or NaN if nothing is placed
+  private float getStackedLoss(Shapemap shapemap, int x, int y) {
+    int minZ = shapemap.getMinZ(x, y);
+
+    for (int relZ = shapemap.getRange(x, y) - shapemap.getEmptyLevels(x, y) - 1; relZ >= 0; relZ--) {
+      int idx = shapemap.getIndicesAt(x, y, relZ)[0];
+
+      if (idx == bank.getEmptyIndex()) {
+        continue;
+      }
+
+      for (int i = 0; i < samples; i++) {
+        level[i] = column[i] - minZ - relZ;
+        min0[i] = Math.max(0f, level[i]);
+        max1[i] = Math.min(1f, level[i]);
+      }
+
+      Matrix matrix = bank.getShapeMatrices().get(idx);
+      return matrix.getLossClip(level, min0, max1, Constants.LOSS_EXPONENT);
+    }
+
+    return Float.NaN;
+  }
+}
@@ -0,0 +1,376 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.layers;
+
+import com.gmail.frogocomics.slabify.Constants;
+import com.gmail.frogocomics.slabify.shape.ShapeBank;
+import com.gmail.frogocomics.slabify.shape.Shapemap;
+import com.gmail.frogocomics.slabify.utils.BufferArena;
+import org.pepsoft.worldpainter.Configuration;
+import org.pepsoft.worldpainter.Tile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.pepsoft.worldpainter.Constants.TILE_SIZE;
+
+/**
+ * Picks the fastest way of matching shapes on this computer. The first export with a bank of shapes times
+ * {@link Constants#FIXED_POINT fixed point and float} samples on a few generated tiles, using that bank. The size of the
+ * {@link BufferArena} is chosen from the size of a tile and the maximum heap. Nested shapemaps are not tried, as the
+ * {@link com.gmail.frogocomics.slabify.shape.TileBudget budget of a tile} only applies to contiguous shapemaps.
+ *
+ * <p>The candidates are matched with {@link SlabCustomLayerExporter#trialMatch}, which is given the kind of samples to
+ * use, so the trial runs do not show up in the events of the export. The winner is only used by the layers with that
+ * bank: every exporter keeps the kind of samples of its own bank, and {@link Constants} is never changed. The buffer
+ * arena is shared, so it is made large enough for the largest bank.
+ *
+ * <p>The result of every bank, identified by its resolution, its size and whether it is stacked, is saved to
+ * {@value Constants#CALIBRATION_NAME} in the configuration folder, and reused until the number of processors, the
+ * maximum heap or the Java version changes. Deleting the file calibrates again. A setting that is given as a system
+ * property is never changed, and calibration is turned off entirely with
+ * {@code com.gmail.frogocomics.slabify.calibrate=false}.
+ *
+ * <p>Fixed point samples are only picked if they give the same closest shape as floats for at least 99%
+ * of the levels, as they are less precise.
+ */
+public final class KernelCalibration {
+
+  private static final Logger logger = LoggerFactory.getLogger(KernelCalibration.class);
+
+  // The fraction of levels that must have the same closest shape as floats
+  private static final double MIN_AGREEMENT = 0.99;
+  private static final long MIN_ARENA_BYTES = 64L * 1024 * 1024;
+
+  private static final String FIXED_PROPERTY = "com.gmail.frogocomics.slabify.fixed";
+  private static final String ARENA_PROPERTY = "com.gmail.frogocomics.slabify.arena";
+
+  private static final Object lock = new Object();
+  // Whether to use fixed point samples, by the key of every bank that has been calibrated
+  private static final Map<String, Boolean> fixedPoints = new ConcurrentHashMap<>();
+
+  private KernelCalibration() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Read the saved calibrations for this computer, if there are any. This only reads a small file, so it is called when
+   * the plugin is loaded, in order for the editor and renderers to use the same samples as the export of a bank.
+   */
+  public static void load() {
+    if (!Constants.CALIBRATE) {
+      return;
+    }
+
+    synchronized (lock) {
+      Properties properties = loadSaved();
+
+      for (String key : properties.stringPropertyNames()) {
+        if (key.endsWith(".fixed")) {
+          read(properties, key.substring(0, key.length() - ".fixed".length()));
+        }
+      }
+    }
+  }
+
+  /**
+   * Calibrate using the bank of a layer, unless this computer has already been calibrated for a bank like it. This
+   * blocks while the generated tiles are matched, which takes about as long as a few tiles of the export, and only
+   * happens once for every bank.
+   *
+   * @param layer    the layer.
+   * @param bank     the shapes of the layer.
+   * @param stacking whether the blocks of the layer are stacked.
+   * @return whether the bank should be matched with fixed point samples.
+   */
+  static boolean ensure(Slab layer, ShapeBank bank, boolean stacking) {
+    String key = getKey(bank, stacking);
+    Boolean fixedPoint = fixedPoints.get(key);
+
+    if (fixedPoint != null || !Constants.CALIBRATE) {
+      return fixedPoint != null ? fixedPoint : Constants.FIXED_POINT;
+    }
+
+    synchronized (lock) {
+      try {
+        Properties properties = fixedPoints.containsKey(key) ? null : loadSaved();
+
+        if (properties != null && !read(properties, key)) {
+          calibrate(layer, bank, stacking, key, properties);
+          read(properties, key);
+          save(properties);
+        }
+      } catch (RuntimeException e) {
+        // The defaults are slower at worst, so the export carries on
+        logger.warn("Could not calibrate", e);
+      }
+
+      return fixedPoints.computeIfAbsent(key, k -> Constants.FIXED_POINT);
+    }
+  }
+
+  /**
+   * Get whether a bank is matched with fixed point samples, without calibrating. A bank that has not been calibrated
+   * on this computer uses {@link Constants#FIXED_POINT}.
+   *
+   * @param bank     the shapes of the layer.
+   * @param stacking whether the blocks of the layer are stacked.
+   * @return whether to use fixed point samples.
+   */
+  static boolean isFixedPoint(ShapeBank bank, boolean stacking) {
+    return fixedPoints.getOrDefault(getKey(bank, stacking), Constants.FIXED_POINT);
+  }
+
+  private static void calibrate(Slab layer, ShapeBank bank, boolean stacking, String key, Properties properties) {
+    Candidate[] candidates;
+
+    // The first candidate is the reference that the others are checked against
+    if (isSet(FIXED_PROPERTY)) {
+      candidates = new Candidate[] {new Candidate(Constants.FIXED_POINT)};
+    } else {
+      candidates = new Candidate[] {new Candidate(false), new Candidate(true)};
+    }
+
+    Candidate best = candidates[0];
+
+    if (candidates.length > 1) {
+      logger.info("Calibrating with {} shapes at resolution {}", bank.getShapeMatrices().size(),
+          bank.getResolution());
+      boolean[][] layerValue = null;
+
+      if (stacking) {
+        layerValue = new boolean[TILE_SIZE][TILE_SIZE];
+
+        for (boolean[] row : layerValue) {
+          Arrays.fill(row, true);
+        }
+      }
+
+      Random random = new Random(0);
+      Tile[] samples = new Tile[ExportEstimator.AMPLITUDES.length];
+
+      for (int i = 0; i < samples.length; i++) {
+        samples[i] = ExportEstimator.createTile(ExportEstimator.AMPLITUDES[i], random);
+      }
+
+      // Every candidate matches the first tile once beforehand, as it is slowed down by compilation
+      for (Candidate candidate : candidates) {
+        SlabCustomLayerExporter.trialMatch(samples[0], layer, bank, layerValue, candidate.fixedPoint).release();
+      }
+
+      for (Tile tile : samples) {
+        Shapemap reference = null;
+
+        try {
+          for (Candidate candidate : candidates) {
+            long start = System.nanoTime();
+            Shapemap shapemap = SlabCustomLayerExporter.trialMatch(tile, layer, bank, layerValue,
+                candidate.fixedPoint);
+            candidate.nanos += System.nanoTime() - start;
+
+            if (reference == null) {
+              reference = shapemap;
+            } else {
+              candidate.compare(reference, shapemap, stacking);
+              shapemap.release();
+            }
+          }
+        } finally {
+          if (reference != null) {
+            reference.release();
+          }
+        }
+      }
+
+      for (Candidate candidate : candidates) {
+        logger.info("Calibration: {} took {} ms per tile, {} of levels agree", candidate,
+            TimeUnit.NANOSECONDS.toMillis(candidate.nanos / samples.length),
+            String.format(Locale.ROOT, "%.2f%%", candidate.getAgreement() * 100));
+
+        if (candidate.nanos < best.nanos && candidate.getAgreement() >= MIN_AGREEMENT) {
+          best = candidate;
+        }
+      }
+    }
+
+    properties.setProperty(key + ".fixed", String.valueOf(best.fixedPoint));
+    properties.setProperty(key + ".arena", String.valueOf(getArenaBytes(bank.getResolution(), best.fixedPoint)));
+  }
+
+  // Enough to keep the heights of a tile and their copy with the height of the layer for every processor
+  private static long getArenaBytes(int resolution, boolean fixedPoint) {
+    long tileBytes = (long) TILE_SIZE * TILE_SIZE * resolution * resolution
+        * (fixedPoint ? Short.BYTES : Float.BYTES);
+    long bytes = Math.max(MIN_ARENA_BYTES, 2 * tileBytes * Runtime.getRuntime().availableProcessors());
+    return Math.min(bytes, Runtime.getRuntime().maxMemory() / 8);
+  }
+
+  // The prefix of the saved calibration of a bank
+  private static String getKey(ShapeBank bank, boolean stacking) {
+    return "bank." + bank.getResolution() + "." + bank.getShapeMatrices().size() + "."
+        + bank.getShapeMatricesStacked().size() + (stacking ? ".stacked" : ".flat");
+  }
+
+  // What the calibration depends on, besides the bank
+  private static Properties getFingerprint() {
+    Properties properties = new Properties();
+    properties.setProperty("processors", String.valueOf(Runtime.getRuntime().availableProcessors()));
+    properties.setProperty("maxMemory", String.valueOf(Runtime.getRuntime().maxMemory()));
+    properties.setProperty("java", System.getProperty("java.vm.name") + " " + System.getProperty("java.vm.version"));
+    return properties;
+  }
+
+  // The saved calibrations, or only the fingerprint if they are missing or were made on a different computer
+  private static Properties loadSaved() {
+    Properties fingerprint = getFingerprint();
+    File file = new File(Configuration.getConfigDir(), Constants.CALIBRATION_NAME);
+
+    if (!file.isFile()) {
+      return fingerprint;
+    }
+
+    Properties properties = new Properties();
+
+    try (InputStream in = Files.newInputStream(file.toPath())) {
+      properties.load(in);
+    } catch (IOException e) {
+      logger.warn("Could not read {}", file, e);
+      return fingerprint;
+    }
+
+    for (String key : fingerprint.stringPropertyNames()) {
+      if (!fingerprint.getProperty(key).equals(properties.getProperty(key))) {
+        logger.info("Calibrating again, as {} has changed", key);
+        return fingerprint;
+      }
+    }
+
+    // Anything else, such as the settings of older versions, is dropped the next time the file is saved
+    for (String key : properties.stringPropertyNames()) {
+      if (key.startsWith("bank.")) {
+        fingerprint.setProperty(key, properties.getProperty(key));
+      }
+    }
+
+    return fingerprint;
+  }
+
+  // Take the saved calibration of a bank, or return false if there is none or it cannot be read
+  private static boolean read(Properties properties, String key) {
+    String fixed = properties.getProperty(key + ".fixed");
+    String arena = properties.getProperty(key + ".arena");
+
+    if (fixed == null) {
+      return false;
+    }
+
+    boolean fixedPoint = isSet(FIXED_PROPERTY) ? Constants.FIXED_POINT : Boolean.parseBoolean(fixed);
+
+    if (arena != null && !isSet(ARENA_PROPERTY)) {
+      try {
+        BufferArena.reserve(Long.parseLong(arena));
+      } catch (NumberFormatException e) {
+        logger.warn("Could not read the calibration of {}", key, e);
+        return false;
+      }
+    }
+
+    fixedPoints.put(key, fixedPoint);
+    logger.info("Using {} samples for {} and a {} MB buffer arena", fixedPoint ? "fixed point" : "float", key,
+        BufferArena.getMaxBytes() / (1024 * 1024));
+    return true;
+  }
+
+  private static void save(Properties properties) {
+    File file = new File(Configuration.getConfigDir(), Constants.CALIBRATION_NAME);
+
+    try (OutputStream out = Files.newOutputStream(file.toPath())) {
+      properties.store(out, "Slabify calibration, delete to calibrate again");
+    } catch (IOException e) {
+      logger.warn("Could not write {}", file, e);
+    }
+  }
+
+  private static boolean isSet(String property) {
+    return System.getProperty(property) != null;
+  }
+
+  private static final class Candidate {
+
+    private final boolean fixedPoint;
+    private long nanos;
+    private long compared;
+    private long agreeing;
+
+    private Candidate(boolean fixedPoint) {
+      this.fixedPoint = fixedPoint;
+    }
+
+    // Compare the closest shape of every level that both shapemaps have
+    private void compare(Shapemap reference, Shapemap shapemap, boolean stacking) {
+      for (int x = 0; x < TILE_SIZE; x++) {
+        for (int y = 0; y < TILE_SIZE; y++) {
+          if (!stacking) {
+            compared++;
+
+            if (reference.getIndicesAt(x, y, -1)[0] == shapemap.getIndicesAt(x, y, -1)[0]) {
+              agreeing++;
+            }
+
+            continue;
+          }
+
+          int referenceMinZ = reference.getMinZ(x, y);
+          int minZ = shapemap.getMinZ(x, y);
+          int from = Math.max(referenceMinZ, minZ);
+          int to = Math.min(referenceMinZ + reference.getRange(x, y), minZ + shapemap.getRange(x, y));
+
+          for (int z = from; z < to; z++) {
+            compared++;
+
+            if (reference.getIndicesAt(x, y, z - referenceMinZ)[0] == shapemap.getIndicesAt(x, y, z - minZ)[0]) {
+              agreeing++;
+            }
+          }
+        }
+      }
+    }
+
+    private double getAgreement() {
+      return compared == 0 ? 1 : (double) agreeing / compared;
+    }
+
+    @Override
+    public String toString() {
+      return fixedPoint ? "fixed point" : "float";
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.layers;
+
+import com.gmail.frogocomics.slabify.shape.*;
+import com.gmail.frogocomics.slabify.utils.BufferArena;
+import com.gmail.frogocomics.slabify.utils.DifferenceMap;
+import com.gmail.frogocomics.slabify.utils.Utils;
+import org.pepsoft.util.ColourUtils;
+import org.pepsoft.worldpainter.Dimension;
+import org.pepsoft.worldpainter.Tile;
+
+import java.awt.Color;
+
+import static org.pepsoft.worldpainter.Constants.TILE_SIZE;
+import static org.pepsoft.worldpainter.Constants.TILE_SIZE_BITS;
+
+/**
+ * Draws the shape that an export is predicted to place on every block, in a different colour for every shape. Full
+ * blocks are drawn in the colour of the layer, and blocks where nothing is placed are not drawn.
+ *
+ * <p>The shapes are found with the same upscaling and matching as the export, but without checking which shapes are
+ * available for the block below, so the prediction can differ where a material lacks some shapes.
+ */
+final class ShapeOverlayRenderer extends BackgroundTileRenderer<byte[]> {
+
+  private static final byte EMPTY = -1;
+  private static final byte FULL = -2;
+
+  private final Slab layer;
+  private final int color;
+  private final int intensity;
+  private final int[] shapeColors;
+
+  ShapeOverlayRenderer(Slab layer, int color, float opacity) {
+    super(layer, new SlabCustomLayerRenderer(color, opacity));
+    this.layer = layer;
+    this.color = color;
+    this.intensity = (int) (255 * opacity);
+    this.shapeColors = new int[Shapes.shapesList.size()];
+
+    for (int i = 0; i < shapeColors.length; i++) {
+      shapeColors[i] = Color.HSBtoRGB(i / (float) shapeColors.length, 0.8f, 0.9f) & 0xFFFFFF;
+    }
+  }
+
+  @Override
+  protected byte[] compute(Tile tile, Dimension dimension) {
+    ShapeBank bank = SlabCustomLayerExporter.getBank(layer);
+
+    if (bank == null) {
+      return null;
+    }
+
+    boolean stacking = SlabCustomLayerExporter.isStacking(layer);
+    DifferenceMap heights = SlabCustomLayerExporter.upscale(tile, dimension, layer, bank.getResolution(),
+        KernelCalibration.isFixedPoint(bank, stacking));
+    Shapemap shapemap;
+
+    try {
+      Utils.checkCancelled();
+      shapemap = SlabCustomLayerExporter.match(tile, heights, layer, bank, stacking);
+    } finally {
+      BufferArena.release(heights);
+    }
+
+    try {
+      byte[] shapes = new byte[TILE_SIZE * TILE_SIZE];
+
+      for (int x = 0; x < TILE_SIZE; x++) {
+        for (int y = 0; y < TILE_SIZE; y++) {
+          shapes[(x << TILE_SIZE_BITS) | y] = getTopShape(shapemap, bank, stacking, x, y);
+        }
+      }
+
+      return shapes;
+    } finally {
+      shapemap.release();
+    }
+  }
+
+  @Override
+  protected int getPixelColour(byte[] result, int x, int y, int underlyingColour) {
+    byte shape = result[(x << TILE_SIZE_BITS) | y];
+
+    if (shape == EMPTY) {
+      return underlyingColour;
+    }
+
+    return ColourUtils.mix(shape == FULL ? color : shapeColors[shape], underlyingColour, intensity);
+  }
+
+  // The shape placed at the top of a column, ignoring which shapes are available for the material
+  private static byte getTopShape(Shapemap shapemap, ShapeBank bank, boolean stacking, int x, int y) {
+    if (!stacking) {
+      return getShape(bank, shapemap.getIndicesAt(x, y, -1)[0]);
+    }
+
+    for (int relZ = shapemap.getRange(x, y) - shapemap.getEmptyLevels(x, y) - 1; relZ >= 0; relZ--) {
+      int idx = shapemap.getIndicesAt(x, y, relZ)[0];
+
+      if (idx != bank.getEmptyIndex()) {
+        return getShape(bank, idx);
+      }
+    }
+
+    return EMPTY;
+  }
+
+  private static byte getShape(ShapeBank bank, int idx) {
+    Shape shape = bank.getListShapes()[idx];
+
+    if (shape instanceof FullShape) {
+      return FULL;
+    } else if (shape instanceof EmptyShape) {
+      return EMPTY;
+    }
+
+    return Shapes.shapesMap.inverse().get(shape.getName()).byteValue();
+  }
+}
@@ -0,0 +1,371 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.layers;
+
+import com.gmail.frogocomics.slabify.Constants;
+import com.gmail.frogocomics.slabify.shape.MaterialRegistry;
+import com.gmail.frogocomics.slabify.shape.Shape;
+import com.gmail.frogocomics.slabify.shape.Shape.Options;
+import com.gmail.frogocomics.slabify.shape.ShapeBank;
+import com.gmail.frogocomics.slabify.shape.Shapemap;
+import com.gmail.frogocomics.slabify.shape.StackingStrategy;
+import com.gmail.frogocomics.slabify.utils.DifferenceMap;
+import com.gmail.frogocomics.slabify.utils.IndexMask;
+import com.gmail.frogocomics.slabify.utils.Utils;
+import org.jspecify.annotations.Nullable;
+import org.pepsoft.worldpainter.Configuration;
+import org.pepsoft.worldpainter.Tile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.pepsoft.worldpainter.Constants.TILE_SIZE;
+
+/**
+ * Counts which shapes the exporters of a {@link Slab} layer place, and writes the counts to CSV files in the
+ * {@value Constants#REPORT_DIR_NAME} folder of the configuration folder once the export has finished. This is only
+ * done if {@link Constants#REPORT} is enabled, and shows which shapes never pay for the cost of matching them.
+ *
+ * <p>Three files are written, with a common timestamp:
+ * <ul>
+ *   <li>{@code -shapes.csv}: per layer, base material and bank index, how often the shape was placed, and how often it
+ *   was the closest shape but could not be placed because it is not available for the base material;</li>
+ *   <li>{@code -errors.csv}: per layer, a histogram of the fit error of the columns with the layer, as measured by
+ *   {@link FitError};</li>
+ *   <li>{@code -strategies.csv}: per layer, the number of tiles matched with each vertical layout. A tile whose shapes
+ *   are shared with another layer is only counted for the layer that matched it.</li>
+ * </ul>
+ *
+ * <p>Exporters count into their own instance, and merge it into the report whenever they finish a tile. There is no
+ * notification once an export has finished, so the report is written once nothing has been merged for
+ * {@value #IDLE_DELAY} seconds, and then starts over.
+ */
+final class ShapeUsageReport {
+
+  private static final Logger logger = LoggerFactory.getLogger(ShapeUsageReport.class);
+  // Seconds without any merges before the report is written
+  private static final int IDLE_DELAY = 10;
+  // Fit errors are counted in buckets of this many blocks, with a last bucket for anything larger
+  private static final float ERROR_BUCKET = 0.05f;
+  private static final int ERROR_BUCKETS = 10;
+  private static final String FLAT = "flat";
+
+  // Keyed by layer, material, bank, index; placed and rejected counts
+  private static final Map<List<Object>, ShapeRow> shapeRows = new HashMap<>();
+  private static final Map<String, long[]> errorRows = new HashMap<>();
+  // Keyed by layer and strategy
+  private static final Map<List<String>, long[]> strategyRows = new HashMap<>();
+  private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+      Utils.newThreadFactory("Slabify shape usage report", Thread.NORM_PRIORITY));
+  private static ScheduledFuture<?> pending; // Guarded by shapeRows
+
+  private final Slab layer;
+  private final ShapeBank bank;
+  private final boolean stacking;
+  private final IndexMask allIndices;
+  private final IndexMask allIndicesStacked;
+  // Counts by material id, then by bank index
+  private long[][] placed = new long[0][];
+  private long[][] rejected = new long[0][];
+  private long[][] placedStacked = new long[0][];
+  private long[][] rejectedStacked = new long[0][];
+  private final long[] errors = new long[ERROR_BUCKETS + 1];
+  private final Map<String, long[]> strategies = new HashMap<>();
+
+  /**
+   * Create an instance for an exporter.
+   *
+   * @param layer    the layer of the exporter.
+   * @param bank     the shapes of the layer.
+   * @param stacking whether the blocks of the layer are stacked.
+   */
+  ShapeUsageReport(Slab layer, ShapeBank bank, boolean stacking) {
+    this.layer = layer;
+    this.bank = bank;
+    this.stacking = stacking;
+    allIndices = IndexMask.of(IntStream.range(0, bank.getListShapes().length).toArray());
+    allIndicesStacked = IndexMask.of(IntStream.range(0, bank.getListShapesStacked().length).toArray());
+  }
+
+  /**
+   * Count a placed shape.
+   *
+   * @param shapemap   the shapemap of the tile.
+   * @param x          the x coordinate in the tile.
+   * @param y          the y coordinate in the tile.
+   * @param relativeZ  the relative z coordinate, as passed to the shapemap.
+   * @param materialId the id of the base material.
+   * @param top        whether the shape is from the bank of the top level.
+   * @param index      the bank index of the shape.
+   */
+  void placed(Shapemap shapemap, int x, int y, int relativeZ, int materialId, boolean top, int index) {
+    int closest = shapemap.getIndexAt(x, y, relativeZ, top ? allIndices : allIndicesStacked);
+
+    if (top) {
+      placed = count(placed, materialId, index, bank.getListShapes().length);
+
+      if (closest != index) {
+        rejected = count(rejected, materialId, closest, bank.getListShapes().length);
+      }
+    } else {
+      placedStacked = count(placedStacked, materialId, index, bank.getListShapesStacked().length);
+
+      if (closest != index) {
+        rejectedStacked = count(rejectedStacked, materialId, closest, bank.getListShapesStacked().length);
+      }
+    }
+  }
+
+  /**
+   * Count the fit error of every column of a tile with the layer.
+   *
+   * @param tile     the tile.
+   * @param heights  the heights of the tile.
+   * @param shapemap the shapemap of the tile.
+   */
+  void addErrors(Tile tile, DifferenceMap heights, Shapemap shapemap) {
+    FitError fitError = new FitError(heights, bank, layer, stacking);
+
+    for (int x = 0; x < TILE_SIZE; x++) {
+      for (int y = 0; y < TILE_SIZE; y++) {
+        if (tile.getBitLayerValue(layer, x, y)) {
+          float error = fitError.get(shapemap, x, y);
+
+          if (!Float.isNaN(error)) {
+            errors[Math.min(ERROR_BUCKETS, (int) (error / ERROR_BUCKET))]++;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Count a tile that was matched.
+   *
+   * @param strategy the vertical layout, or {@code null} if the blocks are not stacked.
+   */
+  void matched(@Nullable StackingStrategy strategy) {
+    strategies.computeIfAbsent(strategy != null ? strategy.toString() : FLAT, s -> new long[1])[0]++;
+  }
+
+  /**
+   * Merge the counts into the report and reset them, and write the report once nothing else has been merged for a
+   * while.
+   */
+  void merge() {
+    MaterialRegistry registry = MaterialRegistry.getInstance();
+    String name = layer.getName();
+
+    synchronized (shapeRows) {
+      merge(registry, name, "top", placed, rejected, bank.getListShapes(), bank.getListLocalIds(),
+          bank.getListOptions());
+      merge(registry, name, "stacked", placedStacked, rejectedStacked, bank.getListShapesStacked(),
+          bank.getListLocalIdsStacked(), bank.getListOptionsStacked());
+
+      long[] layerErrors = errorRows.computeIfAbsent(name, k -> new long[ERROR_BUCKETS + 1]);
+
+      for (int i = 0; i < errors.length; i++) {
+        layerErrors[i] += errors[i];
+      }
+
+      strategies.forEach((strategy, count) ->
+          strategyRows.computeIfAbsent(Arrays.asList(name, strategy), k -> new long[1])[0] += count[0]);
+
+      if (pending != null) {
+        pending.cancel(false);
+      }
+
+      pending = executor.schedule(ShapeUsageReport::write, IDLE_DELAY, TimeUnit.SECONDS);
+    }
+
+    placed = new long[0][];
+    rejected = new long[0][];
+    placedStacked = new long[0][];
+    rejectedStacked = new long[0][];
+    Arrays.fill(errors, 0);
+    strategies.clear();
+  }
+
+  private static void merge(MaterialRegistry registry, String name, String bankName, long[][] placed,
+                            long[][] rejected, Shape[] shapes, int[] localIds, Options[] options) {
+    for (int materialId = 0; materialId < Math.max(placed.length, rejected.length); materialId++) {
+      for (int index = 0; index < shapes.length; index++) {
+        long placedCount = get(placed, materialId, index);
+        long rejectedCount = get(rejected, materialId, index);
+
+        if (placedCount == 0 && rejectedCount == 0) {
+          continue;
+        }
+
+        int i = index;
+        ShapeRow row = shapeRows.computeIfAbsent(Arrays.asList(name, registry.getName(materialId), bankName, i),
+            k -> new ShapeRow(shapes[i].getName(), localIds[i], options[i]));
+        row.placed += placedCount;
+        row.rejected += rejectedCount;
+      }
+    }
+  }
+
+  private static long get(long[][] counts, int materialId, int index) {
+    return materialId < counts.length && counts[materialId] != null ? counts[materialId][index] : 0;
+  }
+
+  // Grows the counts to fit the material, as materials are only known once they are placed
+  private static long[][] count(long[][] counts, int materialId, int index, int shapes) {
+    if (materialId >= counts.length) {
+      counts = Arrays.copyOf(counts, materialId + 1);
+    }
+
+    if (counts[materialId] == null) {
+      counts[materialId] = new long[shapes];
+    }
+
+    counts[materialId][index]++;
+    return counts;
+  }
+
+  private static void write() {
+    Map<List<Object>, ShapeRow> shapes;
+    Map<String, long[]> errors;
+    Map<List<String>, long[]> strategies;
+
+    synchronized (shapeRows) {
+      shapes = new TreeMap<>(ShapeUsageReport::compareKeys);
+      shapes.putAll(shapeRows);
+      errors = new TreeMap<>(errorRows);
+      strategies = new TreeMap<>(ShapeUsageReport::compareKeys);
+      strategies.putAll(strategyRows);
+      shapeRows.clear();
+      errorRows.clear();
+      strategyRows.clear();
+      pending = null;
+    }
+
+    File dir = new File(Configuration.getConfigDir(), Constants.REPORT_DIR_NAME);
+    String prefix = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+
+    try {
+      Files.createDirectories(dir.toPath());
+
+      try (BufferedWriter writer = Files.newBufferedWriter(new File(dir, prefix + "-shapes.csv").toPath(),
+          StandardCharsets.UTF_8)) {
+        writer.write("layer,material,bank,index,shape,variant,option,placed,rejected");
+        writer.newLine();
+
+        for (Map.Entry<List<Object>, ShapeRow> entry : shapes.entrySet()) {
+          List<Object> key = entry.getKey();
+          ShapeRow row = entry.getValue();
+          writer.write(escape(key.get(0)) + "," + escape(key.get(1)) + "," + key.get(2) + "," + key.get(3) + ","
+              + escape(row.shape) + "," + row.variant + "," + escape(row.option) + "," + row.placed + ","
+              + row.rejected);
+          writer.newLine();
+        }
+      }
+
+      try (BufferedWriter writer = Files.newBufferedWriter(new File(dir, prefix + "-errors.csv").toPath(),
+          StandardCharsets.UTF_8)) {
+        writer.write("layer,from,to,columns");
+        writer.newLine();
+
+        for (Map.Entry<String, long[]> entry : errors.entrySet()) {
+          long[] counts = entry.getValue();
+
+          for (int i = 0; i < counts.length; i++) {
+            writer.write(escape(entry.getKey()) + "," + String.format(Locale.ROOT, "%.2f", i * ERROR_BUCKET) + ","
+                + (i < ERROR_BUCKETS ? String.format(Locale.ROOT, "%.2f", (i + 1) * ERROR_BUCKET) : "") + ","
+                + counts[i]);
+            writer.newLine();
+          }
+        }
+      }
+
+      try (BufferedWriter writer = Files.newBufferedWriter(new File(dir, prefix + "-strategies.csv").toPath(),
+          StandardCharsets.UTF_8)) {
+        writer.write("layer,strategy,tiles");
+        writer.newLine();
+
+        for (Map.Entry<List<String>, long[]> entry : strategies.entrySet()) {
+          writer.write(escape(entry.getKey().get(0)) + "," + entry.getKey().get(1) + "," + entry.getValue()[0]);
+          writer.newLine();
+        }
+      }
+
+      logger.info("Wrote the shape usage report to {}", new File(dir, prefix + "-*.csv"));
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Could not write the shape usage report to {}", dir, e);
+    }
+  }
+
+  // Compares keys element by element, numbers as numbers
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static int compareKeys(List<?> a, List<?> b) {
+    Comparator<Comparable> comparator = Comparator.nullsFirst(Comparator.naturalOrder());
+
+    for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+      int result = comparator.compare((Comparable) a.get(i), (Comparable) b.get(i));
+
+      if (result != 0) {
+        return result;
+      }
+    }
+
+    return Integer.compare(a.size(), b.size());
+  }
+
+  private static String escape(@Nullable Object value) {
+    if (value == null) {
+      return "";
+    }
+
+    String s = value.toString();
+
+    if (s.contains(",") || s.contains("\"") || s.contains("\n")) {
+      return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+    return s;
+  }
+
+  private static final class ShapeRow {
+
+    private final String shape;
+    private final int variant;
+    private final Options option;
+    private long placed = 0;
+    private long rejected = 0;
+
+    private ShapeRow(String shape, int variant, Options option) {
+      this.shape = shape;
+      this.variant = variant;
+      this.option = option;
+    }
+  }
+}
@@ -18,6 +18,7 @@
 
 package com.gmail.frogocomics.slabify.layers;
 
+import com.gmail.frogocomics.slabify.Constants;
 import com.gmail.frogocomics.slabify.shape.Shape;
 import com.gmail.frogocomics.slabify.shape.Shape.Options;
 import com.gmail.frogocomics.slabify.shape.Shapes;
@@ -105,7 +106,15 @@ public final class Slab extends CustomLayer {
       throw new IllegalStateException("Images are not supported");
     }
 
-    return new SlabCustomLayerRenderer(((Color) getPaint()).getRGB(), getOpacity());
+    int color = ((Color) getPaint()).getRGB();
+
+    if (Constants.OVERLAY_SHAPES.equals(Constants.OVERLAY)) {
+      return new ShapeOverlayRenderer(this, color, getOpacity());
+    } else if (Constants.OVERLAY_ERROR.equals(Constants.OVERLAY)) {
+      return new ErrorHeatmapRenderer(this, color, getOpacity());
+    }
+
+    return new SlabCustomLayerRenderer(color, getOpacity());
   }
 
   @Override
@@ -19,14 +19,20 @@
 package com.gmail.frogocomics.slabify.layers;
 
 import com.gmail.frogocomics.slabify.Constants;
+import com.gmail.frogocomics.slabify.layers.ExportEvents.MatchEvent;
+import com.gmail.frogocomics.slabify.layers.ExportEvents.PlaceEvent;
+import com.gmail.frogocomics.slabify.layers.ExportEvents.UpscaleEvent;
 import com.gmail.frogocomics.slabify.linalg.Matrix;
 import com.gmail.frogocomics.slabify.shape.*;
 import com.gmail.frogocomics.slabify.shape.Shape.Options;
+import com.gmail.frogocomics.slabify.utils.BufferArena;
+import com.gmail.frogocomics.slabify.utils.DifferenceMap;
+import com.gmail.frogocomics.slabify.utils.ExportMetrics;
+import com.gmail.frogocomics.slabify.utils.ExportMetrics.Stage;
+import com.gmail.frogocomics.slabify.utils.IndexMask;
 import com.gmail.frogocomics.slabify.utils.Utils;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Multiset;
-import org.javatuples.Pair;
-import org.javatuples.Quartet;
 import org.jspecify.annotations.Nullable;
 import org.pepsoft.minecraft.Chunk;
 import org.pepsoft.minecraft.Material;
@@ -41,7 +47,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 
 import static com.gmail.frogocomics.slabify.Constants.CHUNK_SIZE;
 import static com.gmail.frogocomics.slabify.Constants.CQ_NAMESPACE;
@@ -54,7 +60,8 @@ public final class SlabCustomLayerExporter extends AbstractLayerExporter<Slab> i
 
   private static final Logger logger = LoggerFactory.getLogger(SlabCustomLayerExporter.class);
 
-  private final List<Matrix> shapeMatrices = new ArrayList<>();
+  // Shared with every layer with the same shape options, must not be modified
+  private List<Matrix> shapeMatrices = Collections.emptyList();
   private int fullIdx;
   private int fullIdxStacked;
   private int emptyIdx;
@@ -64,24 +71,32 @@ public final class SlabCustomLayerExporter extends AbstractLayerExporter<Slab> i
   private int[] listHeights; // 0 if cut, 1+ if fill
   private Options[] listOptions; // Option corresponding to shape
 
-  private final List<Matrix> shapeMatricesStacked = new ArrayList<>();
+  private List<Matrix> shapeMatricesStacked = Collections.emptyList();
   private Shape[] listShapesStacked;
   private int[] listLocalIdsStacked;
   private Options[] listOptionsStacked;
-
-  private final Map<String, Set<Integer>> availableIndices = new HashMap<>();
-  private final Set<Integer> layerIndices = new HashSet<>();
-  private final Map<String, Set<Integer>> availableIndicesNoLayer = new HashMap<>();
-  private final Map<String, Set<Integer>> availableIndicesStacked = new HashMap<>();
+  // Blocks placed of every shape in the current chunk
+  private long[] placed;
+  private long[] placedStacked;
+  private ShapeUsageReport usage;
+
+  private ShapeBank bank;
+  private IndexMask layerIndices = IndexMask.empty();
+  // Available bank indices, by material id
+  private IndexMask[] availableIndices;
+  private IndexMask[] availableIndicesNoLayer;
+  private IndexMask[] availableIndicesStacked;
   private final Map<Tile, Shapemap> shapemaps = new HashMap<>();
   private final Multiset<Tile> tileCounter = HashMultiset.create();
+  private final TileCache tileCache;
+  // Identifies the shapemaps of this exporter in the tile cache, without the cache keeping the exporter alive
+  private final Object owner = new Object();
   private int resolution = 1;
   private Map<String, Material> mapping;
   private final boolean stacking;
-
-  // Buffers
-  private float[][] heightmapBuffer;
-  private float[][] differenceBuffer;
+  // Whether the heights are fixed point samples, as calibrated for the bank. It is fixed for the life of the exporter,
+  // as it is part of the keys of the tile cache.
+  private final boolean fixedPoint;
 
   private boolean disable = false;
 
@@ -90,7 +105,8 @@ public final class SlabCustomLayerExporter extends AbstractLayerExporter<Slab> i
 
     logger.debug("Creating {}", getClass().getName());
 
-    stacking = layer.supportsStacking() && layer.allowConquest();
+    stacking = isStacking(layer);
+    tileCache = TileCache.get(dimension);
 
     if (layer.mimicsTerrain()) {
       mapping = layer.getMapping();
@@ -101,118 +117,34 @@ public final class SlabCustomLayerExporter extends AbstractLayerExporter<Slab> i
       }
     }
 
+    bank = getBank(layer);
+
     // Disable if all shapes are disabled
-    if (layer.getShapes().values().stream().allMatch(options -> options == Options.DISABLE)) {
+    if (bank == null) {
       disable = true;
+      fixedPoint = Constants.FIXED_POINT;
     } else {
-      // If there are shapes that are enabled, get a list of the shapes
-
-      // First, get the resolution
-      for (Entry<String, Options> entry : layer.getShapes().entrySet()) {
-        if (entry.getValue() != Options.DISABLE) {
-          resolution = Math.max(resolution,
-              Shapes.shapesList.get(Shapes.shapesMap.inverse().get(entry.getKey())).getMinResolution(entry.getValue()));
-        }
+      resolution = bank.getResolution();
+      shapeMatrices = bank.getShapeMatrices();
+      shapeMatricesStacked = bank.getShapeMatricesStacked();
+      fullIdx = bank.getFullIndex();
+      fullIdxStacked = bank.getFullIndexStacked();
+      emptyIdx = bank.getEmptyIndex();
+      listShapes = bank.getListShapes();
+      listLocalIds = bank.getListLocalIds();
+      listHeights = bank.getListHeights();
+      listOptions = bank.getListOptions();
+      listShapesStacked = bank.getListShapesStacked();
+      listLocalIdsStacked = bank.getListLocalIdsStacked();
+      listOptionsStacked = bank.getListOptionsStacked();
+      layerIndices = bank.getLayerIndices();
+      placed = new long[listShapes.length];
+      placedStacked = new long[listShapesStacked.length];
+      fixedPoint = KernelCalibration.ensure(layer, bank, stacking);
+
+      if (Constants.REPORT) {
+        usage = new ShapeUsageReport(layer, bank, stacking);
       }
-
-      List<Quartet<Shape, Integer, Integer, Options>> shapeIndices = new ArrayList<>();
-      List<Quartet<Shape, Integer, Integer, Options>> shapeIndicesStacked = new ArrayList<>();
-
-      for (Entry<String, Options> entry : layer.getShapes().entrySet()) {
-        Shape shape = Shapes.shapesList.get(Shapes.shapesMap.inverse().get(entry.getKey()));
-        Optional<List<Matrix>> optBakedShapes = shape.getShapeMatrices(entry.getValue(), resolution);
-
-        if (optBakedShapes.isPresent()) {
-          List<Matrix> bakedShapes = optBakedShapes.get();
-
-          // Fill + 1
-          shapeMatrices.addAll(bakedShapes);
-
-          for (int i = 0; i < bakedShapes.size(); i++) {
-            shapeIndices.add(Quartet.with(shape, i, 1, entry.getValue()));
-          }
-
-          if (shape.supportsStacking()) {
-            shapeMatricesStacked.addAll(bakedShapes);
-
-            for (int i = 0; i < bakedShapes.size(); i++) {
-              shapeIndicesStacked.add(Quartet.with(shape, i, 1, entry.getValue()));
-            }
-          }
-
-          if (!stacking) {
-            // Fill + 2
-            for (Matrix m : bakedShapes) {
-              Matrix copyM = m.clone();
-              copyM.add(1);
-              shapeMatrices.add(copyM);
-            }
-
-            for (int i = 0; i < bakedShapes.size(); i++) {
-              shapeIndices.add(Quartet.with(shape, i, 2, entry.getValue()));
-            }
-
-            // Cut + 0
-            for (Matrix m : bakedShapes) {
-              Matrix copyM = m.clone();
-              copyM.sub(1);
-              shapeMatrices.add(copyM);
-            }
-
-            for (int i = 0; i < bakedShapes.size(); i++) {
-              shapeIndices.add(Quartet.with(shape, i, 0, entry.getValue()));
-            }
-          }
-        }
-      }
-
-      // Add additional shapes: full and empty
-      shapeMatrices.addAll(FullShape.getInstance().getShapeMatrices(null, resolution).get());
-      shapeIndices.add(Quartet.with(FullShape.getInstance(), 0, 1, null));
-      shapeMatrices.addAll(EmptyShape.getInstance().getShapeMatrices(null, resolution).get());
-      shapeIndices.add(Quartet.with(EmptyShape.getInstance(), 0, 1, null));
-
-      shapeMatricesStacked.addAll(FullShape.getInstance().getShapeMatrices(null, resolution).get());
-      shapeIndicesStacked.add(Quartet.with(FullShape.getInstance(), 0, 1, null));
-      shapeMatricesStacked.addAll(EmptyShape.getInstance().getShapeMatrices(null, resolution).get());
-      shapeIndicesStacked.add(Quartet.with(EmptyShape.getInstance(), 0, 1, null));
-
-      fullIdx = shapeMatrices.size() - 2;
-      fullIdxStacked = shapeMatricesStacked.size() - 2;
-      emptyIdx = shapeMatrices.size() - 1;
-
-      listShapes = new Shape[shapeMatrices.size()];
-      listLocalIds = new int[shapeMatrices.size()];
-      listHeights = new int[shapeMatrices.size()];
-      listOptions = new Options[shapeMatrices.size()];
-      listShapesStacked = new Shape[shapeMatricesStacked.size()];
-      listLocalIdsStacked = new int[shapeMatricesStacked.size()];
-      listOptionsStacked = new Options[shapeMatricesStacked.size()];
-
-      for (int i = 0; i < shapeIndices.size(); i++) {
-        Quartet<Shape, Integer, Integer, Options> q = shapeIndices.get(i);
-        listShapes[i] = q.getValue0();
-        listLocalIds[i] = q.getValue1();
-        listHeights[i] = q.getValue2();
-        listOptions[i] = q.getValue3();
-      }
-
-      for (int i = 0; i < shapeIndicesStacked.size(); i++) {
-        Quartet<Shape, Integer, Integer, Options> q = shapeIndicesStacked.get(i);
-        listShapesStacked[i] = q.getValue0();
-        listLocalIdsStacked[i] = q.getValue1();
-        listOptionsStacked[i] = q.getValue3();
-      }
-
-      for (int i = 0; i < listShapes.length; i++) {
-        if (listShapes[i] instanceof LayerShape || listShapes[i] instanceof AltLayerShape) {
-          layerIndices.add(i);
-        }
-      }
-
-      // Create buffers
-      heightmapBuffer = new float[TILE_SIZE * resolution][TILE_SIZE * resolution];
-      differenceBuffer = new float[TILE_SIZE * resolution][TILE_SIZE * resolution];
     }
   }
 
@@ -236,13 +168,32 @@ public final class SlabCustomLayerExporter extends AbstractLayerExporter<Slab> i
    *              object.
    */
   public void render(Tile tile, Chunk chunk) {
+    try {
+      renderChunk(tile, chunk);
+    } catch (RuntimeException | Error e) {
+      // The export fails, so the tiles in progress are never finished
+      for (Tile held : new ArrayList<>(shapemaps.keySet())) {
+        releaseTile(held);
+      }
 
+      throw e;
+    }
+  }
+
+  private void renderChunk(Tile tile, Chunk chunk) {
     if (!disable) {
       int xOffset = (chunk.getxPos() & 7) << 4;
       int zOffset = (chunk.getzPos() & 7) << 4;
       MixedMaterial mixedMaterial = layer.getMaterial();
+      MaterialRegistry registry = MaterialRegistry.getInstance();
       long seed = dimension.getSeed();
 
+      if (availableIndices == null) {
+        availableIndices = new IndexMask[registry.size()];
+        availableIndicesNoLayer = new IndexMask[registry.size()];
+        availableIndicesStacked = new IndexMask[registry.size()];
+      }
+
       Shapemap shapemap;
 
       // Create shape map and difference map
@@ -250,44 +201,29 @@ public final class SlabCustomLayerExporter extends AbstractLayerExporter<Slab> i
         // The tile was already created
         shapemap = shapemaps.get(tile);
       } else {
-        logger.debug("Upscaling tile: {}, {}", tile.getX(), tile.getY());
-
-        if (resolution == 1) {
-          // No upscaling, just copy over everything.
-          for (int x = 0; x < TILE_SIZE; x++) {
-            for (int y = 0; y < TILE_SIZE; y++) {
-              heightmapBuffer[x][y] = tile.getHeight(x, y);
-            }
-          }
-        } else {
-          Utils.upscaleTile(tile, dimension, layer.getInterpolation(), resolution, heightmapBuffer);
+        // Other Slab layers on the same tile share the upscaled heights, and the shapemap if they share a bank
+        DifferenceMap heights = tileCache.acquire(getHeightsKey(tile), () -> prepareHeights(tile),
+            BufferArena::release);
+
+        try {
+          shapemap = tileCache.acquire(getShapemapKey(tile), () -> prepareShapemap(tile, heights),
+              SlabCustomLayerExporter::releaseShapemap);
+        } catch (RuntimeException | Error e) {
+          tileCache.release(getHeightsKey(tile));
+          throw e;
         }
 
-        Utils.getDifference(heightmapBuffer, tile, layer.getHeight(), differenceBuffer);
-
-        if (stacking) {
-          boolean[][] layerValue = new boolean[TILE_SIZE][TILE_SIZE];
-
-          for (int x = 0; x < TILE_SIZE; x++) {
-            for (int y = 0; y < TILE_SIZE; y++) {
-              layerValue[x][y] = tile.getBitLayerValue(layer, x, y);
-            }
-          }
+        shapemaps.put(tile, shapemap);
 
-          // Determine the maximum vertical delta, and if high, switch to an alterative strategy
-          Pair<Float, Float> maxMin = Utils.findMinAndMax(differenceBuffer, layerValue, resolution);
-          float heightDelta = maxMin.getValue0() - maxMin.getValue1();
-          if (heightDelta < 5) { // Arbitrary
-            shapemap = Shapes.findMostSimilarShapes(differenceBuffer, resolution, shapeMatrices, shapeMatricesStacked, stacking, layerValue);
-          } else { // Steep slopes present and faster to use optimization
-            shapemap = Shapes.findMostSimilarShapesRagged(differenceBuffer, resolution, shapeMatrices, shapeMatricesStacked, layerValue);
-          }
-        } else {
-          shapemap = Shapes.findMostSimilarShapes(differenceBuffer, resolution, shapeMatrices, shapeMatricesStacked, stacking, null);
+        if (usage != null) {
+          usage.addErrors(tile, heights, shapemap);
         }
-        shapemaps.put(tile, shapemap);
       }
 
+      PlaceEvent event = new PlaceEvent();
+      event.begin();
+      long placeStart = System.nanoTime();
+
       for (int x = 0; x < CHUNK_SIZE; x++) {
         int localX = xOffset + x;
         int worldX = (chunk.getxPos() << 4) + x;
@@ -316,34 +252,34 @@ public final class SlabCustomLayerExporter extends AbstractLayerExporter<Slab> i
             Material baseMaterial = layer.mimicsTerrain() ? mapping.get(blockBelow.name)
                 : mixedMaterial.getMaterial(seed, worldX, worldZ, terrainHeight + 1);
 
-            if (!Shapes.isAvailable(baseMaterial.name)) {
-              continue;
-            }
-
-            if (!availableIndices.containsKey(baseMaterial.name)) {
-              availableIndices.put(baseMaterial.name, getAvailableIndices(baseMaterial.name, false));
-            }
-
-            Set<Integer> availableIndex = availableIndices.get(baseMaterial.name);
+            int materialId = registry.getId(baseMaterial.name);
 
-            if (!availableIndicesNoLayer.containsKey(baseMaterial.name)) {
-              Set<Integer> s = new HashSet<>(availableIndex);
-              s.removeAll(layerIndices);
-              availableIndicesNoLayer.put(baseMaterial.name, s);
+            if (materialId < 0) {
+              continue;
             }
 
-            if (!availableIndicesStacked.containsKey(baseMaterial.name)) {
-              availableIndicesStacked.put(baseMaterial.name, getAvailableIndices(baseMaterial.name, true));
+            if (availableIndices[materialId] == null) {
+              availableIndices[materialId] = getAvailableIndices(registry, materialId, false);
+              availableIndicesNoLayer[materialId] = availableIndices[materialId].andNot(layerIndices);
+              availableIndicesStacked[materialId] = getAvailableIndices(registry, materialId, true);
             }
 
-            Set<Integer> availableIndexNoLayer = availableIndicesNoLayer.get(baseMaterial.name);
-            Set<Integer> availableIndexStacked = availableIndicesStacked.get(baseMaterial.name);
+            IndexMask availableIndex = availableIndices[materialId];
+            IndexMask availableIndexNoLayer = availableIndicesNoLayer[materialId];
+            IndexMask availableIndexStacked = availableIndicesStacked[materialId];
 
             boolean top = true;
             int localRange = shapemap.getRange(localX, localZ);
             int localMinZ = shapemap.getMinZ(localX, localZ);
+            int localFull = shapemap.getFullLevels(localX, localZ);
+
+            // Empty levels at the top of the column never place anything, so start below them
+            for (int relZ = localRange - shapemap.getEmptyLevels(localX, localZ) - 1; relZ >= 0; relZ--) {
+              // Once something has been placed, the remaining full levels below the terrain are all skipped
+              if (!top && relZ < localFull && relZ + localMinZ + 1 <= 0) {
+                break;
+              }
 
-            for (int relZ = localRange - 1; relZ >= 0; relZ--) {
               boolean updateTop = true;
               int idx = shapemap.getIndexAt(localX, localZ, relZ, top ? availableIndex : availableIndexStacked);
 
@@ -361,8 +297,8 @@ public final class SlabCustomLayerExporter extends AbstractLayerExporter<Slab> i
                 }
               }
 
-              Material slabMaterial = top ? listShapes[idx].getMaterial(baseMaterial, listLocalIds[idx], listOptions[idx]) :
-                  listShapesStacked[idx].getMaterial(baseMaterial, listLocalIdsStacked[idx], listOptionsStacked[idx]);
+              Material slabMaterial = top ? listShapes[idx].getMaterial(materialId, baseMaterial, listLocalIds[idx], listOptions[idx]) :
+                  listShapesStacked[idx].getMaterial(materialId, baseMaterial, listLocalIdsStacked[idx], listOptionsStacked[idx]);
 
               // If material is empty, skip
               if (slabMaterial == Material.AIR) {
@@ -413,8 +349,10 @@ public final class SlabCustomLayerExporter extends AbstractLayerExporter<Slab> i
 
               if (top && terrainHeight + relZ + localMinZ + 1 < maxHeight) {
                 listShapes[idx].place(worldX, terrainHeight + relZ + localMinZ + 1, worldZ, x, z, chunk, slabMaterial, baseMaterial);
+                countPlaced(shapemap, localX, localZ, relZ, materialId, true, idx);
               } else if (terrainHeight + relZ + localMinZ + 1 < maxHeight) {
                 listShapesStacked[idx].place(worldX, terrainHeight + relZ + localMinZ + 1, worldZ, x, z, chunk, slabMaterial, baseMaterial);
+                countPlaced(shapemap, localX, localZ, relZ, materialId, false, idx);
               }
 
               if (updateTop) {
@@ -449,17 +387,18 @@ public final class SlabCustomLayerExporter extends AbstractLayerExporter<Slab> i
             Material baseMaterial = layer.mimicsTerrain() ? mapping.get(materialStr)
                 : mixedMaterial.getMaterial(seed, worldX, worldZ, terrainHeight + 1);
 
-            if (!Shapes.isAvailable(baseMaterial.name)) {
+            int materialId = registry.getId(baseMaterial.name);
+
+            if (materialId < 0) {
               continue;
             }
 
-
-            if (!availableIndices.containsKey(baseMaterial.name)) {
-              availableIndices.put(baseMaterial.name, getAvailableIndices(baseMaterial.name, false));
+            if (availableIndices[materialId] == null) {
+              availableIndices[materialId] = getAvailableIndices(registry, materialId, false);
             }
 
-            int idx = shapemap.getIndexAt(localX, localZ, -1, availableIndices.get(baseMaterial.name));
-            Material slabMaterial = listShapes[idx].getMaterial(baseMaterial, listLocalIds[idx], listOptions[idx]);
+            int idx = shapemap.getIndexAt(localX, localZ, -1, availableIndices[materialId]);
+            Material slabMaterial = listShapes[idx].getMaterial(materialId, baseMaterial, listLocalIds[idx], listOptions[idx]);
 
             // If material is empty, skip
             if (slabMaterial == Material.AIR) {
@@ -505,6 +444,7 @@ public final class SlabCustomLayerExporter extends AbstractLayerExporter<Slab> i
 
               // Place the block
               listShapes[idx].place(worldX, terrainHeight + 1, worldZ, x, z, chunk, slabMaterial, baseMaterial);
+              countPlaced(shapemap, localX, localZ, -1, materialId, true, idx);
 
               if (Constants.CORRECT && isDoubleBlock(blockAbove, blockTwoAbove)) {
                 chunk.setMaterial(x, terrainHeight + 2, z, Material.AIR);
@@ -544,6 +484,7 @@ public final class SlabCustomLayerExporter extends AbstractLayerExporter<Slab> i
 
               // Place the block
               listShapes[idx].place(worldX, terrainHeight + 2, worldZ, x, z, chunk, slabMaterial, baseMaterial);
+              countPlaced(shapemap, localX, localZ, -1, materialId, true, idx);
 
               if (Constants.CORRECT && isDoubleBlock(blockTwoAbove, blockThreeAbove)) {
                 chunk.setMaterial(x, terrainHeight + 3, z, Material.AIR);
@@ -565,6 +506,7 @@ public final class SlabCustomLayerExporter extends AbstractLayerExporter<Slab> i
 
               // Place the block
               listShapes[idx].place(worldX, terrainHeight, worldZ, x, z, chunk, slabMaterial, baseMaterial);
+              countPlaced(shapemap, localX, localZ, -1, materialId, true, idx);
 
               if (Constants.CORRECT && isDoubleBlock(blockBelow, blockAbove)) {
                 chunk.setMaterial(x, terrainHeight + 1, z, Material.AIR);
@@ -574,41 +516,433 @@ public final class SlabCustomLayerExporter extends AbstractLayerExporter<Slab> i
         }
       }
 
+      ExportMetrics.record(Stage.PLACE, System.nanoTime() - placeStart);
+      long blocks = reportPlaced();
+
+      if (event.shouldCommit()) {
+        event.tileX = tile.getX();
+        event.tileY = tile.getY();
+        event.chunkX = chunk.getxPos();
+        event.chunkZ = chunk.getzPos();
+        event.layer = layer.getName();
+        event.blocks = blocks;
+        event.commit();
+      }
+
       tileCounter.add(tile);
 
       // 64 chunks per tile (8*8)
       // Remove shapemap to save memory when all chunks in particular tile have been fully processed
       if (tileCounter.count(tile) == 64) {
-        shapemaps.remove(tile);
-        tileCounter.remove(tile, 64);
+        if (usage != null) {
+          usage.merge();
+        }
+
+        releaseTile(tile);
       }
     }
   }
 
-  private Set<Integer> getAvailableIndices(String baseMaterial, boolean stacked) {
-    List<String> availableShapes = Shapes.getAvailableShapes(baseMaterial);
-    Set<Integer> availableIndices = new HashSet<>();
+  private void releaseTile(Tile tile) {
+    shapemaps.remove(tile);
+    tileCounter.remove(tile, tileCounter.count(tile));
+    tileCache.release(getShapemapKey(tile));
+    tileCache.release(getHeightsKey(tile));
+  }
 
-    if (Shapes.isAvailable(baseMaterial)) {
-      Shape[] arr = stacked ? listShapesStacked : listShapes;
+  private DifferenceMap prepareHeights(Tile tile) {
+    long start = System.nanoTime();
+    DifferenceMap heights = upscale(tile, dimension, layer, resolution, fixedPoint, 0, 0, TILE_SIZE, true);
+    ExportMetrics.record(Stage.UPSCALE, System.nanoTime() - start);
+    ExportMetrics.tilePrepared();
+    return heights;
+  }
 
-      for (int i = 0; i < arr.length; i++) {
+  private Shapemap prepareShapemap(Tile tile, DifferenceMap heights) {
+    long start = System.nanoTime();
+    Shapemap shapemap = match(tile, heights, layer, bank, stacking, stacking ? getLayerValue(tile, layer) : null,
+        usage, true);
+    ExportMetrics.record(Stage.MATCH, System.nanoTime() - start);
+    ExportMetrics.shapemapBytes(shapemap.getSizeInBytes());
+    return shapemap;
+  }
 
-        Shape shape = arr[i];
-        if (availableShapes.contains(shape.getName())) {
-          if (layer.allowConquest() || (Shapes.getMaterial(shape, baseMaterial) != null &&
-              !Shapes.getMaterial(shape, baseMaterial).startsWith(CQ_NAMESPACE))) {
-            availableIndices.add(i);
-          } else if (shape instanceof FullShape || shape instanceof EmptyShape) {
-            availableIndices.add(i);
-          }
+  private static void releaseShapemap(Shapemap shapemap) {
+    ExportMetrics.shapemapBytes(-shapemap.getSizeInBytes());
+    shapemap.release();
+  }
+
+  private void countPlaced(Shapemap shapemap, int localX, int localZ, int relZ, int materialId, boolean top,
+                           int idx) {
+    if (top) {
+      placed[idx]++;
+    } else {
+      placedStacked[idx]++;
+    }
+
+    if (usage != null) {
+      usage.placed(shapemap, localX, localZ, relZ, materialId, top, idx);
+    }
+  }
+
+  // Counted per chunk rather than per block, to keep the counters out of the placing loop. Returns the blocks placed.
+  private long reportPlaced() {
+    long total = 0;
+
+    for (int i = 0; i < placed.length; i++) {
+      if (placed[i] > 0) {
+        ExportMetrics.blocksPlaced(listShapes[i].getName(), placed[i]);
+        total += placed[i];
+        placed[i] = 0;
+      }
+    }
+
+    for (int i = 0; i < placedStacked.length; i++) {
+      if (placedStacked[i] > 0) {
+        ExportMetrics.blocksPlaced(listShapesStacked[i].getName(), placedStacked[i]);
+        total += placedStacked[i];
+        placedStacked[i] = 0;
+      }
+    }
+
+    return total;
+  }
+
+  // Heights are shared by every layer with the same resolution, interpolation and kind of samples
+  private List<?> getHeightsKey(Tile tile) {
+    return Arrays.asList(tile, resolution, layer.getInterpolation(), fixedPoint);
+  }
+
+  // Without stacking, every column is matched, so the shapemap only depends on the bank and the height. With stacking,
+  // only columns with the layer are matched, so the shapemap is never shared.
+  private List<?> getShapemapKey(Tile tile) {
+    return Arrays.asList(tile, resolution, layer.getInterpolation(), fixedPoint, bank, layer.getHeight(),
+        stacking ? owner : null);
+  }
+
+  /**
+   * Get whether the blocks of a layer are stacked.
+   *
+   * @param layer the layer.
+   * @return {@code true} if the blocks are stacked.
+   */
+  static boolean isStacking(Slab layer) {
+    return layer.supportsStacking() && layer.allowConquest();
+  }
+
+  /**
+   * Get the bank of the shapes that a layer places, with the stacked shapes if the layer stacks them.
+   *
+   * @param layer the layer.
+   * @return the bank, or {@code null} if every shape of the layer is disabled.
+   */
+  static @Nullable ShapeBank getBank(Slab layer) {
+    if (layer.getShapes().values().stream().allMatch(options -> options == Options.DISABLE)) {
+      return null;
+    }
+
+    return ShapeBank.get(layer.getShapes(), isStacking(layer));
+  }
+
+  /**
+   * Upscale the heights of a tile, relative to the integer height of every column. The heights do not include the
+   * height of the layer. This is for the editor, so no events are recorded.
+   *
+   * @param tile       the tile.
+   * @param dimension  the dimension of the tile, or {@code null} if the tile has no neighbors.
+   * @param layer      the layer.
+   * @param resolution the resolution of the shapes.
+   * @param fixedPoint whether to use fixed point samples.
+   * @return the heights, borrowed from the {@link BufferArena}.
+   */
+  static DifferenceMap upscale(Tile tile, @Nullable Dimension dimension, Slab layer, int resolution,
+                               boolean fixedPoint) {
+    return upscale(tile, dimension, layer, resolution, fixedPoint, 0, 0, TILE_SIZE);
+  }
+
+  /**
+   * Upscale the heights of a square region of a tile, relative to the integer height of every column. The heights of
+   * the columns outside the region are undefined, so they must not be matched. This is for the editor, so no events
+   * are recorded.
+   *
+   * @param tile       the tile.
+   * @param dimension  the dimension of the tile, or {@code null} if the tile has no neighbors.
+   * @param layer      the layer.
+   * @param resolution the resolution of the shapes.
+   * @param fixedPoint whether to use fixed point samples.
+   * @param x          the x coordinate of the region within the tile.
+   * @param y          the y coordinate of the region within the tile.
+   * @param size       the size of the region in blocks.
+   * @return the heights, borrowed from the {@link BufferArena}.
+   */
+  static DifferenceMap upscale(Tile tile, @Nullable Dimension dimension, Slab layer, int resolution,
+                               boolean fixedPoint, int x, int y, int size) {
+    return upscale(tile, dimension, layer, resolution, fixedPoint, x, y, size, false);
+  }
+
+  private static DifferenceMap upscale(Tile tile, @Nullable Dimension dimension, Slab layer, int resolution,
+                                       boolean fixedPoint, int x, int y, int size, boolean recorded) {
+    logger.debug("Upscaling tile: {}, {}", tile.getX(), tile.getY());
+    UpscaleEvent event = new UpscaleEvent();
+
+    if (recorded) {
+      event.begin();
+    }
+
+    DifferenceMap heights = BufferArena.acquireDifferenceMap(TILE_SIZE, resolution, fixedPoint);
+
+    try {
+      Utils.getDifference(tile, dimension, layer.getInterpolation(), resolution, 0, x, y, size, heights);
+    } catch (RuntimeException e) {
+      BufferArena.release(heights);
+      throw e;
+    }
+
+    if (recorded && event.shouldCommit()) {
+      event.tileX = tile.getX();
+      event.tileY = tile.getY();
+      event.resolution = resolution;
+      event.interpolation = String.valueOf(layer.getInterpolation());
+      event.fixedPoint = fixedPoint;
+      event.commit();
+    }
+
+    return heights;
+  }
+
+  /**
+   * Find the closest shapes of a tile. This is for the editor, so no events or metrics are recorded, and tiles over
+   * their budget are only logged at debug level.
+   *
+   * @param tile     the tile.
+   * @param heights  the heights of the tile, from {@link #upscale(Tile, Dimension, Slab, int, boolean)}.
+   * @param layer    the layer.
+   * @param bank     the shapes of the layer.
+   * @param stacking whether the blocks of the layer are stacked.
+   * @return the shapemap.
+   */
+  static Shapemap match(Tile tile, DifferenceMap heights, Slab layer, ShapeBank bank, boolean stacking) {
+    return match(tile, heights, layer, bank, stacking ? getLayerValue(tile, layer) : null);
+  }
+
+  /**
+   * Find the closest shapes of a tile, given where the layer is present. This is for the editor, so nothing is
+   * recorded.
+   *
+   * @param tile       the tile.
+   * @param heights    the heights of the tile, from {@link #upscale(Tile, Dimension, Slab, int, boolean)}.
+   * @param layer      the layer.
+   * @param bank       the shapes of the layer.
+   * @param layerValue whether the layer is present on every column, or {@code null} if the blocks of the layer are
+   *                   not stacked.
+   * @return the shapemap.
+   */
+  static Shapemap match(Tile tile, DifferenceMap heights, Slab layer, ShapeBank bank,
+                        boolean[][] layerValue) {
+    return match(tile, heights, layer, bank, layerValue != null, layerValue, null, false);
+  }
+
+  /**
+   * Find the closest shapes of some of the columns of a tile. The other columns are left unmatched, even if the blocks
+   * of the layer are not stacked. This is for the editor, so nothing is recorded.
+   *
+   * @param tile     the tile.
+   * @param heights  the heights of the tile, which only have to be defined where the mask is set.
+   * @param layer    the layer.
+   * @param bank     the shapes of the layer.
+   * @param stacking whether the blocks of the layer are stacked.
+   * @param mask     the columns to match.
+   * @return the shapemap.
+   */
+  static Shapemap match(Tile tile, DifferenceMap heights, Slab layer, ShapeBank bank, boolean stacking,
+                        boolean[][] mask) {
+    return match(tile, heights, layer, bank, stacking, mask, null, false);
+  }
+
+  /**
+   * Upscale and match a generated tile with the given kind of samples. Nothing is recorded, so this can be used to try
+   * out a setting before it is picked.
+   *
+   * @param tile       the tile, which has no neighbors.
+   * @param layer      the layer.
+   * @param bank       the shapes of the layer.
+   * @param layerValue whether the layer is present on every column, or {@code null} if the blocks of the layer are
+   *                   not stacked.
+   * @param fixedPoint whether to use fixed point samples.
+   * @return the shapemap.
+   */
+  static Shapemap trialMatch(Tile tile, Slab layer, ShapeBank bank, boolean[][] layerValue, boolean fixedPoint) {
+    DifferenceMap heights = upscale(tile, null, layer, bank.getResolution(), fixedPoint, 0, 0, TILE_SIZE, false);
+
+    try {
+      return match(tile, heights, layer, bank, layerValue != null, layerValue, null, false);
+    } finally {
+      BufferArena.release(heights);
+    }
+  }
+
+  // Without stacking, a null mask matches every column. Unless recorded, no events are recorded, the cells are not
+  // counted in the metrics of the export, and tiles over their budget are only logged at debug level.
+  private static Shapemap match(Tile tile, DifferenceMap heights, Slab layer, ShapeBank bank, boolean stacking,
+                                boolean[][] layerValue, @Nullable ShapeUsageReport usage, boolean recorded) {
+    if (!recorded && ExportMetrics.isRecorded()) {
+      return ExportMetrics.unrecorded(() -> match(tile, heights, layer, bank, stacking, layerValue, usage, false));
+    }
+
+    List<Matrix> shapeMatrices = bank.getShapeMatrices();
+    List<Matrix> shapeMatricesStacked = bank.getShapeMatricesStacked();
+    MatchEvent event = new MatchEvent();
+
+    if (recorded) {
+      event.begin();
+    }
+
+    // The difference map is only needed until the shapemap is built, so it is borrowed for the tile
+    DifferenceMap differenceMap = heights;
+
+    if (layer.getHeight() != 0) {
+      differenceMap = BufferArena.acquireDifferenceMap(TILE_SIZE, heights.getResolution(), heights.isFixedPoint());
+      differenceMap.copyFrom(heights, layer.getHeight());
+    }
+
+    Shapemap shapemap;
+    StackingStrategy strategy = null;
+    boolean degraded = false;
+
+    try {
+      if (!stacking) {
+        shapemap = Shapes.findMostSimilarShapes(differenceMap, shapeMatrices, shapeMatricesStacked, false,
+            layerValue);
+      } else {
+        // Pick the vertical layout that is estimated to be cheapest for this tile
+        StackingCostModel.Estimate estimate = StackingCostModel.estimate(differenceMap, layerValue,
+            shapeMatrices.size());
+        strategy = estimate.getStrategy();
+        logger.debug("Tile {}, {}: using {} stacking ({})", tile.getX(), tile.getY(), strategy, estimate);
+        TileBudget budget = getBudget(tile, estimate, shapeMatrices.size(), recorded);
+
+        switch (strategy) {
+          case DENSE:
+            shapemap = Shapes.findMostSimilarShapes(differenceMap, shapeMatrices, shapeMatricesStacked, true,
+                layerValue, budget);
+            break;
+          case BANDED:
+            shapemap = Shapes.findMostSimilarShapesBanded(differenceMap, shapeMatrices, shapeMatricesStacked,
+                layerValue, budget);
+            break;
+          default:
+            shapemap = Shapes.findMostSimilarShapesRagged(differenceMap, shapeMatrices, shapeMatricesStacked,
+                layerValue, budget);
         }
+
+        if (budget.getDepth() < shapeMatrices.size() || budget.getApproximated() > 0) {
+          degraded = true;
+          log(recorded, "Tile {}, {}: over budget with {} columns and {} partial levels; kept the closest {} of {} "
+                  + "shapes per level and approximated {} columns after {} ms", tile.getX(), tile.getY(),
+              estimate.getPainted(), estimate.getPartialLevels(), Math.min(budget.getDepth(), shapeMatrices.size()),
+              shapeMatrices.size(), budget.getApproximated(), budget.getElapsedNanos() / 1000000);
+        }
+      }
+    } finally {
+      if (differenceMap != heights) {
+        BufferArena.release(differenceMap);
       }
     }
 
-    return availableIndices;
+    if (usage != null) {
+      usage.matched(strategy);
+    }
+
+    if (recorded && event.shouldCommit()) {
+      int minZ = Integer.MAX_VALUE;
+      int maxZ = Integer.MIN_VALUE;
+
+      for (int x = 0; x < TILE_SIZE; x++) {
+        for (int y = 0; y < TILE_SIZE; y++) {
+          minZ = Math.min(minZ, shapemap.getMinZ(x, y));
+          maxZ = Math.max(maxZ, shapemap.getMaxZ(x, y));
+        }
+      }
+
+      event.tileX = tile.getX();
+      event.tileY = tile.getY();
+      event.strategy = strategy != null ? strategy.toString() : "flat";
+      event.resolution = heights.getResolution();
+      event.bankSize = shapeMatrices.size();
+      event.stackedBankSize = shapeMatricesStacked.size();
+      event.minZ = minZ;
+      event.maxZ = maxZ;
+      event.shapemapBytes = shapemap.getSizeInBytes();
+      event.degraded = degraded;
+      event.commit();
+    }
+
+    return shapemap;
+  }
+
+  /**
+   * Get the budget of a tile. The number of shapes kept per level is reduced until the estimated size of the shapemap
+   * fits in {@link Constants#TILE_BUDGET_BYTES}, but not below {@link TileBudget#MIN_DEPTH}; a tile that does not fit
+   * even then is logged and matched over the budget. Only contiguous shapemaps can be limited, in memory or in time.
+   *
+   * @param tile     the tile.
+   * @param estimate the estimated cost of the tile.
+   * @param bankSize the number of shapes in the bank.
+   * @param recorded whether the tile is part of the export, rather than of the editor.
+   * @return the budget.
+   */
+  private static TileBudget getBudget(Tile tile, StackingCostModel.Estimate estimate, int bankSize,
+                                      boolean recorded) {
+    int depth = bankSize;
+    long bytes = estimate.getBytes(estimate.getStrategy());
+
+    if (Constants.CONTIGUOUS_SHAPEMAPS && Constants.TILE_BUDGET_BYTES > 0 && bytes > Constants.TILE_BUDGET_BYTES
+        && estimate.getPartialLevels() > 0) {
+      // Only the rankings shrink with the depth
+      long rankingBytes = estimate.getPartialLevels() * bankSize * Integer.BYTES;
+      long otherBytes = bytes - rankingBytes;
+      long available = Constants.TILE_BUDGET_BYTES - otherBytes;
+      long fits = Math.max(0, available) / (estimate.getPartialLevels() * Integer.BYTES);
+      depth = (int) Math.min(bankSize, fits);
+
+      if (fits < TileBudget.MIN_DEPTH) {
+        long minBytes = otherBytes + estimate.getPartialLevels() * TileBudget.MIN_DEPTH * Integer.BYTES;
+        log(recorded, "Tile {}, {}: needs about {} MB even with the closest {} shapes per level, over the budget of {} "
+            + "MB", tile.getX(), tile.getY(), minBytes / (1024 * 1024), TileBudget.MIN_DEPTH,
+            Constants.TILE_BUDGET_BYTES / (1024 * 1024));
+      }
+    }
+
+    return new TileBudget(Math.max(TileBudget.MIN_DEPTH, depth),
+        TimeUnit.SECONDS.toNanos(Math.max(0, Constants.TILE_BUDGET_SECONDS)));
   }
 
+  // Problems with the tiles of the export are warned about, but the editor matches many generated and partial tiles
+  private static void log(boolean recorded, String format, Object... arguments) {
+    if (recorded) {
+      logger.warn(format, arguments);
+    } else {
+      logger.debug(format, arguments);
+    }
+  }
+
+  private static boolean[][] getLayerValue(Tile tile, Slab layer) {
+    boolean[][] layerValue = new boolean[TILE_SIZE][TILE_SIZE];
+
+    for (int x = 0; x < TILE_SIZE; x++) {
+      for (int y = 0; y < TILE_SIZE; y++) {
+        layerValue[x][y] = tile.getBitLayerValue(layer, x, y);
+      }
+    }
+
+    return layerValue;
+  }
+
+  private IndexMask getAvailableIndices(MaterialRegistry registry, int materialId, boolean stacked) {
+    return bank.getAvailableIndices(registry.getShapeMask(materialId, layer.allowConquest()), stacked);
+  }
+
+
   /**
    * Check whether two blocks form a double-height block such as tall grass.
    *
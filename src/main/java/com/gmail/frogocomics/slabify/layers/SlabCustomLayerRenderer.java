@@ -18,25 +18,79 @@
 
 package com.gmail.frogocomics.slabify.layers;
 
+import com.gmail.frogocomics.slabify.Constants;
 import org.pepsoft.util.ColourUtils;
 import org.pepsoft.worldpainter.Dimension;
+import org.pepsoft.worldpainter.Tile;
+import org.pepsoft.worldpainter.layers.Layer;
 import org.pepsoft.worldpainter.layers.renderers.BitLayerRenderer;
 import org.pepsoft.worldpainter.layers.renderers.DimensionAwareRenderer;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.pepsoft.worldpainter.Constants.*;
+
+/**
+ * Renders the layer at full opacity, or at half opacity where the terrain is in the lower half of a block.
+ *
+ * <p>Which blocks are in the lower half is worked out once per tile and kept in a cache of at most
+ * {@link Constants#RENDER_CACHE_TILES} tiles, which is updated whenever the heights of a tile change. If the cache is
+ * disabled, the heights are looked up for every pixel.
+ */
 public final class SlabCustomLayerRenderer implements BitLayerRenderer, DimensionAwareRenderer {
 
   private final int color;
   private final float opacity;
+  private final int fullIntensity;
+  private final int halfIntensity;
+  // Least recently used first
+  private final Map<Long, Mask> masks = new LinkedHashMap<>(16, 0.75f, true);
+  private final Dimension.Listener tileRemover = new Dimension.Listener() {
+    @Override
+    public void tilesAdded(Dimension dimension, Set<Tile> tiles) {
+      // Masks are created when the tiles are rendered
+    }
+
+    @Override
+    public void tilesRemoved(Dimension dimension, Set<Tile> tiles) {
+      synchronized (masks) {
+        for (Iterator<Mask> it = masks.values().iterator(); it.hasNext(); ) {
+          Mask mask = it.next();
+
+          if (tiles.contains(mask.tile)) {
+            it.remove();
+            mask.invalidate();
+          }
+        }
+      }
+    }
+  };
   private Dimension dimension;
+  // Pixels are mostly rendered a tile at a time, so this saves looking up the mask
+  private volatile Mask lastMask;
 
   public SlabCustomLayerRenderer(int color, float opacity) {
     this.color = color;
     this.opacity = opacity;
+    this.fullIntensity = (int) (255 * opacity);
+    this.halfIntensity = (int) (255 * opacity / 2);
   }
 
   @Override
   public int getPixelColour(int globalX, int globalY, int underlyingColour, boolean b) {
     if (b) {
+      if (Constants.RENDER_CACHE_TILES > 0) {
+        Mask mask = getMask(globalX >> TILE_SIZE_BITS, globalY >> TILE_SIZE_BITS);
+
+        if (mask != null) {
+          boolean lowerHalf = mask.get(globalX & TILE_SIZE_MASK, globalY & TILE_SIZE_MASK);
+          return ColourUtils.mix(this.color, underlyingColour, lowerHalf ? halfIntensity : fullIntensity);
+        }
+      }
+
       float intensity = 255 * opacity;
       double diff =
           dimension.getHeightAt(globalX, globalY) - dimension.getIntHeightAt(globalX, globalY);
@@ -53,6 +107,141 @@ public final class SlabCustomLayerRenderer implements BitLayerRenderer, Dimensio
 
   @Override
   public void setDimension(Dimension dimension) {
-    this.dimension = dimension;
+    synchronized (masks) {
+      for (Mask mask : masks.values()) {
+        mask.invalidate();
+      }
+
+      masks.clear();
+      lastMask = null;
+
+      if (this.dimension != null) {
+        this.dimension.removeDimensionListener(tileRemover);
+      }
+
+      this.dimension = dimension;
+
+      if (dimension != null && Constants.RENDER_CACHE_TILES > 0) {
+        dimension.addDimensionListener(tileRemover);
+      }
+    }
+  }
+
+  private Mask getMask(int tileX, int tileY) {
+    Mask mask = lastMask;
+
+    if (mask != null && mask.valid && mask.tile.getX() == tileX && mask.tile.getY() == tileY) {
+      return mask;
+    }
+
+    long key = ((long) tileX << 32) | (tileY & 0xFFFFFFFFL);
+
+    synchronized (masks) {
+      mask = masks.get(key);
+
+      if (mask == null) {
+        Tile tile = dimension != null ? dimension.getTile(tileX, tileY) : null;
+
+        if (tile == null) {
+          return null;
+        }
+
+        mask = new Mask(tile);
+        tile.addListener(mask);
+        masks.put(key, mask);
+
+        if (masks.size() > Constants.RENDER_CACHE_TILES) {
+          Iterator<Mask> it = masks.values().iterator();
+          Mask eldest = it.next();
+          it.remove();
+          eldest.invalidate();
+        }
+      }
+    }
+
+    lastMask = mask;
+    return mask;
+  }
+
+  private void remove(Mask mask) {
+    synchronized (masks) {
+      long key = ((long) mask.tile.getX() << 32) | (mask.tile.getY() & 0xFFFFFFFFL);
+
+      if (masks.get(key) == mask) {
+        masks.remove(key);
+      }
+    }
+
+    mask.invalidate();
+  }
+
+  /**
+   * The blocks of a tile where the terrain is in the lower half of the block, one bit per block.
+   */
+  private final class Mask implements Tile.Listener {
+
+    private final Tile tile;
+    private final long[] bits = new long[TILE_SIZE * TILE_SIZE / Long.SIZE];
+    private volatile boolean valid = true;
+
+    private Mask(Tile tile) {
+      this.tile = tile;
+
+      for (int x = 0; x < TILE_SIZE; x++) {
+        for (int y = 0; y < TILE_SIZE; y++) {
+          double diff = tile.getHeight(x, y) - tile.getIntHeight(x, y);
+
+          if (diff >= 0 && diff < 0.5) {
+            int i = (x << TILE_SIZE_BITS) | y;
+            bits[i >> 6] |= 1L << i;
+          }
+        }
+      }
+    }
+
+    private boolean get(int x, int y) {
+      int i = (x << TILE_SIZE_BITS) | y;
+      return (bits[i >> 6] & (1L << i)) != 0;
+    }
+
+    private void invalidate() {
+      valid = false;
+      tile.removeListener(this);
+    }
+
+    @Override
+    public void heightMapChanged(Tile tile) {
+      remove(this);
+    }
+
+    @Override
+    public void terrainChanged(Tile tile) {
+      // Not rendered
+    }
+
+    @Override
+    public void waterLevelChanged(Tile tile) {
+      // Not rendered
+    }
+
+    @Override
+    public void layerDataChanged(Tile tile, Set<Layer> changedLayers) {
+      // The layer itself is passed to getPixelColour
+    }
+
+    @Override
+    public void allBitLayerDataChanged(Tile tile) {
+      // The layer itself is passed to getPixelColour
+    }
+
+    @Override
+    public void allNonBitlayerDataChanged(Tile tile) {
+      // Not rendered
+    }
+
+    @Override
+    public void seedsChanged(Tile tile) {
+      // Not rendered
+    }
   }
 }
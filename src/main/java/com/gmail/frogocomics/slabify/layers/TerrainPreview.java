@@ -0,0 +1,190 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.layers;
+
+import com.gmail.frogocomics.slabify.linalg.Matrix;
+import com.gmail.frogocomics.slabify.shape.ShapeBank;
+import com.gmail.frogocomics.slabify.shape.Shapemap;
+import com.gmail.frogocomics.slabify.utils.BufferArena;
+import com.gmail.frogocomics.slabify.utils.DifferenceMap;
+import com.gmail.frogocomics.slabify.utils.Utils;
+import org.pepsoft.worldpainter.Dimension;
+import org.pepsoft.worldpainter.Tile;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+import static org.pepsoft.worldpainter.Constants.TILE_SIZE;
+
+/**
+ * Renders the surface that a layer would produce on a patch of terrain, as seen from above and shaded by its slope.
+ * The surface is found with the same upscaling and matching as the export, as if the layer were painted on the whole
+ * patch, and is drawn at the resolution of the shapes. Only the patch is upscaled and matched, so the rest of the tile
+ * costs nothing. Columns topped by a partial shape are drawn in the colour of the layer.
+ *
+ * <p>The terrain is drawn in a single grey rather than in its own materials, so every shape in the bank is taken to be
+ * available, whatever the block below the layer is.
+ */
+public final class TerrainPreview {
+
+  private static final int TERRAIN_COLOUR = 0x9A9A9A;
+  // Light from the north-west
+  private static final float LIGHT_X = -0.5f;
+  private static final float LIGHT_Y = -0.5f;
+  private static final float LIGHT_Z = 0.7071f;
+
+  private TerrainPreview() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Render a square patch of a tile. This may take a while, so it should not be called on the event dispatch thread.
+   * It stops with a {@link CancellationException} if the calling thread is interrupted.
+   *
+   * @param layer     the layer, whose settings are used. It does not have to be present on the tile.
+   * @param tile      the tile.
+   * @param dimension the dimension of the tile.
+   * @param x         the x coordinate of the patch within the tile.
+   * @param y         the y coordinate of the patch within the tile.
+   * @param size      the size of the patch in blocks.
+   * @return the image, with as many pixels per block as the resolution of the shapes, or {@code null} if every shape
+   * of the layer is disabled.
+   * @throws CancellationException if the thread was interrupted.
+   */
+  public static BufferedImage render(Slab layer, Tile tile, Dimension dimension, int x, int y, int size) {
+    if (x < 0 || y < 0 || x + size > TILE_SIZE || y + size > TILE_SIZE) {
+      throw new IllegalArgumentException("The patch must be within the tile");
+    }
+
+    ShapeBank bank = SlabCustomLayerExporter.getBank(layer);
+
+    if (bank == null) {
+      return null;
+    }
+
+    boolean stacking = SlabCustomLayerExporter.isStacking(layer);
+    Utils.checkCancelled();
+    // Only the patch is upscaled and matched
+    DifferenceMap heights = SlabCustomLayerExporter.upscale(tile, dimension, layer, bank.getResolution(),
+        KernelCalibration.isFixedPoint(bank, stacking), x, y, size);
+    Shapemap shapemap;
+
+    try {
+      Utils.checkCancelled();
+      boolean[][] mask = new boolean[TILE_SIZE][TILE_SIZE];
+
+      for (int i = x; i < x + size; i++) {
+        Arrays.fill(mask[i], y, y + size, true);
+      }
+
+      shapemap = SlabCustomLayerExporter.match(tile, heights, layer, bank, stacking, mask);
+    } finally {
+      BufferArena.release(heights);
+    }
+
+    float[][] surface;
+    boolean[][] partial = new boolean[size][size];
+
+    try {
+      Utils.checkCancelled();
+      surface = getSurface(tile, shapemap, bank, stacking, x, y, size, partial);
+    } finally {
+      shapemap.release();
+    }
+
+    int layerColour = TERRAIN_COLOUR;
+
+    if (layer.getPaint() instanceof Color) {
+      layerColour = ((Color) layer.getPaint()).getRGB() & 0xFFFFFF;
+    }
+
+    return shade(surface, partial, bank.getResolution(), layerColour);
+  }
+
+  // The height of the surface at every sample of the patch
+  private static float[][] getSurface(Tile tile, Shapemap shapemap, ShapeBank bank, boolean stacking, int x0, int y0,
+                                      int size, boolean[][] partial) {
+    int resolution = bank.getResolution();
+    float[][] surface = new float[size * resolution][size * resolution];
+    int fullIdx = bank.getFullIndex();
+    int emptyIdx = bank.getEmptyIndex();
+
+    for (int x = 0; x < size; x++) {
+      for (int y = 0; y < size; y++) {
+        float base = tile.getIntHeight(x0 + x, y0 + y);
+        int idx = emptyIdx;
+
+        if (!stacking) {
+          idx = shapemap.getIndicesAt(x0 + x, y0 + y, -1)[0];
+        } else {
+          // The topmost level that is not empty
+          int minZ = shapemap.getMinZ(x0 + x, y0 + y);
+          int relZ = shapemap.getRange(x0 + x, y0 + y) - shapemap.getEmptyLevels(x0 + x, y0 + y) - 1;
+          base += minZ;
+
+          for (; relZ >= 0; relZ--) {
+            idx = shapemap.getIndicesAt(x0 + x, y0 + y, relZ)[0];
+
+            if (idx != emptyIdx) {
+              base += relZ;
+              break;
+            }
+          }
+        }
+
+        Matrix matrix = bank.getShapeMatrices().get(idx);
+        partial[x][y] = idx != fullIdx && idx != emptyIdx;
+
+        for (int i = 0; i < resolution; i++) {
+          for (int j = 0; j < resolution; j++) {
+            surface[x * resolution + i][y * resolution + j] = base + matrix.get(i * resolution + j);
+          }
+        }
+      }
+    }
+
+    return surface;
+  }
+
+  private static BufferedImage shade(float[][] surface, boolean[][] partial, int resolution, int layerColour) {
+    int pixels = surface.length;
+    BufferedImage image = new BufferedImage(pixels, pixels, BufferedImage.TYPE_INT_RGB);
+
+    for (int px = 0; px < pixels; px++) {
+      for (int py = 0; py < pixels; py++) {
+        // Slope in blocks per block, from the neighbouring samples
+        float dx = (surface[Math.min(pixels - 1, px + 1)][py] - surface[Math.max(0, px - 1)][py]) * resolution / 2;
+        float dy = (surface[px][Math.min(pixels - 1, py + 1)] - surface[px][Math.max(0, py - 1)]) * resolution / 2;
+        float light = (-dx * LIGHT_X - dy * LIGHT_Y + LIGHT_Z) / (float) Math.sqrt(dx * dx + dy * dy + 1);
+        float brightness = Math.max(0.25f, Math.min(1.2f, 0.25f + light));
+        int colour = partial[px / resolution][py / resolution] ? layerColour : TERRAIN_COLOUR;
+
+        int r = Math.min(255, (int) (((colour >> 16) & 0xFF) * brightness));
+        int g = Math.min(255, (int) (((colour >> 8) & 0xFF) * brightness));
+        int b = Math.min(255, (int) ((colour & 0xFF) * brightness));
+        // x is drawn across and y down, as in WorldPainter
+        image.setRGB(px, py, (r << 16) | (g << 8) | b);
+      }
+    }
+
+    return image;
+  }
+}
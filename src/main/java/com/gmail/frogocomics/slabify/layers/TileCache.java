@@ -0,0 +1,177 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.layers;
+
+import com.gmail.frogocomics.slabify.utils.ExportMetrics;
+import org.pepsoft.worldpainter.Dimension;
+
+import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Per-tile results shared by the exporters of every {@link Slab} layer during an export, such as the upscaled heights
+ * of a tile. Every exporter that uses a result acquires it and releases it once it is done with the tile; the result is
+ * created by the first exporter to acquire it, and disposed of once the last exporter releases it.
+ *
+ * <p>A cache lasts as long as the exporters of a dimension that use it. WorldPainter does not tell exporters when an
+ * export ends, so once every exporter has been dropped, the results that were never released, because the export was
+ * cancelled, failed or did not export every chunk of a tile, are disposed of by a {@link Cleaner}. Keys must therefore
+ * not refer to the exporters themselves. Keys are lists that start with the tile.
+ */
+final class TileCache {
+
+  private static final Cleaner cleaner = Cleaner.create();
+  // The cache of the export of every dimension, for as long as an exporter holds it
+  private static final Map<Dimension, WeakReference<TileCache>> caches = new WeakHashMap<>();
+
+  private final Map<List<?>, Entry<?>> entries = new HashMap<>();
+
+  /**
+   * Create a new cache, whose results are disposed of once it is no longer reachable. Exporters use {@link #get}.
+   */
+  TileCache() {
+    // The cleaner must not refer to the cache, only to its entries
+    Map<List<?>, Entry<?>> entries = this.entries;
+    cleaner.register(this, () -> disposeAll(entries));
+  }
+
+  /**
+   * Get the cache of the export of a dimension, creating it if no exporter holds it.
+   *
+   * @param dimension the dimension being exported.
+   * @return the cache, which must be held by the exporter for as long as it uses it.
+   */
+  static TileCache get(Dimension dimension) {
+    synchronized (caches) {
+      WeakReference<TileCache> reference = caches.get(dimension);
+      TileCache cache = reference != null ? reference.get() : null;
+
+      if (cache == null) {
+        cache = new TileCache();
+        caches.put(dimension, new WeakReference<>(cache));
+      }
+
+      return cache;
+    }
+  }
+
+  /**
+   * Acquire a result, creating it if no other exporter holds it.
+   *
+   * @param key     the key of the result.
+   * @param factory creates the result. It is called at most once per key while the result is held.
+   * @param dispose disposes of the result once it has been released by every exporter.
+   * @param <T>     the type of the result.
+   * @return the result, which must not be modified.
+   */
+  @SuppressWarnings("unchecked")
+  <T> T acquire(List<?> key, Supplier<T> factory, Consumer<? super T> dispose) {
+    Entry<T> entry;
+
+    synchronized (entries) {
+      entry = (Entry<T>) entries.computeIfAbsent(key, k -> new Entry<>(dispose));
+      entry.references++;
+    }
+
+    try {
+      return entry.get(factory);
+    } catch (RuntimeException | Error e) {
+      release(key);
+      throw e;
+    }
+  }
+
+  /**
+   * Release a result acquired with {@link #acquire(List, Supplier, Consumer)}.
+   *
+   * @param key the key of the result.
+   * @throws IllegalStateException if the result is not held.
+   */
+  void release(List<?> key) {
+    Entry<?> entry;
+
+    synchronized (entries) {
+      entry = entries.get(key);
+
+      if (entry == null) {
+        throw new IllegalStateException("Not acquired: " + key);
+      }
+
+      if (--entry.references > 0) {
+        return;
+      }
+
+      entries.remove(key);
+    }
+
+    entry.dispose();
+  }
+
+  // Dispose of the results that are still held
+  private static void disposeAll(Map<List<?>, Entry<?>> entries) {
+    List<Entry<?>> held;
+
+    synchronized (entries) {
+      held = new ArrayList<>(entries.values());
+      entries.clear();
+    }
+
+    for (Entry<?> entry : held) {
+      entry.dispose();
+    }
+  }
+
+  private static final class Entry<T> {
+
+    private final Consumer<? super T> dispose;
+    private int references = 0; // Guarded by entries
+    private T value;
+
+    private Entry(Consumer<? super T> dispose) {
+      this.dispose = dispose;
+    }
+
+    // Other exporters wait while the first one creates the result
+    private synchronized T get(Supplier<T> factory) {
+      if (value == null) {
+        ExportMetrics.cacheMiss();
+        value = factory.get();
+      } else {
+        ExportMetrics.cacheHit();
+      }
+
+      return value;
+    }
+
+    private synchronized void dispose() {
+      if (value != null) {
+        dispose.accept(value);
+        value = null;
+        ExportMetrics.cacheEviction();
+      }
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.linalg;
+
+import java.util.List;
+
+/**
+ * Signed 8.8 fixed point numbers, stored in a {@code short}. This covers differences of up to 128 blocks either way, to
+ * within 1/512 of a block, and represents every shape value, which are multiples of 1/8, exactly.
+ */
+public final class FixedPoint {
+
+  /**
+   * The number of fractional bits.
+   */
+  public static final int SHIFT = 8;
+  /**
+   * The fixed point representation of 1.
+   */
+  public static final int ONE = 1 << SHIFT;
+
+  private FixedPoint() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Convert a value to fixed point, rounding to the nearest representable value. Values out of range are saturated.
+   *
+   * @param value the value.
+   * @return the fixed point value.
+   */
+  public static short toFixed(float value) {
+    int fixed = Math.round(value * ONE);
+    return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, fixed));
+  }
+
+  /**
+   * Convert a fixed point value back to a float. This is exact.
+   *
+   * @param fixed the fixed point value.
+   * @return the value.
+   */
+  public static float toFloat(int fixed) {
+    return fixed / (float) ONE;
+  }
+
+  /**
+   * A list of shape matrices in fixed point, with an integer-domain version of {@link Matrix#getLossClip}.
+   *
+   * <p>For an exponent of 1 or 2, the loss is summed exactly as a {@code long}, in units of {@code 1 / ONE} or
+   * {@code 1 / (ONE * ONE)}. Other exponents look up the term for every difference in a table.
+   */
+  public static final class Bank {
+
+    // Differences of up to this many units are looked up, larger ones are computed
+    private static final int TABLE_SIZE = 16 * ONE;
+    private static final int MAX_SHAPES = 1 << 24;
+
+    private final int[][] values;
+    private final double exponent;
+    private final float[] table;
+
+    /**
+     * Convert a list of shape matrices.
+     *
+     * @param matrices the matrices, which must all be the same size.
+     * @param exponent 2 for MSE, 1 for MAE (but other values greater than 0 are acceptable).
+     */
+    public Bank(List<Matrix> matrices, double exponent) {
+      if (matrices.size() > MAX_SHAPES) {
+        throw new IllegalArgumentException("Too many shapes: " + matrices.size());
+      }
+
+      this.values = new int[matrices.size()][];
+      this.exponent = exponent;
+
+      for (int i = 0; i < values.length; i++) {
+        Matrix matrix = matrices.get(i);
+        values[i] = new int[matrix.getSize() * matrix.getSize()];
+
+        for (int j = 0; j < values[i].length; j++) {
+          values[i][j] = Math.round(matrix.get(j) * ONE);
+        }
+      }
+
+      if (exponent == 1 || exponent == 2) {
+        table = null;
+      } else {
+        table = new float[TABLE_SIZE];
+
+        for (int e = 0; e < TABLE_SIZE; e++) {
+          table[e] = (float) Math.pow(e / (double) ONE, exponent);
+        }
+      }
+    }
+
+    /**
+     * Get the number of shapes.
+     *
+     * @return the number of shapes.
+     */
+    public int size() {
+      return values.length;
+    }
+
+    /**
+     * Get the clipped loss of a shape against a level of a column, as a sort key: losses compare in the same order as
+     * their keys, and a key is less than {@code 2^39}.
+     *
+     * @param shape   the index of the shape.
+     * @param samples the samples of the column.
+     * @param base    the fixed point height of the bottom of the level, which is subtracted from every sample.
+     * @return the loss as a sort key.
+     */
+    public long getLossKey(int shape, short[] samples, int base) {
+      int[] m = values[shape];
+
+      if (exponent == 2) {
+        long loss = 0;
+
+        for (int j = 0; j < m.length; j++) {
+          long e = m[j] - clip(m[j], samples[j] - base);
+          loss += e * e;
+        }
+
+        return loss;
+      } else if (exponent == 1) {
+        long loss = 0;
+
+        for (int j = 0; j < m.length; j++) {
+          loss += Math.abs(m[j] - clip(m[j], samples[j] - base));
+        }
+
+        return loss;
+      }
+
+      float loss = 0;
+
+      for (int j = 0; j < m.length; j++) {
+        int e = Math.abs(m[j] - clip(m[j], samples[j] - base));
+        loss += e < TABLE_SIZE ? table[e] : (float) Math.pow(e / (double) ONE, exponent);
+      }
+
+      // Non-negative floats sort the same as their bits
+      return Float.floatToRawIntBits(loss);
+    }
+
+    /**
+     * Convert a sort key of {@link #getLossKey(int, short[], int)} back to the loss.
+     *
+     * @param key the sort key.
+     * @return the loss.
+     */
+    public float toLoss(long key) {
+      if (table != null) {
+        return Float.intBitsToFloat((int) key);
+      }
+
+      return exponent == 2 ? key / (float) (ONE * ONE) : key / (float) ONE;
+    }
+
+    // Same clipping as Matrix.getLossClip: flat parts of a shape do not penalise samples beyond them
+    private static int clip(int m, int value) {
+      if (m == 0) {
+        return Math.max(0, value);
+      } else if (m == ONE) {
+        return Math.min(ONE, value);
+      }
+
+      return value;
+    }
+  }
+}
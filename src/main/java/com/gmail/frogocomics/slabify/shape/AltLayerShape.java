@@ -35,7 +35,6 @@ public final class AltLayerShape extends Shape {
 
   public static final String NAME = "alt_layer";
 
-  private final Map<String, Material[]> materials = new HashMap<>();
   private final float[] heights = new float[]{0.125f, 0.25f, 0.5f, 0.75f};
 
   public AltLayerShape() {
@@ -59,24 +58,13 @@ public final class AltLayerShape extends Shape {
   }
 
   @Override
-  public Material getMaterial(Material baseMaterial, int i, @Nullable Options option) {
-    if (!materials.containsKey(baseMaterial.name)) {
-      // Create materials if does not exist
-      String materialName = Shapes.getMaterial(this, baseMaterial.name);
+  protected Material[] createMaterials(String materialName, @Nullable Options option) {
+    Material[] layerMaterials = new Material[heights.length];
 
-      if (materialName == null) {
-        return Material.AIR;
-      }
-
-      Material[] layerMaterials = new Material[heights.length];
-
-      for (int j = 0; j < heights.length; j++) {
-        layerMaterials[j] = Material.get(materialName, CQ_LAYER, j + 1);
-      }
-
-      materials.put(baseMaterial.name, layerMaterials);
+    for (int j = 0; j < heights.length; j++) {
+      layerMaterials[j] = Material.get(materialName, CQ_LAYER, j + 1);
     }
 
-    return materials.get(baseMaterial.name)[i];
+    return layerMaterials;
   }
 }
@@ -0,0 +1,190 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.shape;
+
+import com.gmail.frogocomics.slabify.utils.IndexMask;
+
+import java.util.Arrays;
+
+/**
+ * A stacked shapemap that keeps the rankings of a whole tile in a single array. Every column is made up of three runs
+ * of levels: full levels at the bottom, partial levels in the middle and empty levels at the top. Only the lengths of
+ * the full and empty runs are stored; the partial levels have a ranking each, {@code stride} indices per level,
+ * starting at the column's offset into the array. Columns that were not matched take up no space.
+ *
+ * <p>Compared to the nested array layouts, this avoids allocating one small array per level, which puts a lot of
+ * pressure on the garbage collector for steep tiles, and it stores nothing at all for the many trivial levels.
+ */
+public final class ContiguousStackedShapemap implements Shapemap {
+
+  private final int width;
+  private final int stride;
+  private final int fullIdx;
+  private final int fullStackedIdx;
+  private final int emptyIdx;
+  private final int[] minZ;
+  private final int[] range;
+  private final int[] full;
+  private final int[] partial;
+  private final boolean[] fullOnTop;
+  private final int[] offsets;
+  private int[] data;
+
+  /**
+   * Create a new shapemap. All per-column arrays are indexed by {@code x * width + y}.
+   *
+   * @param width          the number of columns along the y axis.
+   * @param stride         the length of the ranking of every partial level.
+   * @param fullIdx        the index of the full shape.
+   * @param fullStackedIdx the index of the full shape among the stacked shapes.
+   * @param emptyIdx       the index of the empty shape.
+   * @param minZ           the minimum z value of every column.
+   * @param range          the number of levels of every column.
+   * @param full           the number of full levels at the bottom of every column.
+   * @param partial        the number of partial levels above the full levels of every column.
+   * @param fullOnTop      whether the topmost full level of every column is matched as the top of the stack, which is
+   *                       the case if all partial levels above it are empty.
+   * @param offsets        the offset of the first partial level of every column in {@code data}.
+   * @param data           the rankings of the partial levels.
+   */
+  public ContiguousStackedShapemap(int width, int stride, int fullIdx, int fullStackedIdx, int emptyIdx, int[] minZ,
+                                   int[] range, int[] full, int[] partial, boolean[] fullOnTop, int[] offsets,
+                                   int[] data) {
+    this.width = width;
+    this.stride = stride;
+    this.fullIdx = fullIdx;
+    this.fullStackedIdx = fullStackedIdx;
+    this.emptyIdx = emptyIdx;
+    this.minZ = minZ;
+    this.range = range;
+    this.full = full;
+    this.partial = partial;
+    this.fullOnTop = fullOnTop;
+    this.offsets = offsets;
+    this.data = data;
+  }
+
+  @Override
+  public int[] getIndicesAt(int x, int y, int relativeZ) {
+    int column = x * width + y;
+    int trivialIdx = getTrivialIndex(column, relativeZ);
+
+    if (trivialIdx >= 0) {
+      return new int[] {trivialIdx};
+    }
+
+    int offset = getOffset(column, relativeZ);
+    return Arrays.copyOfRange(data, offset, offset + stride);
+  }
+
+  @Override
+  public int getIndexAt(int x, int y, int relativeZ, IndexMask allowedIndices) {
+    if (allowedIndices.isEmpty()) {
+      throw new IllegalArgumentException("allowedIndices must not be empty");
+    }
+
+    int column = x * width + y;
+    int trivialIdx = getTrivialIndex(column, relativeZ);
+
+    if (trivialIdx >= 0) {
+      if (allowedIndices.contains(trivialIdx)) {
+        return trivialIdx;
+      }
+
+      // This should not happen, full and empty are always available
+      throw new IllegalStateException("None of the indices are allowed");
+    }
+
+    int offset = getOffset(column, relativeZ);
+
+    for (int i = offset; i < offset + stride; i++) {
+      if (allowedIndices.contains(data[i])) {
+        return data[i];
+      }
+    }
+
+    // This should not happen
+    throw new IllegalStateException("None of the indices are allowed");
+  }
+
+  @Override
+  public int getMinZ(int x, int y) {
+    return minZ[x * width + y];
+  }
+
+  @Override
+  public int getMaxZ(int x, int y) {
+    return minZ[x * width + y] + range[x * width + y];
+  }
+
+  @Override
+  public int getRange(int x, int y) {
+    return range[x * width + y];
+  }
+
+  @Override
+  public int getFullLevels(int x, int y) {
+    return full[x * width + y];
+  }
+
+  @Override
+  public int getEmptyLevels(int x, int y) {
+    int column = x * width + y;
+    return range[column] - full[column] - partial[column];
+  }
+
+  @Override
+  public long getSizeInBytes() {
+    // Five int arrays and one boolean array per column, plus the rankings
+    long columns = minZ.length;
+    return columns * (5 * Integer.BYTES + 1) + (data != null ? (long) data.length * Integer.BYTES : 0);
+  }
+
+  @Override
+  public void release() {
+    data = null;
+  }
+
+  /**
+   * Get the index of a full or empty level.
+   *
+   * @param column    the column.
+   * @param relativeZ the relative z coordinate.
+   * @return the index, or {@code -1} if the level is partial.
+   */
+  private int getTrivialIndex(int column, int relativeZ) {
+    if (relativeZ >= full[column] + partial[column]) {
+      return emptyIdx;
+    } else if (relativeZ == full[column] - 1) {
+      return fullOnTop[column] ? fullIdx : fullStackedIdx;
+    } else if (relativeZ < full[column]) {
+      return fullStackedIdx;
+    } else {
+      return -1;
+    }
+  }
+
+  private int getOffset(int column, int relativeZ) {
+    if (data == null) {
+      throw new IllegalStateException("The shapemap has been released");
+    }
+
+    return offsets[column] + (relativeZ - full[column]) * stride;
+  }
+}
@@ -36,7 +36,6 @@ public final class CornerSlabShape extends Shape {
 
   public static final String NAME = "corner_slab";
 
-  private final Map<String, Material[]> materials = new HashMap<>();
   private final Matrix shape = Matrix.of(new float[][]{
       {0.5f, 0.5f},
       {0.5f, 0}
@@ -71,25 +70,14 @@ public final class CornerSlabShape extends Shape {
   }
 
   @Override
-  public Material getMaterial(Material baseMaterial, int i, @Nullable Options option) {
-    if (!materials.containsKey(baseMaterial.name)) {
-      // Create materials if does not exist
-      String materialName = Shapes.getMaterial(this, baseMaterial.name);
+  protected Material[] createMaterials(String materialName, @Nullable Options option) {
+    Material[] slabMaterials = new Material[4];
 
-      if (materialName == null) {
-        return Material.AIR;
-      }
-
-      Material[] slabMaterials = new Material[4];
-
-      slabMaterials[0] = Material.get(materialName, MC_FACING, "south", MC_HALF, "bottom");
-      slabMaterials[1] = Material.get(materialName, MC_FACING, "east", MC_HALF, "bottom");
-      slabMaterials[2] = Material.get(materialName, MC_FACING, "north", MC_HALF, "bottom");
-      slabMaterials[3] = Material.get(materialName, MC_FACING, "west", MC_HALF, "bottom");
-
-      materials.put(baseMaterial.name, slabMaterials);
-    }
+    slabMaterials[0] = Material.get(materialName, MC_FACING, "south", MC_HALF, "bottom");
+    slabMaterials[1] = Material.get(materialName, MC_FACING, "east", MC_HALF, "bottom");
+    slabMaterials[2] = Material.get(materialName, MC_FACING, "north", MC_HALF, "bottom");
+    slabMaterials[3] = Material.get(materialName, MC_FACING, "west", MC_HALF, "bottom");
 
-    return materials.get(baseMaterial.name)[i];
+    return slabMaterials;
   }
 }
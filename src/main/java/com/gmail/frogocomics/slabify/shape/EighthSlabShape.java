@@ -22,9 +22,7 @@ import com.gmail.frogocomics.slabify.linalg.Matrix;
 import org.jspecify.annotations.Nullable;
 import org.pepsoft.minecraft.Material;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 
 import static org.pepsoft.minecraft.Constants.MC_FACING;
@@ -39,7 +37,6 @@ public final class EighthSlabShape extends Shape {
 
   public static final String NAME = "eighth_slab";
 
-  private final Map<String, Material[]> materials = new HashMap<>();
   private final Matrix southShape = Matrix.of(new float[][]{
       {0.5f, 0},
       {0, 0}
@@ -80,25 +77,14 @@ public final class EighthSlabShape extends Shape {
   }
 
   @Override
-  public Material getMaterial(Material baseMaterial, int i, @Nullable Options option) {
-    if (!materials.containsKey(baseMaterial.name)) {
-      // Create materials if does not exist
-      String materialName = Shapes.getMaterial(this, baseMaterial.name);
+  protected Material[] createMaterials(String materialName, @Nullable Options option) {
+    Material[] slabMaterials = new Material[12];
 
-      if (materialName == null) {
-        return Material.AIR;
-      }
+    slabMaterials[0] = Material.get(materialName, MC_FACING, "south", MC_HALF, "bottom");
+    slabMaterials[1] = Material.get(materialName, MC_FACING, "east", MC_HALF, "bottom");
+    slabMaterials[2] = Material.get(materialName, MC_FACING, "north", MC_HALF, "bottom");
+    slabMaterials[3] = Material.get(materialName, MC_FACING, "west", MC_HALF, "bottom");
 
-      Material[] slabMaterials = new Material[12];
-
-      slabMaterials[0] = Material.get(materialName, MC_FACING, "south", MC_HALF, "bottom");
-      slabMaterials[1] = Material.get(materialName, MC_FACING, "east", MC_HALF, "bottom");
-      slabMaterials[2] = Material.get(materialName, MC_FACING, "north", MC_HALF, "bottom");
-      slabMaterials[3] = Material.get(materialName, MC_FACING, "west", MC_HALF, "bottom");
-
-      materials.put(baseMaterial.name, slabMaterials);
-    }
-
-    return materials.get(baseMaterial.name)[i];
+    return slabMaterials;
   }
 }
@@ -51,7 +51,7 @@ public final class EmptyShape extends Shape {
   }
 
   @Override
-  public Material getMaterial(Material baseMaterial, int i, @Nullable Options option) {
+  public Material getMaterial(int id, Material baseMaterial, int i, @Nullable Options option) {
     return Material.AIR;
   }
 
@@ -40,4 +40,17 @@ public final class FlatShapemap implements Shapemap {
   public int getMaxZ(int x, int y) {
     return 2;
   }
+
+  @Override
+  public long getSizeInBytes() {
+    long indices = 0;
+
+    for (int[][] row : map) {
+      for (int[] column : row) {
+        indices += column.length;
+      }
+    }
+
+    return indices * Integer.BYTES;
+  }
 }
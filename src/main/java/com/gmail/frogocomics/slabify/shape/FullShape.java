@@ -51,7 +51,7 @@ public final class FullShape extends Shape {
   }
 
   @Override
-  public Material getMaterial(Material baseMaterial, int i, @Nullable Options option) {
+  public Material getMaterial(int id, Material baseMaterial, int i, @Nullable Options option) {
     return baseMaterial;
   }
 
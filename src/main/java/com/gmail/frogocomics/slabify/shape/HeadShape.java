@@ -21,13 +21,11 @@ package com.gmail.frogocomics.slabify.shape;
 import com.gmail.frogocomics.slabify.Constants;
 import com.gmail.frogocomics.slabify.linalg.Matrix;
 import com.gmail.frogocomics.slabify.utils.Skull;
-import com.gmail.frogocomics.slabify.utils.Utils;
+import org.jnbt.CompoundTag;
 import org.jspecify.annotations.Nullable;
 import org.pepsoft.minecraft.Chunk;
 import org.pepsoft.minecraft.Material;
 
-import java.io.File;
-import java.io.IOException;
 import java.util.*;
 
 /**
@@ -41,6 +39,8 @@ public final class HeadShape extends Shape {
   public static final String BLOCK = "minecraft:player_head";
 
   private static final Map<String, String> heads = new HashMap<>();
+  // The profile of every texture, shared by every head placed with it
+  private static final Map<String, CompoundTag> profiles = new HashMap<>();
   private final Material headMaterial = Material.get(BLOCK);
   private final Matrix shape = Matrix.of(new float[][]{
       {0, 0, 0, 0},
@@ -51,23 +51,23 @@ public final class HeadShape extends Shape {
 
   public HeadShape() {
     super("Head ", NAME, new Options[]{Options.ENABLE, Options.DISABLE}, true, 4, false, Options.DISABLE);
+  }
 
-    // Populate heads array
-    File mappingFile = Utils.addFileToAppData(Constants.HEAD_MAPPING_NAME);
-
-    // Load the file
-    List<String[]> rows;
-
-    try {
-      rows = Utils.readCsv(mappingFile);
-
-      for (String[] row : rows) {
-        String name = row[0];
-        heads.put(name.startsWith(Constants.MC_NAMESPACE + ":") ? name : Constants.MC_NAMESPACE + ":" +  name, row[1]);
-      }
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+  /**
+   * Populate the heads from the rows of the head mappings. Loaded in {@link Shapes#init()}.
+   *
+   * @param rows the rows of the head mappings.
+   * @return the heads, without waiting for the mappings.
+   */
+  static Map<String, String> loadHeads(List<String[]> rows) {
+    for (String[] row : rows) {
+      String name = row[0];
+      name = name.startsWith(Constants.MC_NAMESPACE + ":") ? name : Constants.MC_NAMESPACE + ":" +  name;
+      heads.put(name, row[1]);
+      profiles.put(name, Skull.createProfile(row[1]));
     }
+
+    return Collections.unmodifiableMap(heads);
   }
 
   @Override
@@ -79,22 +79,28 @@ public final class HeadShape extends Shape {
   }
 
   @Override
-  public Material getMaterial(Material baseMaterial, int i, @Nullable Options option) {
+  public Material getMaterial(int id, Material baseMaterial, int i, @Nullable Options option) {
     return headMaterial;
   }
 
   @Override
   public void place(int worldX, int worldY, int worldZ, int localX, int localZ, Chunk chunk, Material material, Material baseMaterial) {
-    String s = heads.get(baseMaterial.name);
+    CompoundTag profile = getProfiles().get(baseMaterial.name);
 
-    if (s != null) {
-      Skull skull = new Skull(s, worldX, worldY, worldZ);
+    if (profile != null) {
+      Skull skull = new Skull(profile, worldX, worldY, worldZ);
       chunk.setMaterial(localX, worldY, localZ, headMaterial);
       chunk.getTileEntities().add(skull);
     }
   }
 
   public static Map<String, String> getHeads() {
+    Shapes.awaitMappings();
     return heads;
   }
+
+  private static Map<String, CompoundTag> getProfiles() {
+    Shapes.awaitMappings();
+    return profiles;
+  }
 }
@@ -34,7 +34,6 @@ import static org.pepsoft.minecraft.Constants.MC_LAYERS;
 public final class LayerShape extends Shape {
 
   public static final String NAME = "layer";
-  private final Map<String, Material[]> materials = new HashMap<>();
 
   public LayerShape() {
     super("Layer", NAME, new Options[]{Options.DISABLE, Options.ENABLE}, true, 1, false, Options.DISABLE);
@@ -57,24 +56,13 @@ public final class LayerShape extends Shape {
   }
 
   @Override
-  public Material getMaterial(Material baseMaterial, int i, @Nullable Options option) {
-    if (!materials.containsKey(baseMaterial.name)) {
-      // Create materials if does not exist
-      String materialName = Shapes.getMaterial(this, baseMaterial.name);
+  protected Material[] createMaterials(String materialName, @Nullable Options option) {
+    Material[] layerMaterials = new Material[7];
 
-      if (materialName == null) {
-        return Material.AIR;
-      }
-
-      Material[] layerMaterials = new Material[7];
-
-      for (int j = 1; j < 8; j++) {
-        layerMaterials[j - 1] = Material.get(materialName, MC_LAYERS, j);
-      }
-
-      materials.put(baseMaterial.name, layerMaterials);
+    for (int j = 1; j < 8; j++) {
+      layerMaterials[j - 1] = Material.get(materialName, MC_LAYERS, j);
     }
 
-    return materials.get(baseMaterial.name)[i];
+    return layerMaterials;
   }
 }
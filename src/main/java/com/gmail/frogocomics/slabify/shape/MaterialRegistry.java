@@ -0,0 +1,195 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.shape;
+
+import com.gmail.frogocomics.slabify.Constants;
+import com.gmail.frogocomics.slabify.shape.Shape.Options;
+import org.jspecify.annotations.Nullable;
+import org.pepsoft.minecraft.Material;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns every base material in the mappings an integer id, and holds the materials of every shape for every base
+ * material and option, as well as which shapes are available for every base material. Everything is created once the mappings are loaded and never changes afterwards, so the
+ * registry can be read from any thread without locking.
+ */
+public final class MaterialRegistry {
+
+  private static final Logger logger = LoggerFactory.getLogger(MaterialRegistry.class);
+  private static volatile MaterialRegistry instance;
+
+  private final Map<String, Integer> ids;
+  private final String[] names;
+  // Indexed by shape, option (0 for no option, otherwise the ordinal plus one) and material id
+  private final Material[][][][] materials;
+  // Indexed by material id; bit s is set if the shape with index s is available
+  private final long[] shapeMasks;
+  private final long[] vanillaShapeMasks;
+
+  private MaterialRegistry(List<Shape> shapes, Map<String, String[]> mappings, Map<String, String> heads) {
+    if (shapes.size() > Long.SIZE) {
+      throw new IllegalArgumentException("Too many shapes: " + shapes.size());
+    }
+
+    ids = new HashMap<>(mappings.size() * 2);
+    names = mappings.keySet().stream().sorted().toArray(String[]::new);
+    materials = new Material[shapes.size()][Options.values().length + 1][names.length][];
+    shapeMasks = new long[names.length];
+    vanillaShapeMasks = new long[names.length];
+
+    for (int id = 0; id < names.length; id++) {
+      ids.put(names[id], id);
+    }
+
+    for (int s = 0; s < shapes.size(); s++) {
+      Shape shape = shapes.get(s);
+
+      for (int id = 0; id < names.length; id++) {
+        String materialName = mappings.get(names[id])[s];
+        // Special treatment for heads, which are available for every base material with a head texture
+        String blockName = shape instanceof HeadShape && heads.containsKey(names[id]) ? HeadShape.BLOCK : materialName;
+
+        if (blockName != null) {
+          shapeMasks[id] |= 1L << s;
+
+          if (!blockName.startsWith(Constants.CQ_NAMESPACE)) {
+            vanillaShapeMasks[id] |= 1L << s;
+          }
+        }
+
+        if (materialName == null) {
+          continue;
+        }
+
+        materials[s][0][id] = create(shape, materialName, null);
+
+        for (Options option : shape.getAvailableOptions()) {
+          if (option != Options.DISABLE) {
+            materials[s][option.ordinal() + 1][id] = create(shape, materialName, option);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Build the registry. Initialized in {@link Shapes#init()}.
+   *
+   * @param shapes   the shapes, in the order of the mappings.
+   * @param mappings the block of every shape, for every base material.
+   * @param heads    the head texture of every base material that has one.
+   */
+  static void init(List<Shape> shapes, Map<String, String[]> mappings, Map<String, String> heads) {
+    long start = System.currentTimeMillis();
+    instance = new MaterialRegistry(shapes, mappings, heads);
+    logger.debug("Registered the materials of {} base materials in {} ms", mappings.size(),
+        System.currentTimeMillis() - start);
+  }
+
+  /**
+   * Get the registry, waiting for the mappings to be loaded if needed.
+   *
+   * @return the registry.
+   * @throws IllegalStateException if the plugin has not been loaded.
+   */
+  public static MaterialRegistry getInstance() {
+    MaterialRegistry registry = instance;
+
+    if (registry == null) {
+      Shapes.awaitMappings();
+      registry = instance;
+    }
+
+    if (registry == null) {
+      throw new IllegalStateException("The material registry has not been initialized");
+    }
+
+    return registry;
+  }
+
+  /**
+   * Get the id of a base material.
+   *
+   * @param baseMaterial the name of the base material.
+   * @return the id, or -1 if the base material is not in the mappings.
+   */
+  public int getId(String baseMaterial) {
+    Integer id = ids.get(baseMaterial);
+    return id != null ? id : -1;
+  }
+
+  /**
+   * Get the number of base materials, which is one more than the highest id.
+   *
+   * @return the number of base materials.
+   */
+  public int size() {
+    return names.length;
+  }
+
+  /**
+   * Get the name of a base material.
+   *
+   * @param id the id of the base material.
+   * @return the name.
+   */
+  public String getName(int id) {
+    return names[id];
+  }
+
+  /**
+   * Get the materials of a shape for a base material.
+   *
+   * @param shapeIndex the index of the shape in {@link Shapes#shapesList}.
+   * @param option     the selected option, which is only needed for some shapes.
+   * @param id         the id of the base material.
+   * @return the materials, or {@code null} if the shape is not available for the base material.
+   */
+  @Nullable
+  public Material[] getMaterials(int shapeIndex, @Nullable Options option, int id) {
+    return materials[shapeIndex][option == null ? 0 : option.ordinal() + 1][id];
+  }
+
+  /**
+   * Get the shapes that are available for a base material, as a bitmask over the indices of {@link Shapes#shapesList}.
+   * The full and empty shapes are always available, and are not included.
+   *
+   * @param id            the id of the base material.
+   * @param allowConquest whether shapes that need Conquest Reforged blocks are included.
+   * @return the bitmask, where bit {@code s} is set if the shape with index {@code s} is available.
+   */
+  public long getShapeMask(int id, boolean allowConquest) {
+    return allowConquest ? shapeMasks[id] : vanillaShapeMasks[id];
+  }
+
+  @Nullable
+  private static Material[] create(Shape shape, String materialName, @Nullable Options option) {
+    try {
+      return shape.createMaterials(materialName, option);
+    } catch (IllegalArgumentException e) {
+      // The shape needs a different option
+      return null;
+    }
+  }
+}
@@ -38,7 +38,6 @@ public final class QuarterSlabShape extends Shape {
 
   public static final String NAME = "quarter";
 
-  private final Map<String, Material[]> materials = new HashMap<>();
   private final Matrix quarter1 = Matrix.of(new float[][]{
       {0.25f, 0.25f, 0.25f, 0.25f},
       {0, 0, 0, 0},
@@ -117,47 +116,36 @@ public final class QuarterSlabShape extends Shape {
   }
 
   @Override
-  public Material getMaterial(Material baseMaterial, int i, @Nullable Options option) {
-    if (!materials.containsKey(baseMaterial.name)) {
-      // Create materials if does not exist
-      String materialName = Shapes.getMaterial(this, baseMaterial.name);
-
-      if (materialName == null) {
-        return Material.AIR;
-      }
-
-      if (option == HALVES) {
-        Material[] slabMaterials = new Material[4];
-        slabMaterials[0] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "2", MC_HALF, "bottom");
-        slabMaterials[1] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "2", MC_HALF, "bottom");
-        slabMaterials[2] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "2", MC_HALF, "bottom");
-        slabMaterials[3] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "2", MC_HALF, "bottom");
-
-        materials.put(baseMaterial.name, slabMaterials);
-      } else if (option == QUARTERS || option == EIGHTHS) {
-        Material[] slabMaterials = new Material[12];
-
-        slabMaterials[0] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "1", MC_HALF, "bottom");
-        slabMaterials[1] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "1", MC_HALF, "bottom");
-        slabMaterials[2] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "1", MC_HALF, "bottom");
-        slabMaterials[3] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "1", MC_HALF, "bottom");
-
-        slabMaterials[4] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "2", MC_HALF, "bottom");
-        slabMaterials[5] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "2", MC_HALF, "bottom");
-        slabMaterials[6] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "2", MC_HALF, "bottom");
-        slabMaterials[7] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "2", MC_HALF, "bottom");
-
-        slabMaterials[8] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "3", MC_HALF, "bottom");
-        slabMaterials[9] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "3", MC_HALF, "bottom");
-        slabMaterials[10] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "3", MC_HALF, "bottom");
-        slabMaterials[11] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "3", MC_HALF, "bottom");
-
-        materials.put(baseMaterial.name, slabMaterials);
-      } else if (option != null) {
-        throw new IllegalArgumentException("Invalid option: " + option);
-      }
+  protected Material[] createMaterials(String materialName, @Nullable Options option) {
+    if (option == HALVES) {
+      Material[] slabMaterials = new Material[4];
+      slabMaterials[0] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "2", MC_HALF, "bottom");
+      slabMaterials[1] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "2", MC_HALF, "bottom");
+      slabMaterials[2] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "2", MC_HALF, "bottom");
+      slabMaterials[3] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "2", MC_HALF, "bottom");
+
+      return slabMaterials;
+    } else if (option == QUARTERS || option == EIGHTHS) {
+      Material[] slabMaterials = new Material[12];
+
+      slabMaterials[0] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "1", MC_HALF, "bottom");
+      slabMaterials[1] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "1", MC_HALF, "bottom");
+      slabMaterials[2] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "1", MC_HALF, "bottom");
+      slabMaterials[3] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "1", MC_HALF, "bottom");
+
+      slabMaterials[4] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "2", MC_HALF, "bottom");
+      slabMaterials[5] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "2", MC_HALF, "bottom");
+      slabMaterials[6] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "2", MC_HALF, "bottom");
+      slabMaterials[7] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "2", MC_HALF, "bottom");
+
+      slabMaterials[8] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "3", MC_HALF, "bottom");
+      slabMaterials[9] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "3", MC_HALF, "bottom");
+      slabMaterials[10] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "3", MC_HALF, "bottom");
+      slabMaterials[11] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "3", MC_HALF, "bottom");
+
+      return slabMaterials;
     }
 
-    return materials.get(baseMaterial.name)[i];
+    throw new IllegalArgumentException("Invalid option: " + option);
   }
 }
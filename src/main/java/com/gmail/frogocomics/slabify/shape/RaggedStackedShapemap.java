@@ -38,4 +38,21 @@ public final class RaggedStackedShapemap implements Shapemap {
   public int getRange(int x, int y) {
     return range[x][y];
   }
+
+  @Override
+  public long getSizeInBytes() {
+    long indices = 0;
+
+    for (int[][][] row : map) {
+      for (int[][] column : row) {
+        if (column != null) {
+          for (int[] level : column) {
+            indices += level.length;
+          }
+        }
+      }
+    }
+
+    return indices * Integer.BYTES;
+  }
 }
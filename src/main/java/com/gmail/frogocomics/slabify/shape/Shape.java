@@ -39,6 +39,7 @@ public abstract class Shape {
   private final int minResolution;
   private final boolean supportsStacking;
   private final Options defaultOption;
+  private int index = -1;
 
   public Shape(String displayName, String name, Options[] availableOptions, boolean vanilla, int minResolution,
                boolean supportsStacking, @Nullable Options defaultOption) {
@@ -153,7 +154,50 @@ public abstract class Shape {
    * @param option       the selected option, which is only needed for some shapes.
    * @return the material, which will be {@link Material#AIR} if the material cannot be found.
    */
-  public abstract Material getMaterial(Material baseMaterial, int i, @Nullable Options option);
+  public Material getMaterial(Material baseMaterial, int i, @Nullable Options option) {
+    return getMaterial(MaterialRegistry.getInstance().getId(baseMaterial.name), baseMaterial, i, option);
+  }
+
+  /**
+   * Get a material connected to a base material, which has already been looked up in the {@link MaterialRegistry}.
+   *
+   * @param id           the id of the base material, or -1 if it is not in the mappings.
+   * @param baseMaterial the base material.
+   * @param i            the index of the item in the material list for the shape.
+   * @param option       the selected option, which is only needed for some shapes.
+   * @return the material, which will be {@link Material#AIR} if the material cannot be found.
+   */
+  public Material getMaterial(int id, Material baseMaterial, int i, @Nullable Options option) {
+    if (id < 0 || index < 0) {
+      return Material.AIR;
+    }
+
+    Material[] materials = MaterialRegistry.getInstance().getMaterials(index, option, id);
+    return materials != null ? materials[i] : Material.AIR;
+  }
+
+  /**
+   * Create the material list of the shape for a block. This is called once for every base material and option when the
+   * plugin is loaded, and the result is kept in the {@link MaterialRegistry}. By default, the list only contains the
+   * block itself.
+   *
+   * @param materialName the name of the block that the base material maps to for this shape.
+   * @param option       the selected option, or {@code null}.
+   * @return the materials, indexed as in {@link #getMaterial(Material, int, Options)}.
+   * @throws IllegalArgumentException if the option is not valid for the shape.
+   */
+  protected Material[] createMaterials(String materialName, @Nullable Options option) {
+    return new Material[]{Material.get(materialName)};
+  }
+
+  /**
+   * Set the index of the shape in {@link Shapes#shapesList}. Initialized in {@link Shapes#init()}.
+   *
+   * @param index the index.
+   */
+  void setIndex(int index) {
+    this.index = index;
+  }
 
   /**
    * Represents potential options of the shape. For a given shape, not all options may be available. This is provided
@@ -0,0 +1,342 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.shape;
+
+import com.gmail.frogocomics.slabify.linalg.Matrix;
+import com.gmail.frogocomics.slabify.shape.Shape.Options;
+import com.gmail.frogocomics.slabify.utils.IndexMask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.stream.IntStream;
+
+/**
+ * The baked shape matrices of a set of shape options, together with the shape, local id, height and option of every
+ * matrix. The top bank has every enabled shape, and without stacking, also every shape one block higher (fill) and one
+ * block lower (cut); the stacked bank only has the shapes that support stacking. Both end with the full and empty
+ * shapes.
+ *
+ * <p>The most recently used banks are cached, so layers with the same shape options share one bank. Every change to the
+ * options in the editor creates a new bank, so older banks are dropped from the cache, but stay usable by whoever still
+ * holds them. A bank never changes once it has been created, and must not be modified.
+ */
+public final class ShapeBank {
+
+  private static final Logger logger = LoggerFactory.getLogger(ShapeBank.class);
+  // Enough for every layer of a typical world, plus the options being edited
+  private static final int MAX_CACHED = 8;
+  private static final Map<Key, ShapeBank> cache = new LinkedHashMap<Key, ShapeBank>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Entry<Key, ShapeBank> eldest) {
+      return size() > MAX_CACHED;
+    }
+  };
+
+  private final int resolution;
+  private final List<Matrix> shapeMatrices = new ArrayList<>();
+  private final Shape[] listShapes;
+  private final int[] listLocalIds;
+  private final int[] listHeights; // 0 if cut, 1+ if fill
+  private final Options[] listOptions; // Option corresponding to shape
+
+  private final List<Matrix> shapeMatricesStacked = new ArrayList<>();
+  private final Shape[] listShapesStacked;
+  private final int[] listLocalIdsStacked;
+  private final Options[] listOptionsStacked;
+
+  private final IndexMask layerIndices;
+  // Bank indices of every shape, by index in Shapes.shapesList; the last entry holds the full and empty shapes
+  private final IndexMask[] indicesByShape;
+  private final IndexMask[] indicesByShapeStacked;
+
+  private ShapeBank(Map<String, Options> shapes, boolean stacking) {
+    int resolution = 1;
+
+    // First, get the resolution
+    for (Entry<String, Options> entry : shapes.entrySet()) {
+      if (entry.getValue() != Options.DISABLE) {
+        resolution = Math.max(resolution,
+            Shapes.shapesList.get(Shapes.shapesMap.inverse().get(entry.getKey())).getMinResolution(entry.getValue()));
+      }
+    }
+
+    this.resolution = resolution;
+
+    List<Shape> shapeList = new ArrayList<>();
+    List<Integer> localIds = new ArrayList<>();
+    List<Integer> heights = new ArrayList<>();
+    List<Options> options = new ArrayList<>();
+    List<Shape> shapeListStacked = new ArrayList<>();
+    List<Integer> localIdsStacked = new ArrayList<>();
+    List<Options> optionsStacked = new ArrayList<>();
+
+    for (Entry<String, Options> entry : shapes.entrySet()) {
+      Shape shape = Shapes.shapesList.get(Shapes.shapesMap.inverse().get(entry.getKey()));
+      Optional<List<Matrix>> optBakedShapes = shape.getShapeMatrices(entry.getValue(), resolution);
+
+      if (!optBakedShapes.isPresent()) {
+        continue;
+      }
+
+      List<Matrix> bakedShapes = optBakedShapes.get();
+
+      // Fill + 1
+      shapeMatrices.addAll(bakedShapes);
+
+      for (int i = 0; i < bakedShapes.size(); i++) {
+        shapeList.add(shape);
+        localIds.add(i);
+        heights.add(1);
+        options.add(entry.getValue());
+      }
+
+      if (shape.supportsStacking()) {
+        shapeMatricesStacked.addAll(bakedShapes);
+
+        for (int i = 0; i < bakedShapes.size(); i++) {
+          shapeListStacked.add(shape);
+          localIdsStacked.add(i);
+          optionsStacked.add(entry.getValue());
+        }
+      }
+
+      if (!stacking) {
+        // Fill + 2, then cut + 0
+        for (int height : new int[]{2, 0}) {
+          for (int i = 0; i < bakedShapes.size(); i++) {
+            Matrix copyM = bakedShapes.get(i).clone();
+            copyM.add(height - 1);
+            shapeMatrices.add(copyM);
+            shapeList.add(shape);
+            localIds.add(i);
+            heights.add(height);
+            options.add(entry.getValue());
+          }
+        }
+      }
+    }
+
+    // Add additional shapes: full and empty
+    for (Shape shape : new Shape[]{FullShape.getInstance(), EmptyShape.getInstance()}) {
+      List<Matrix> matrices = shape.getShapeMatrices(null, resolution).get();
+      shapeMatrices.addAll(matrices);
+      shapeMatricesStacked.addAll(matrices);
+      shapeList.add(shape);
+      localIds.add(0);
+      heights.add(1);
+      options.add(null);
+      shapeListStacked.add(shape);
+      localIdsStacked.add(0);
+      optionsStacked.add(null);
+    }
+
+    listShapes = shapeList.toArray(new Shape[0]);
+    listLocalIds = localIds.stream().mapToInt(Integer::intValue).toArray();
+    listHeights = heights.stream().mapToInt(Integer::intValue).toArray();
+    listOptions = options.toArray(new Options[0]);
+    listShapesStacked = shapeListStacked.toArray(new Shape[0]);
+    listLocalIdsStacked = localIdsStacked.stream().mapToInt(Integer::intValue).toArray();
+    listOptionsStacked = optionsStacked.toArray(new Options[0]);
+
+    layerIndices = IndexMask.of(IntStream.range(0, listShapes.length)
+        .filter(i -> listShapes[i] instanceof LayerShape || listShapes[i] instanceof AltLayerShape)
+        .toArray());
+    indicesByShape = getIndicesByShape(listShapes);
+    indicesByShapeStacked = getIndicesByShape(listShapesStacked);
+  }
+
+  /**
+   * Get the bank of a set of shape options, baking it if no layer with the same options has done so yet.
+   *
+   * @param shapes   the option of every shape, by name.
+   * @param stacking whether blocks are stacked.
+   * @return the bank.
+   */
+  public static ShapeBank get(Map<String, Options> shapes, boolean stacking) {
+    Key key = new Key(shapes, stacking);
+
+    synchronized (cache) {
+      ShapeBank bank = cache.get(key);
+
+      if (bank != null) {
+        return bank;
+      }
+    }
+
+    // Baked outside the lock, so that other banks can be looked up meanwhile; a bank baked twice at the same time is
+    // only kept once
+    long start = System.currentTimeMillis();
+    ShapeBank bank = new ShapeBank(key.shapes, key.stacking);
+    logger.debug("Baked {} shapes at resolution {} in {} ms", bank.shapeMatrices.size(), bank.resolution,
+        System.currentTimeMillis() - start);
+
+    synchronized (cache) {
+      ShapeBank existing = cache.putIfAbsent(key, bank);
+      return existing != null ? existing : bank;
+    }
+  }
+
+
+  /**
+   * Drop every cached bank.
+   */
+  public static void clear() {
+    synchronized (cache) {
+      cache.clear();
+    }
+  }
+
+  public int getResolution() {
+    return resolution;
+  }
+
+  public List<Matrix> getShapeMatrices() {
+    return Collections.unmodifiableList(shapeMatrices);
+  }
+
+  public List<Matrix> getShapeMatricesStacked() {
+    return Collections.unmodifiableList(shapeMatricesStacked);
+  }
+
+  public Shape[] getListShapes() {
+    return listShapes;
+  }
+
+  public int[] getListLocalIds() {
+    return listLocalIds;
+  }
+
+  public int[] getListHeights() {
+    return listHeights;
+  }
+
+  public Options[] getListOptions() {
+    return listOptions;
+  }
+
+  public Shape[] getListShapesStacked() {
+    return listShapesStacked;
+  }
+
+  public int[] getListLocalIdsStacked() {
+    return listLocalIdsStacked;
+  }
+
+  public Options[] getListOptionsStacked() {
+    return listOptionsStacked;
+  }
+
+  /**
+   * Get the index of the full shape in the top bank. The empty shape follows it.
+   *
+   * @return the index.
+   */
+  public int getFullIndex() {
+    return shapeMatrices.size() - 2;
+  }
+
+  /**
+   * Get the index of the full shape in the stacked bank.
+   *
+   * @return the index.
+   */
+  public int getFullIndexStacked() {
+    return shapeMatricesStacked.size() - 2;
+  }
+
+  /**
+   * Get the index of the empty shape in the top bank.
+   *
+   * @return the index.
+   */
+  public int getEmptyIndex() {
+    return shapeMatrices.size() - 1;
+  }
+
+  /**
+   * Get the indices of the layer shapes in the top bank.
+   *
+   * @return the indices.
+   */
+  public IndexMask getLayerIndices() {
+    return layerIndices;
+  }
+
+  /**
+   * Get the indices of the shapes that are available for a base material.
+   *
+   * @param shapeMask the available shapes, as returned by {@link MaterialRegistry#getShapeMask(int, boolean)}.
+   * @param stacked   whether to use the stacked bank.
+   * @return the indices, including the full and empty shapes.
+   */
+  public IndexMask getAvailableIndices(long shapeMask, boolean stacked) {
+    IndexMask[] indices = stacked ? indicesByShapeStacked : indicesByShape;
+    // Full and empty are always available
+    IndexMask availableIndices = indices[indices.length - 1];
+
+    for (; shapeMask != 0; shapeMask &= shapeMask - 1) {
+      availableIndices = availableIndices.or(indices[Long.numberOfTrailingZeros(shapeMask)]);
+    }
+
+    return availableIndices;
+  }
+
+  private static IndexMask[] getIndicesByShape(Shape[] bank) {
+    IndexMask[] indices = new IndexMask[Shapes.shapesList.size() + 1];
+
+    for (int s = 0; s < Shapes.shapesList.size(); s++) {
+      String name = Shapes.shapesMap.get(s);
+      indices[s] = IndexMask.of(IntStream.range(0, bank.length).filter(i -> bank[i].getName().equals(name)).toArray());
+    }
+
+    indices[indices.length - 1] = IndexMask.of(IntStream.range(0, bank.length)
+        .filter(i -> bank[i] instanceof FullShape || bank[i] instanceof EmptyShape)
+        .toArray());
+    return indices;
+  }
+
+  private static final class Key {
+
+    private final Map<String, Options> shapes;
+    private final boolean stacking;
+
+    private Key(Map<String, Options> shapes, boolean stacking) {
+      // Copied, as the options of a layer can change after its bank is baked
+      this.shapes = new LinkedHashMap<>(shapes);
+      this.stacking = stacking;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+
+      Key other = (Key) o;
+      return stacking == other.stacking && shapes.equals(other.shapes);
+    }
+
+    @Override
+    public int hashCode() {
+      return shapes.hashCode() * 31 + Boolean.hashCode(stacking);
+    }
+  }
+}
@@ -18,10 +18,9 @@
 
 package com.gmail.frogocomics.slabify.shape;
 
+import com.gmail.frogocomics.slabify.utils.IndexMask;
 import com.gmail.frogocomics.slabify.utils.Utils;
 
-import java.util.Set;
-
 /**
  * Represents a representation of the closest shapes that match a difference map.
  */
@@ -66,20 +65,58 @@ public interface Shapemap {
     return getMaxZ(x, y) - getMinZ(x, y);
   }
 
+  /**
+   * Get the number of levels at the bottom of a column that are known to be full. Implementations that do not keep
+   * track of this return {@code 0}.
+   *
+   * @param x the x coordinate.
+   * @param y the y coordinate.
+   * @return the number of full levels.
+   */
+  default int getFullLevels(int x, int y) {
+    return 0;
+  }
+
+  /**
+   * Get the number of levels at the top of a column that are known to be empty. Implementations that do not keep
+   * track of this return {@code 0}.
+   *
+   * @param x the x coordinate.
+   * @param y the y coordinate.
+   * @return the number of empty levels.
+   */
+  default int getEmptyLevels(int x, int y) {
+    return 0;
+  }
+
   /**
    * Get the closest allowable shape index at a point.
    *
    * @param x the x coordinate.
    * @param y the y coordinate.
    * @param relativeZ the relative z coordinate.
-   * @param allowedIndices a set of the allowed shape indices.
+   * @param allowedIndices the allowed shape indices.
    * @return the closest allowable shape index.
    */
-  default int getIndexAt(int x, int y, int relativeZ, Set<Integer> allowedIndices) {
+  default int getIndexAt(int x, int y, int relativeZ, IndexMask allowedIndices) {
     if (allowedIndices.isEmpty()) {
       throw new IllegalArgumentException("allowedIndices must not be empty");
     }
 
     return Utils.filter(getIndicesAt(x, y, relativeZ), allowedIndices);
   }
+
+  /**
+   * Get the approximate memory held by the rankings of the shapemap.
+   *
+   * @return the memory, in bytes.
+   */
+  long getSizeInBytes();
+
+  /**
+   * Release the memory held by the shapemap. The shapemap must not be used afterwards.
+   */
+  default void release() {
+    // Nothing to release by default
+  }
 }
@@ -20,16 +20,25 @@ package com.gmail.frogocomics.slabify.shape;
 
 import com.gmail.frogocomics.slabify.Constants;
 import com.gmail.frogocomics.slabify.SlabifyWPPlugin;
+import com.gmail.frogocomics.slabify.linalg.FixedPoint;
 import com.gmail.frogocomics.slabify.linalg.Matrix;
+import com.gmail.frogocomics.slabify.utils.Bands;
+import com.gmail.frogocomics.slabify.utils.DifferenceMap;
+import com.gmail.frogocomics.slabify.utils.ExportMetrics;
 import com.gmail.frogocomics.slabify.utils.Utils;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
-import org.javatuples.Pair;
 import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.IntBinaryOperator;
 
 /**
  * Utility class for assigning the most appropriate shape to use to add detail to terrain.
@@ -39,15 +48,19 @@ public final class Shapes {
   public static final List<Shape> stackableShapesList = new ArrayList<>();
   public static final BiMap<Integer, String> shapesMap = HashBiMap.create();
 
+  private static final Logger logger = LoggerFactory.getLogger(Shapes.class);
+
   // Key: block, Values: block for each shape
   private static final Map<String, String[]> mappings = new HashMap<>();
+  private static volatile CompletableFuture<Void> mappingsLoaded;
 
   private Shapes() {
     // Prevent instantiation
   }
 
   /**
-   * Initialized in {@link SlabifyWPPlugin}.
+   * Initialized in {@link SlabifyWPPlugin}. The shapes are available straight away, while the mappings are loaded in
+   * the background.
    */
   public static void init() {
     // Populate shapes list
@@ -68,18 +81,49 @@ public final class Shapes {
 
     for (int i = 0; i < shapesList.size(); i++) {
       shapesMap.put(i, shapesList.get(i).getName());
+      shapesList.get(i).setIndex(i);
 
       if (shapesList.get(i).supportsStacking()) {
         stackableShapesList.add(shapesList.get(i));
       }
     }
 
-    // Get the block mapping list
+    // Parsing the mappings takes a while, so it is done in the background; anything that needs them waits
+    mappingsLoaded = CompletableFuture.runAsync(Shapes::loadMappings, runnable ->
+        Utils.newThreadFactory("Slabify mappings loader", Thread.NORM_PRIORITY).newThread(runnable).start());
+  }
+
+  /**
+   * Wait until the mappings have been loaded.
+   *
+   * @throws IllegalStateException if {@link #init()} has not been called.
+   * @throws RuntimeException      if the mappings could not be loaded.
+   */
+  static void awaitMappings() {
+    CompletableFuture<Void> loaded = mappingsLoaded;
+
+    if (loaded == null) {
+      throw new IllegalStateException("The shapes have not been initialized");
+    }
+
+    try {
+      loaded.join();
+    } catch (CompletionException e) {
+      throw new RuntimeException("Could not load the mappings", e.getCause());
+    }
+  }
+
+  private static void loadMappings() {
+    // Get the block mapping lists
     File mappingFile = Utils.addFileToAppData(Constants.MAPPING_NAME);
+    File headMappingFile = Utils.addFileToAppData(Constants.HEAD_MAPPING_NAME);
+
+    // Load the files
+    Map<String, String> heads;
 
-    // Load the file
     try {
       List<String[]> rows = Utils.readCsv(mappingFile);
+      heads = HeadShape.loadHeads(Utils.readCsv(headMappingFile));
 
       // Get and remove header row
       String[] shapes = rows.get(0);
@@ -107,219 +151,570 @@ public final class Shapes {
         mappings.put(baseMaterial, arr);
       }
     } catch (IOException e) {
-      throw new RuntimeException(e);
+      logger.error("Could not load the mappings", e);
+      throw new UncheckedIOException(e);
     }
-  }
 
-  public static Shapemap findMostSimilarShapesRagged(float[][] differenceMap, int resolution, List<Matrix> shapeMatrices,
-                                               List<Matrix> shapeMatricesStacked, boolean[][] mask) {
-    int height = differenceMap.length / resolution;
-    int width = differenceMap[0].length / resolution;
-    int resolutionSquared = resolution * resolution;
-    float[] scratch = new float[resolutionSquared];
-    float[] scratch2 = new float[resolutionSquared];
-    float[] scratch3 = new float[resolutionSquared];
-    float[] scratch4 = new float[resolutionSquared];
-    long[] scratch5 = new long[shapeMatrices.size()];
-
-    int fullIdx = shapeMatrices.size() - 2;
-    int emptyIdx = shapeMatrices.size() - 1;
-    int fullStackedIdx = shapeMatricesStacked.size() - 2;
+    MaterialRegistry.init(shapesList, mappings, heads);
+  }
 
-    int[][][][] shapeMap = new int[height][width][][];
-    int[][] minZ = new int[height][width];
-    int[][] maxZ = new int[height][width];
+  /**
+   * Find the most similar shapes, where every column has its own vertical range.
+   *
+   * @param differenceMap        the difference map.
+   * @param shapeMatrices        a list of all the available shape matrices.
+   * @param shapeMatricesStacked a list of all the available shape matrices for stacked shapes.
+   * @param mask                 the mask; only columns where the value is {@code true} are matched.
+   * @return the most similar shapes as a shapemap.
+   */
+  public static Shapemap findMostSimilarShapesRagged(DifferenceMap differenceMap, List<Matrix> shapeMatrices,
+                                                     List<Matrix> shapeMatricesStacked, boolean[][] mask) {
+    return findMostSimilarShapesRagged(differenceMap, shapeMatrices, shapeMatricesStacked, mask, null);
+  }
 
-    for (int x = 0; x < height; x++) {
-      int rowBase = x * resolution;
-      for (int y = 0; y < width; y++) {
-        if (!mask[x][y]) {
-          continue;
+  /**
+   * Find the most similar shapes, where every column has its own vertical range, within a budget.
+   *
+   * @param differenceMap        the difference map.
+   * @param shapeMatrices        a list of all the available shape matrices.
+   * @param shapeMatricesStacked a list of all the available shape matrices for stacked shapes.
+   * @param mask                 the mask; only columns where the value is {@code true} are matched.
+   * @param budget               the budget of the tile, or {@code null} for no limits.
+   * @return the most similar shapes as a shapemap.
+   */
+  public static Shapemap findMostSimilarShapesRagged(DifferenceMap differenceMap, List<Matrix> shapeMatrices,
+                                                     List<Matrix> shapeMatricesStacked, boolean[][] mask,
+                                                     @Nullable TileBudget budget) {
+    int size = differenceMap.getSize();
+    int resolutionSquared = differenceMap.getResolution() * differenceMap.getResolution();
+    int[][] minZ = new int[size][size];
+    int[][] maxZ = new int[size][size];
+
+    for (int x = 0; x < size; x++) {
+      for (int y = 0; y < size; y++) {
+        if (mask[x][y]) {
+          minZ[x][y] = (int) Math.floor(differenceMap.getColumnMin(x, y)) - 1;
+          maxZ[x][y] = (int) Math.ceil(differenceMap.getColumnMax(x, y));
         }
+      }
+    }
 
-        int colBase = y * resolution;
-        int k = 0;
-
-        for (int i1 = 0; i1 < resolution; i1++) {
-          System.arraycopy(
-              differenceMap[rowBase + i1],
-              colBase,
-              scratch,
-              i1 * resolution,
-              resolution
-          );
-        }
+    if (Constants.CONTIGUOUS_SHAPEMAPS) {
+      return matchContiguous(differenceMap, mask, (x, y) -> minZ[x][y], (x, y) -> maxZ[x][y], shapeMatrices,
+          shapeMatricesStacked, budget);
+    }
+
+    int[][][][] shapeMap = new int[size][size][][];
 
-        // Find local maximum and minimum
-        float localMin = Float.POSITIVE_INFINITY;
-        float localMax = Float.NEGATIVE_INFINITY;
+    Bands.run(size, 1, (from, to) -> {
+      float[] scratch = new float[resolutionSquared];
+      float[] scratch2 = new float[resolutionSquared];
+      float[] scratch3 = new float[resolutionSquared];
+      float[] scratch4 = new float[resolutionSquared];
+      long[] scratch5 = new long[shapeMatrices.size()];
 
-        for (int i = 0; i < resolutionSquared; i++) {
-          if (scratch[i] < localMin) {
-            localMin = scratch[i];
+      for (int x = from; x < to; x++) {
+        for (int y = 0; y < size; y++) {
+          if (!mask[x][y]) {
+            continue;
           }
 
-          if (scratch[i] > localMax) {
-            localMax = scratch[i];
+          // Allocate exact vertical depth needed for specific column
+          shapeMap[x][y] = new int[maxZ[x][y] - minZ[x][y]][shapeMatrices.size()];
+
+          differenceMap.copyColumn(x, y, scratch);
+
+          for (int i = 0; i < resolutionSquared; i++) {
+            scratch[i] -= minZ[x][y];
           }
+
+          matchColumn(scratch, shapeMap[x][y], shapeMatrices, shapeMatricesStacked, scratch2, scratch3, scratch4,
+              scratch5);
         }
+      }
+    });
 
-        int localMaxHeight = (int) Math.ceil(localMax);
-        int localMinHeight = (int) Math.floor(localMin) - 1;
+    return new RaggedStackedShapemap(shapeMap, minZ, maxZ);
+  }
 
-        minZ[x][y] = localMinHeight;
-        maxZ[x][y] = localMaxHeight;
-        int localVertDiff = localMaxHeight - localMinHeight;
+  /**
+   * Find the most similar shapes, where every column within a chunk shares the same vertical range. This sits between
+   * {@link #findMostSimilarShapes(DifferenceMap, List, List, boolean, boolean[][])} and
+   * {@link #findMostSimilarShapesRagged(DifferenceMap, List, List, boolean[][])}: ranges follow the terrain at chunk
+   * granularity while the bookkeeping stays small.
+   *
+   * @param differenceMap        the difference map.
+   * @param shapeMatrices        a list of all the available shape matrices.
+   * @param shapeMatricesStacked a list of all the available shape matrices for stacked shapes.
+   * @param mask                 the mask; only columns where the value is {@code true} are matched.
+   * @return the most similar shapes as a shapemap.
+   */
+  public static Shapemap findMostSimilarShapesBanded(DifferenceMap differenceMap, List<Matrix> shapeMatrices,
+                                                     List<Matrix> shapeMatricesStacked, boolean[][] mask) {
+    return findMostSimilarShapesBanded(differenceMap, shapeMatrices, shapeMatricesStacked, mask, null);
+  }
 
-        // Allocate exact vertical depth needed for specific column
-        shapeMap[x][y] = new int[localVertDiff][shapeMatrices.size()];
+  /**
+   * Find the most similar shapes, where every column within a chunk shares the same vertical range, within a budget.
+   *
+   * @param differenceMap        the difference map.
+   * @param shapeMatrices        a list of all the available shape matrices.
+   * @param shapeMatricesStacked a list of all the available shape matrices for stacked shapes.
+   * @param mask                 the mask; only columns where the value is {@code true} are matched.
+   * @param budget               the budget of the tile, or {@code null} for no limits.
+   * @return the most similar shapes as a shapemap.
+   */
+  public static Shapemap findMostSimilarShapesBanded(DifferenceMap differenceMap, List<Matrix> shapeMatrices,
+                                                     List<Matrix> shapeMatricesStacked, boolean[][] mask,
+                                                     @Nullable TileBudget budget) {
+    int size = differenceMap.getSize();
+    int bands = (size + Constants.CHUNK_SIZE - 1) / Constants.CHUNK_SIZE;
+    int resolutionSquared = differenceMap.getResolution() * differenceMap.getResolution();
+    int[][] minZ = new int[bands][bands];
+    int[][] maxZ = new int[bands][bands];
+
+    // Determine the bounds of each band
+    for (int bx = 0; bx < bands; bx++) {
+      for (int by = 0; by < bands; by++) {
+        float bandMin = Float.POSITIVE_INFINITY;
+        float bandMax = Float.NEGATIVE_INFINITY;
+
+        for (int x = bx * Constants.CHUNK_SIZE; x < Math.min(size, (bx + 1) * Constants.CHUNK_SIZE); x++) {
+          for (int y = by * Constants.CHUNK_SIZE; y < Math.min(size, (by + 1) * Constants.CHUNK_SIZE); y++) {
+            if (mask[x][y]) {
+              bandMin = Math.min(bandMin, differenceMap.getColumnMin(x, y));
+              bandMax = Math.max(bandMax, differenceMap.getColumnMax(x, y));
+            }
+          }
+        }
 
-        for (int i = 0; i < resolutionSquared; i++) {
-          scratch[i] -= localMinHeight;
+        if (bandMin <= bandMax) {
+          minZ[bx][by] = (int) Math.floor(bandMin) - 1;
+          maxZ[bx][by] = (int) Math.ceil(bandMax);
         }
+      }
+    }
+
+    if (Constants.CONTIGUOUS_SHAPEMAPS) {
+      return matchContiguous(differenceMap, mask,
+          (x, y) -> minZ[x / Constants.CHUNK_SIZE][y / Constants.CHUNK_SIZE],
+          (x, y) -> maxZ[x / Constants.CHUNK_SIZE][y / Constants.CHUNK_SIZE], shapeMatrices, shapeMatricesStacked,
+          budget);
+    }
 
-        boolean top = true;
+    int[][][][] shapeMap = new int[size][size][][];
 
-        for (int i = localVertDiff - 1; i >= 0; i--) {
-          for (int j = 0; j < resolutionSquared; j++) {
-            float val = scratch[j] - i;
-            scratch2[j] = val;
-            scratch3[j] = Math.max(0f, val);
-            scratch4[j] = Math.min(1f, val);
-          }
+    Bands.run(size, 1, (from, to) -> {
+      float[] scratch = new float[resolutionSquared];
+      float[] scratch2 = new float[resolutionSquared];
+      float[] scratch3 = new float[resolutionSquared];
+      float[] scratch4 = new float[resolutionSquared];
+      long[] scratch5 = new long[shapeMatrices.size()];
 
-          if (Utils.allAtOrBelowZero(scratch2)) {
-            shapeMap[x][y][i][0] = emptyIdx;
-          } else if (Utils.allAtOrAboveOne(scratch2)) {
-            shapeMap[x][y][i][0] = top ? fullIdx : fullStackedIdx;
-          } else {
-            Shapes.findMostSimilarShape(shapeMap[x][y][i], scratch2, scratch3, scratch4, top ? shapeMatrices : shapeMatricesStacked, scratch5);
+      for (int x = from; x < to; x++) {
+        for (int y = 0; y < size; y++) {
+          if (!mask[x][y]) {
+            continue;
           }
 
-          if (shapeMap[x][y][i][0] != emptyIdx) {
-            top = false;
+          int bandMinHeight = minZ[x / Constants.CHUNK_SIZE][y / Constants.CHUNK_SIZE];
+          int bandVertDiff = maxZ[x / Constants.CHUNK_SIZE][y / Constants.CHUNK_SIZE] - bandMinHeight;
+
+          differenceMap.copyColumn(x, y, scratch);
+
+          for (int i = 0; i < resolutionSquared; i++) {
+            scratch[i] -= bandMinHeight;
           }
-        }
 
+          shapeMap[x][y] = new int[bandVertDiff][shapeMatrices.size()];
+          matchColumn(scratch, shapeMap[x][y], shapeMatrices, shapeMatricesStacked, scratch2, scratch3, scratch4,
+              scratch5);
+        }
       }
-    }
+    });
 
-    return new RaggedStackedShapemap(shapeMap, minZ, maxZ);
+    return new BandedStackedShapemap(shapeMap, minZ, maxZ);
   }
 
   /**
    * Find the most similar shapes.
    *
    * @param differenceMap        the difference map.
-   * @param resolution           the upscaled resolution.
    * @param shapeMatrices        a list of all the available shape matrices.
    * @param shapeMatricesStacked a list of all the available shape matrices for stacked shapes.
    * @param stacking             {@code true} if stacked shapes are available.
+   * @param mask                 the mask; only columns where the value is {@code true} are matched. It may be
+   *                             {@code null} if {@code stacking} is {@code false}, to match every column.
    * @return the most similar shapes as a shapemap. The final dimension is an array of indices in the order of
    * closeness.
    */
-  public static Shapemap findMostSimilarShapes(float[][] differenceMap, int resolution, List<Matrix> shapeMatrices,
+  public static Shapemap findMostSimilarShapes(DifferenceMap differenceMap, List<Matrix> shapeMatrices,
                                                List<Matrix> shapeMatricesStacked, boolean stacking, boolean[][] mask) {
-    int height = differenceMap.length / resolution;
-    int width = differenceMap[0].length / resolution;
-    int resolutionSquared = resolution * resolution;
-    float[] scratch = new float[resolutionSquared];
-    float[] scratch2 = new float[resolutionSquared];
-    float[] scratch3 = new float[resolutionSquared];
-    float[] scratch4 = new float[resolutionSquared];
-    long[] scratch5 = new long[shapeMatrices.size()];
+    return findMostSimilarShapes(differenceMap, shapeMatrices, shapeMatricesStacked, stacking, mask, null);
+  }
+
+  /**
+   * Find the most similar shapes, within a budget.
+   *
+   * @param differenceMap        the difference map.
+   * @param shapeMatrices        a list of all the available shape matrices.
+   * @param shapeMatricesStacked a list of all the available shape matrices for stacked shapes.
+   * @param stacking             {@code true} if stacked shapes are available.
+   * @param mask                 the mask; only columns where the value is {@code true} are matched. It may be
+   *                             {@code null} if {@code stacking} is {@code false}, to match every column.
+   * @param budget               the budget of the tile, or {@code null} for no limits. Only used if {@code stacking}
+   *                             is {@code true}.
+   * @return the most similar shapes as a shapemap.
+   */
+  public static Shapemap findMostSimilarShapes(DifferenceMap differenceMap, List<Matrix> shapeMatrices,
+                                               List<Matrix> shapeMatricesStacked, boolean stacking, boolean[][] mask,
+                                               @Nullable TileBudget budget) {
+    int size = differenceMap.getSize();
+    int resolutionSquared = differenceMap.getResolution() * differenceMap.getResolution();
 
     if (stacking) {
       // Determine global bounds
-      Pair<Float, Float> maxMin = Utils.findMinAndMax(differenceMap, mask, resolution);
-      int maxHeight = (int) Math.ceil(maxMin.getValue0());
-      int minHeight = (int) Math.floor(maxMin.getValue1());
+      float globalMin = differenceMap.getMin(mask);
+      float globalMax = differenceMap.getMax(mask);
+      int maxHeight = globalMin <= globalMax ? (int) Math.ceil(globalMax) : 0;
+      int minHeight = globalMin <= globalMax ? (int) Math.floor(globalMin) : 0;
       int vertDiff = maxHeight - minHeight;
-      int fullIdx = shapeMatrices.size() - 2;
-      int emptyIdx = shapeMatrices.size() - 1;
-      int fullStackedIdx = shapeMatricesStacked.size() - 2;
 
-      int[][][][] shapeMap = new int[height][width][vertDiff][shapeMatrices.size()];
+      if (Constants.CONTIGUOUS_SHAPEMAPS) {
+        return matchContiguous(differenceMap, mask, (x, y) -> minHeight, (x, y) -> maxHeight, shapeMatrices,
+            shapeMatricesStacked, budget);
+      }
+
+      int[][][][] shapeMap = new int[size][size][vertDiff][shapeMatrices.size()];
+
+      Bands.run(size, 1, (from, to) -> {
+        float[] scratch = new float[resolutionSquared];
+        float[] scratch2 = new float[resolutionSquared];
+        float[] scratch3 = new float[resolutionSquared];
+        float[] scratch4 = new float[resolutionSquared];
+        long[] scratch5 = new long[shapeMatrices.size()];
+
+        for (int x = from; x < to; x++) {
+          for (int y = 0; y < size; y++) {
+            if (!mask[x][y]) {
+              continue;
+            }
+
+            differenceMap.copyColumn(x, y, scratch);
 
-      // Make minHeight equal to 0
-      for (int i = 0; i < differenceMap.length; i++) {
-        for (int j = 0; j < differenceMap[0].length; j++) {
-          differenceMap[i][j] -= minHeight;
+            // Make minHeight equal to 0
+            for (int i = 0; i < resolutionSquared; i++) {
+              scratch[i] -= minHeight;
+            }
+
+            matchColumn(scratch, shapeMap[x][y], shapeMatrices, shapeMatricesStacked, scratch2, scratch3, scratch4,
+                scratch5);
+          }
+        }
+      });
+
+      return new StackedShapemap(shapeMap, minHeight, maxHeight);
+    } else {
+      int[][][] shapeMap = new int[size][size][shapeMatrices.size()];
+
+      Bands.run(size, 1, (from, to) -> {
+        float[] scratch = new float[resolutionSquared];
+        long[] scratch5 = new long[shapeMatrices.size()];
+
+        for (int x = from; x < to; x++) {
+          for (int y = 0; y < size; y++) {
+            if (mask != null && !mask[x][y]) {
+              continue;
+            }
+
+            differenceMap.copyColumn(x, y, scratch);
+            findMostSimilarShape(shapeMap[x][y], scratch, shapeMatrices, scratch5);
+          }
+        }
+      });
+
+      return new FlatShapemap(shapeMap);
+    }
+  }
+
+  /**
+   * Match every masked column into a single {@link ContiguousStackedShapemap}. Full and empty levels are counted rather
+   * than matched, so only the partial levels of each column are ranked.
+   *
+   * @param differenceMap        the difference map.
+   * @param mask                 the mask; only columns where the value is {@code true} are matched.
+   * @param minZ                 the minimum z value of a column, given its coordinates.
+   * @param maxZ                 the maximum z value of a column, given its coordinates.
+   * @param shapeMatrices        a list of all the available shape matrices.
+   * @param shapeMatricesStacked a list of all the available shape matrices for stacked shapes.
+   * @param budget               the budget of the tile, or {@code null} for no limits.
+   * @return the most similar shapes as a shapemap.
+   */
+  private static Shapemap matchContiguous(DifferenceMap differenceMap, boolean[][] mask, IntBinaryOperator minZ,
+                                          IntBinaryOperator maxZ, List<Matrix> shapeMatrices,
+                                          List<Matrix> shapeMatricesStacked, @Nullable TileBudget budget) {
+    int size = differenceMap.getSize();
+    int resolutionSquared = differenceMap.getResolution() * differenceMap.getResolution();
+    int bankSize = shapeMatrices.size();
+    int stride = budget != null ? Math.min(budget.getDepth(), bankSize) : bankSize;
+    boolean truncated = stride < bankSize;
+    int emptyIdx = shapeMatrices.size() - 1;
+
+    int[] columnMinZ = new int[size * size];
+    int[] columnRange = new int[size * size];
+    int[] columnFull = new int[size * size];
+    int[] columnPartial = new int[size * size];
+    boolean[] fullOnTop = new boolean[size * size];
+    int[] offsets = new int[size * size];
+    long total = 0;
+
+    // Split every column into runs of full, partial and empty levels
+    for (int x = 0; x < size; x++) {
+      for (int y = 0; y < size; y++) {
+        if (mask[x][y]) {
+          int column = x * size + y;
+          columnMinZ[column] = minZ.applyAsInt(x, y);
+          columnRange[column] = maxZ.applyAsInt(x, y) - columnMinZ[column];
+
+          float localMin = differenceMap.getColumnMin(x, y) - columnMinZ[column];
+          float localMax = differenceMap.getColumnMax(x, y) - columnMinZ[column];
+          int levels = columnRange[column];
+
+          // Level i is full if every sample is at or above i + 1, and empty if every sample is at or below i
+          int full = 0;
+          while (full < levels && localMin - full >= 1) {
+            full++;
+          }
+
+          int nonEmpty = levels;
+          while (nonEmpty > full && localMax - (nonEmpty - 1) <= 0) {
+            nonEmpty--;
+          }
+
+          columnFull[column] = full;
+          columnPartial[column] = nonEmpty - full;
+          offsets[column] = (int) total;
+          total += (long) columnPartial[column] * stride;
         }
       }
+    }
 
-      for (int x = 0; x < height; x++) {
-        int rowBase = x * resolution;
-        for (int y = 0; y < width; y++) {
-          if (!mask[x][y]) {
+    if (total > Integer.MAX_VALUE) {
+      throw new IllegalStateException("Shapemap is too large: " + total + " indices");
+    }
+
+    int[] data = new int[(int) total];
+    boolean fixedPoint = differenceMap.isFixedPoint();
+    FixedPoint.Bank bank = fixedPoint ? new FixedPoint.Bank(shapeMatrices, Constants.LOSS_EXPONENT) : null;
+    FixedPoint.Bank bankStacked = fixedPoint ? new FixedPoint.Bank(shapeMatricesStacked, Constants.LOSS_EXPONENT) : null;
+
+    Bands.run(size, 1, (from, to) -> {
+      float[] scratch = new float[resolutionSquared];
+      float[] scratch2 = new float[resolutionSquared];
+      float[] scratch3 = new float[resolutionSquared];
+      float[] scratch4 = new float[resolutionSquared];
+      long[] scratch5 = new long[bankSize];
+      short[] fixedScratch = fixedPoint ? new short[resolutionSquared] : null;
+      // The whole ranking of a level, before it is truncated
+      int[] ranking = truncated ? new int[bankSize] : null;
+      int approximated = 0;
+
+      for (int x = from; x < to; x++) {
+        for (int y = 0; y < size; y++) {
+          int column = x * size + y;
+
+          if (!mask[x][y] || columnPartial[column] == 0) {
+            fullOnTop[column] = true;
             continue;
           }
 
-          int colBase = y * resolution;
+          if (budget != null && budget.isExpired()) {
+            differenceMap.copyColumn(x, y, scratch);
+            fullOnTop[column] = approximateColumn(scratch, columnMinZ[column], columnFull[column],
+                columnPartial[column], data, offsets[column], stride, shapeMatrices.size(),
+                shapeMatricesStacked.size());
+            approximated++;
+            continue;
+          }
 
-          int k = 0;
+          if (fixedPoint) {
+            differenceMap.copyColumn(x, y, fixedScratch);
+          } else {
+            differenceMap.copyColumn(x, y, scratch);
 
-          for (int i1 = 0; i1 < resolution; i1++) {
-            System.arraycopy(
-                differenceMap[rowBase + i1],
-                colBase,
-                scratch,
-                i1 * resolution,
-                resolution
-            );
+            for (int i = 0; i < resolutionSquared; i++) {
+              scratch[i] -= columnMinZ[column];
+            }
           }
 
+          // Match the partial levels from the top down; the topmost non-empty level is matched against all shapes
           boolean top = true;
 
-          for (int i = vertDiff - 1; i >= 0; i--) {
-            for (int j = 0; j < resolutionSquared; j++) {
-              float val = scratch[j] - i;
-              scratch2[j] = val;
-              scratch3[j] = Math.max(0f, val);
-              scratch4[j] = Math.min(1f, val);
+          for (int p = columnPartial[column] - 1; p >= 0; p--) {
+            int i = columnFull[column] + p;
+            int levelOffset = offsets[column] + p * stride;
+            // Truncated rankings are written to the scratch ranking first
+            int[] target = truncated ? ranking : data;
+            int targetOffset = truncated ? 0 : levelOffset;
+
+            if (fixedPoint) {
+              int base = (columnMinZ[column] + i) * FixedPoint.ONE;
+              findMostSimilarShape(target, targetOffset, fixedScratch, base, top ? bank : bankStacked, scratch5);
+              assert agreesWithFloat(target, targetOffset, fixedScratch, base,
+                  top ? shapeMatrices : shapeMatricesStacked, top ? bank : bankStacked)
+                  : "Fixed point ranking differs at " + x + ", " + y + ", level " + i;
+            } else {
+              for (int j = 0; j < resolutionSquared; j++) {
+                float val = scratch[j] - i;
+                scratch2[j] = val;
+                scratch3[j] = Math.max(0f, val);
+                scratch4[j] = Math.min(1f, val);
+              }
+
+              findMostSimilarShape(target, targetOffset, scratch2, scratch3, scratch4,
+                  top ? shapeMatrices : shapeMatricesStacked, scratch5);
             }
 
-            if (Utils.allAtOrBelowZero(scratch2)) {
-              shapeMap[x][y][i][0] = emptyIdx;
-            } else if (Utils.allAtOrAboveOne(scratch2)) {
-              shapeMap[x][y][i][0] = top ? fullIdx : fullStackedIdx;
-            } else {
-              // differenceUnclip, differenceMin0, differenceMax1
-              Shapes.findMostSimilarShape(shapeMap[x][y][i], scratch2, scratch3, scratch4, top ? shapeMatrices : shapeMatricesStacked, scratch5);
+            if (truncated) {
+              truncate(ranking, (top ? shapeMatrices : shapeMatricesStacked).size(), data, levelOffset, stride);
             }
 
-            if (shapeMap[x][y][i][0] != emptyIdx) {
+            if (data[levelOffset] != emptyIdx) {
               top = false;
             }
           }
 
+          fullOnTop[column] = top;
         }
       }
 
-      return new StackedShapemap(shapeMap, minHeight, maxHeight);
-    } else {
-      int[][][] shapeMap = new int[height][width][shapeMatrices.size()];
-
-      for (int x = 0; x < height; x++) {
-        int rowBase = x * resolution;
-        for (int y = 0; y < width; y++) {
-          int colBase = y * resolution;
-
-          for (int i1 = 0; i1 < resolution; i1++) {
-            System.arraycopy(
-                differenceMap[rowBase + i1],
-                colBase,
-                scratch,
-                i1 * resolution,
-                resolution
-            );
-          }
+      if (approximated > 0) {
+        budget.addApproximated(approximated);
+      }
+    });
+
+    return new ContiguousStackedShapemap(size, stride, shapeMatrices.size() - 2, shapeMatricesStacked.size() - 2,
+        emptyIdx, columnMinZ, columnRange, columnFull, columnPartial, fullOnTop, offsets, data);
+  }
+
+  /**
+   * Keep the closest shapes of a ranking. The full and empty shapes, which are the last two of the bank, are always
+   * kept in their place, so that every level still has a shape that is available for any material.
+   *
+   * @param ranking the whole ranking.
+   * @param size    the number of shapes in the bank that was ranked.
+   * @param target  the array to write the kept shapes to.
+   * @param offset  the index in {@code target} to start writing at.
+   * @param depth   the number of shapes to keep.
+   */
+  private static void truncate(int[] ranking, int size, int[] target, int offset, int depth) {
+    int limit = Math.min(size, depth);
+    int kept = 0;
+    int others = 0;
+
+    for (int i = 0; i < size && kept < limit; i++) {
+      int idx = ranking[i];
+      boolean trivial = idx >= size - 2;
+
+      if (trivial || others < limit - 2) {
+        target[offset + kept++] = idx;
 
-          findMostSimilarShape(shapeMap[x][y], scratch, shapeMatrices, scratch5);
+        if (!trivial) {
+          others++;
         }
       }
+    }
+  }
 
-      return new FlatShapemap(shapeMap);
+  /**
+   * Rank the partial levels of a column without matching them, once the time budget is up. Every level is full if it
+   * is at least half covered, and empty otherwise; the other shapes follow in bank order.
+   *
+   * @param column      the samples of the column.
+   * @param minZ        the minimum z value of the column.
+   * @param full        the number of full levels of the column.
+   * @param partial     the number of partial levels of the column.
+   * @param target      the array to write the rankings to.
+   * @param offset      the offset of the first partial level in {@code target}.
+   * @param stride      the length of every ranking.
+   * @param size        the number of shapes in the bank.
+   * @param sizeStacked the number of shapes in the bank of stacked shapes.
+   * @return whether the topmost full level is the top of the stack.
+   */
+  private static boolean approximateColumn(float[] column, int minZ, int full, int partial, int[] target, int offset,
+                                           int stride, int size, int sizeStacked) {
+    boolean top = true;
+
+    for (int p = partial - 1; p >= 0; p--) {
+      int i = full + p;
+      float covered = 0;
+
+      for (float sample : column) {
+        covered += Math.max(0f, Math.min(1f, sample - minZ - i));
+      }
+
+      int bankSize = top ? size : sizeStacked;
+      int fullIdx = bankSize - 2;
+      int emptyIdx = bankSize - 1;
+      boolean isFull = covered * 2 >= column.length;
+      int levelOffset = offset + p * stride;
+      target[levelOffset] = isFull ? fullIdx : emptyIdx;
+      target[levelOffset + 1] = isFull ? emptyIdx : fullIdx;
+
+      for (int j = 2; j < Math.min(stride, bankSize); j++) {
+        target[levelOffset + j] = j - 2;
+      }
+
+      if (isFull) {
+        top = false;
+      }
+    }
+
+    return top;
+  }
+
+  /**
+   * Match every level of a column, from the top down. The level below the topmost non-empty level is matched against
+   * the stacked shapes only.
+   *
+   * @param column               the samples of the column, relative to the bottom of the lowest level.
+   * @param target               the array to write the rankings to; the first dimension is the number of levels.
+   * @param shapeMatrices        a list of all the available shape matrices.
+   * @param shapeMatricesStacked a list of all the available shape matrices for stacked shapes.
+   * @param scratch2             a buffer with the same length as {@code column}.
+   * @param scratch3             a buffer with the same length as {@code column}.
+   * @param scratch4             a buffer with the same length as {@code column}.
+   * @param scratch5             a buffer with a length greater or equal to {@code shapeMatrices}.
+   */
+  private static void matchColumn(float[] column, int[][] target, List<Matrix> shapeMatrices,
+                                  List<Matrix> shapeMatricesStacked, float[] scratch2, float[] scratch3,
+                                  float[] scratch4, long[] scratch5) {
+    int fullIdx = shapeMatrices.size() - 2;
+    int emptyIdx = shapeMatrices.size() - 1;
+    int fullStackedIdx = shapeMatricesStacked.size() - 2;
+    boolean top = true;
+
+    for (int i = target.length - 1; i >= 0; i--) {
+      for (int j = 0; j < column.length; j++) {
+        float val = column[j] - i;
+        scratch2[j] = val;
+        scratch3[j] = Math.max(0f, val);
+        scratch4[j] = Math.min(1f, val);
+      }
+
+      if (Utils.allAtOrBelowZero(scratch2)) {
+        target[i][0] = emptyIdx;
+      } else if (Utils.allAtOrAboveOne(scratch2)) {
+        target[i][0] = top ? fullIdx : fullStackedIdx;
+      } else {
+        // differenceUnclip, differenceMin0, differenceMax1
+        findMostSimilarShape(target[i], scratch2, scratch3, scratch4, top ? shapeMatrices : shapeMatricesStacked,
+            scratch5);
+      }
+
+      if (target[i][0] != emptyIdx) {
+        top = false;
+      }
     }
   }
 
@@ -343,9 +738,27 @@ public final class Shapes {
     for (int i = 0; i < size; i++) {
       target[i] = (int) (scratch[i] & 0xFFFFFFFFL);
     }
+
+    ExportMetrics.cellMatched();
   }
 
   public static void findMostSimilarShape(int[] target, float[] differenceUnclip, float[] differenceMin0, float[] differenceMax1, List<Matrix> matrices, long[] scratch) {
+    findMostSimilarShape(target, 0, differenceUnclip, differenceMin0, differenceMax1, matrices, scratch);
+  }
+
+  /**
+   * Find the most similar shapes for a single level of a stack, using the clipped loss.
+   *
+   * @param target           the array to write the output to, as indices ordered by similarity.
+   * @param offset           the index in {@code target} to start writing at.
+   * @param differenceUnclip the unclipped difference.
+   * @param differenceMin0   the difference, clipped to be greater or equal to 0.
+   * @param differenceMax1   the difference, clipped to be less or equal to 1.
+   * @param matrices         a list of the matrices of available shapes.
+   * @param scratch          a buffer with a length greater or equal to {@code matrices}.
+   */
+  public static void findMostSimilarShape(int[] target, int offset, float[] differenceUnclip, float[] differenceMin0,
+                                          float[] differenceMax1, List<Matrix> matrices, long[] scratch) {
     int size = matrices.size();
 
     for (int i = 0; i < size; i++) {
@@ -355,12 +768,76 @@ public final class Shapes {
     Arrays.sort(scratch, 0, size);
 
     for (int i = 0; i < size; i++) {
-      target[i] = (int) (scratch[i] & 0xFFFFFFFFL);
+      target[offset + i] = (int) (scratch[i] & 0xFFFFFFFFL);
     }
+
+    ExportMetrics.cellMatched();
+  }
+
+  /**
+   * Find the most similar shapes for a single level of a stack, using the clipped loss on {@link FixedPoint} samples.
+   *
+   * @param target  the array to write the output to, as indices ordered by similarity.
+   * @param offset  the index in {@code target} to start writing at.
+   * @param samples the samples of the column.
+   * @param base    the fixed point height of the bottom of the level.
+   * @param bank    the available shapes.
+   * @param scratch a buffer with a length greater or equal to the size of {@code bank}.
+   */
+  public static void findMostSimilarShape(int[] target, int offset, short[] samples, int base, FixedPoint.Bank bank,
+                                          long[] scratch) {
+    int size = bank.size();
+
+    for (int i = 0; i < size; i++) {
+      // Keys are less than 2^39 and there are less than 2^24 shapes, so both fit
+      scratch[i] = (bank.getLossKey(i, samples, base) << 24) | i;
+    }
+    Arrays.sort(scratch, 0, size);
+
+    for (int i = 0; i < size; i++) {
+      target[offset + i] = (int) (scratch[i] & 0xFFFFFF);
+    }
+
+    ExportMetrics.cellMatched();
+  }
+
+  /**
+   * Check a fixed point ranking against the float kernels. Both see the same samples, so the losses only differ by
+   * rounding, and the chosen shape must be as good as the best shape up to that rounding. This is only run with
+   * assertions enabled.
+   */
+  private static boolean agreesWithFloat(int[] ranking, int offset, short[] samples, int base, List<Matrix> matrices,
+                                         FixedPoint.Bank bank) {
+    float tolerance = 1e-4f;
+    float[] unclip = new float[samples.length];
+    float[] min0 = new float[samples.length];
+    float[] max1 = new float[samples.length];
+
+    for (int j = 0; j < samples.length; j++) {
+      unclip[j] = FixedPoint.toFloat(samples[j] - base);
+      min0[j] = Math.max(0f, unclip[j]);
+      max1[j] = Math.min(1f, unclip[j]);
+    }
+
+    float best = Float.POSITIVE_INFINITY;
+
+    for (int i = 0; i < matrices.size(); i++) {
+      float loss = matrices.get(i).getLossClip(unclip, min0, max1, Constants.LOSS_EXPONENT);
+
+      if (Math.abs(bank.toLoss(bank.getLossKey(i, samples, base)) - loss) > tolerance * (1 + loss)) {
+        return false;
+      }
+
+      best = Math.min(best, loss);
+    }
+
+    float chosen = matrices.get(ranking[offset]).getLossClip(unclip, min0, max1, Constants.LOSS_EXPONENT);
+    return chosen <= best + tolerance * (1 + best);
   }
 
   @Nullable
   public static String getMaterial(Shape shape, String baseMaterial) {
+    awaitMappings();
 
     // Special treatment for heads
     if (shape instanceof HeadShape && HeadShape.getHeads().containsKey(baseMaterial)) {
@@ -378,6 +855,7 @@ public final class Shapes {
   }
 
   public static boolean isAvailable(String baseMaterial) {
+    awaitMappings();
     return mappings.containsKey(baseMaterial);
   }
 
@@ -388,6 +866,7 @@ public final class Shapes {
    * @return the shapes available for the material.
    */
   public static List<String> getAvailableShapes(String baseMaterial) {
+    awaitMappings();
     List<String> availableShapes = new ArrayList<>();
 
     // Empty and full are ALWAYS available
@@ -35,7 +35,6 @@ public final class SlabShape extends Shape {
 
   public static final String NAME = "slab";
 
-  private final Map<String, Material> materials = new HashMap<>();
   private final Matrix shape;
 
   public SlabShape() {
@@ -52,20 +51,7 @@ public final class SlabShape extends Shape {
   }
 
   @Override
-  public Material getMaterial(Material baseMaterial, int i, @Nullable Options option) {
-    if (materials.containsKey(baseMaterial.name)) {
-      return materials.get(baseMaterial.name);
-    }
-
-    String materialName = Shapes.getMaterial(this, baseMaterial.name);
-
-    if (materialName == null) {
-      return Material.AIR;
-    }
-
-    Material newMaterial = Material.get(materialName, MC_TYPE, "bottom");
-    materials.put(baseMaterial.name, newMaterial);
-
-    return newMaterial;
+  protected Material[] createMaterials(String materialName, @Nullable Options option) {
+    return new Material[]{Material.get(materialName, MC_TYPE, "bottom")};
   }
 }
@@ -44,4 +44,21 @@ public final class StackedShapemap implements Shapemap {
   public int getMaxZ(int x, int y) {
     return maxZ;
   }
+
+  @Override
+  public long getSizeInBytes() {
+    long indices = 0;
+
+    for (int[][][] row : map) {
+      for (int[][] column : row) {
+        if (column != null) {
+          for (int[] level : column) {
+            indices += level.length;
+          }
+        }
+      }
+    }
+
+    return indices * Integer.BYTES;
+  }
 }
@@ -0,0 +1,267 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.shape;
+
+import com.gmail.frogocomics.slabify.Constants;
+import com.gmail.frogocomics.slabify.utils.DifferenceMap;
+
+import java.util.Locale;
+
+import static com.gmail.frogocomics.slabify.Constants.CHUNK_SIZE;
+
+/**
+ * Estimates the work and memory needed by each {@link StackingStrategy} for a tile, and picks the cheapest one.
+ *
+ * <p>Matching a partial level costs the same under every strategy, so the strategies differ only in how many trivial
+ * (empty or full) levels they visit and in how much ranking storage they allocate. The dense layout uses the tile's
+ * full vertical range for every column; with nested arrays, this is allocated even for unpainted columns. The banded
+ * and ragged layouts follow the terrain more closely, but pad each range with one extra level below. Contiguous
+ * shapemaps only store the partial levels, so there the strategies differ mostly in the number of levels visited.
+ */
+public final class StackingCostModel {
+
+  // Assumed size of an array header and of a (compressed) reference, in bytes
+  private static final int ARRAY_HEADER_BYTES = 16;
+  private static final int REFERENCE_BYTES = 4;
+  // Work units charged for every byte allocated (zeroing and eventual collection)
+  private static final double BYTE_COST = 0.25;
+
+  private StackingCostModel() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Estimate the cost of each strategy for a tile.
+   *
+   * @param differenceMap the difference map.
+   * @param mask          the mask; only columns where the value is {@code true} are matched.
+   * @param bankSize      the number of shapes in the bank, which is the length of every ranking.
+   * @return the estimate, including the cheapest strategy.
+   */
+  public static Estimate estimate(DifferenceMap differenceMap, boolean[][] mask, int bankSize) {
+    int height = mask.length;
+    int width = mask[0].length;
+    int bandsX = (height + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    int bandsY = (width + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    int resolutionSquared = differenceMap.getResolution() * differenceMap.getResolution();
+
+    int[][] columnMin = new int[height][width];
+    int[][] columnMax = new int[height][width];
+    float[][] bandMin = new float[bandsX][bandsY];
+    float[][] bandMax = new float[bandsX][bandsY];
+    float globalMin = Float.POSITIVE_INFINITY;
+    float globalMax = Float.NEGATIVE_INFINITY;
+    long painted = 0;
+    long partialLevels = 0;
+
+    for (int i = 0; i < bandsX; i++) {
+      for (int j = 0; j < bandsY; j++) {
+        bandMin[i][j] = Float.POSITIVE_INFINITY;
+        bandMax[i][j] = Float.NEGATIVE_INFINITY;
+      }
+    }
+
+    for (int x = 0; x < height; x++) {
+      for (int y = 0; y < width; y++) {
+        if (!mask[x][y]) {
+          continue;
+        }
+
+        float localMin = differenceMap.getColumnMin(x, y);
+        float localMax = differenceMap.getColumnMax(x, y);
+
+        painted++;
+        columnMin[x][y] = (int) Math.floor(localMin);
+        columnMax[x][y] = (int) Math.ceil(localMax);
+        partialLevels += columnMax[x][y] - columnMin[x][y];
+
+        int bx = x / CHUNK_SIZE;
+        int by = y / CHUNK_SIZE;
+        bandMin[bx][by] = Math.min(bandMin[bx][by], localMin);
+        bandMax[bx][by] = Math.max(bandMax[bx][by], localMax);
+        globalMin = Math.min(globalMin, localMin);
+        globalMax = Math.max(globalMax, localMax);
+      }
+    }
+
+    long[] levels = new long[StackingStrategy.values().length];
+    long[] bytes = new long[StackingStrategy.values().length];
+    long[] work = new long[StackingStrategy.values().length];
+    long rankingBytes = ARRAY_HEADER_BYTES + (long) bankSize * Integer.BYTES;
+    long cells = (long) height * width;
+
+    if (painted > 0) {
+      int vertDiff = (int) Math.ceil(globalMax) - (int) Math.floor(globalMin);
+      long bandedLevels = 0;
+      long raggedLevels = 0;
+
+      for (int x = 0; x < height; x++) {
+        for (int y = 0; y < width; y++) {
+          if (mask[x][y]) {
+            int bx = x / CHUNK_SIZE;
+            int by = y / CHUNK_SIZE;
+            bandedLevels += (int) Math.ceil(bandMax[bx][by]) - (int) Math.floor(bandMin[bx][by]) + 1;
+            raggedLevels += columnMax[x][y] - columnMin[x][y] + 1;
+          }
+        }
+      }
+
+      levels[StackingStrategy.DENSE.ordinal()] = painted * vertDiff;
+      levels[StackingStrategy.BANDED.ordinal()] = bandedLevels;
+      levels[StackingStrategy.RAGGED.ordinal()] = raggedLevels;
+
+      if (Constants.CONTIGUOUS_SHAPEMAPS) {
+        // Only partial levels are stored, plus a minimum, range, run lengths and offset for every column
+        for (StackingStrategy strategy : StackingStrategy.values()) {
+          bytes[strategy.ordinal()] = partialLevels * bankSize * Integer.BYTES + cells * (5 * Integer.BYTES + 1);
+        }
+      } else {
+        // Dense allocates the tile's full range for every column, painted or not
+        bytes[StackingStrategy.DENSE.ordinal()] = cells * vertDiff * rankingBytes
+            + cells * (ARRAY_HEADER_BYTES + (long) vertDiff * REFERENCE_BYTES)
+            + height * (ARRAY_HEADER_BYTES + (long) width * REFERENCE_BYTES);
+
+        // Banded and ragged allocate the range of the chunk or column, for painted columns only
+        long outerBytes = cells * REFERENCE_BYTES + height * ARRAY_HEADER_BYTES;
+        bytes[StackingStrategy.BANDED.ordinal()] = bandedLevels * (rankingBytes + REFERENCE_BYTES)
+            + painted * ARRAY_HEADER_BYTES + outerBytes + 2L * bandsX * bandsY * Integer.BYTES;
+        // Ragged shapemaps also keep the minimum, maximum and range of every column
+        bytes[StackingStrategy.RAGGED.ordinal()] = raggedLevels * (rankingBytes + REFERENCE_BYTES)
+            + painted * ARRAY_HEADER_BYTES + outerBytes + 3 * cells * Integer.BYTES;
+      }
+    }
+
+    // Every visited level is unpacked and checked, unless the runs are known up front; partial levels are additionally
+    // matched against the bank
+    long levelWork = Constants.CONTIGUOUS_SHAPEMAPS ? 1 : (long) resolutionSquared * 4;
+    long matchWork = partialLevels * ((long) bankSize * resolutionSquared * 2 + (long) bankSize * log2(bankSize));
+    StackingStrategy best = StackingStrategy.RAGGED;
+    double bestScore = Double.POSITIVE_INFINITY;
+
+    for (StackingStrategy strategy : StackingStrategy.values()) {
+      int i = strategy.ordinal();
+      work[i] += levels[i] * levelWork + matchWork;
+      double score = work[i] + bytes[i] * BYTE_COST;
+
+      if (score < bestScore) {
+        bestScore = score;
+        best = strategy;
+      }
+    }
+
+    return new Estimate(best, painted, partialLevels, levels, bytes, work);
+  }
+
+  private static int log2(int n) {
+    return 32 - Integer.numberOfLeadingZeros(Math.max(1, n - 1));
+  }
+
+  /**
+   * The estimated cost of every strategy for a tile.
+   */
+  public static final class Estimate {
+
+    private final StackingStrategy strategy;
+    private final long painted;
+    private final long partialLevels;
+    private final long[] levels;
+    private final long[] bytes;
+    private final long[] work;
+
+    private Estimate(StackingStrategy strategy, long painted, long partialLevels, long[] levels, long[] bytes,
+                     long[] work) {
+      this.strategy = strategy;
+      this.painted = painted;
+      this.partialLevels = partialLevels;
+      this.levels = levels;
+      this.bytes = bytes;
+      this.work = work;
+    }
+
+    /**
+     * Get the cheapest strategy.
+     *
+     * @return the cheapest strategy.
+     */
+    public StackingStrategy getStrategy() {
+      return strategy;
+    }
+
+    /**
+     * Get the number of painted columns.
+     *
+     * @return the number of painted columns.
+     */
+    public long getPainted() {
+      return painted;
+    }
+
+    /**
+     * Get the number of levels that have to be matched against the bank, which is the same for every strategy.
+     *
+     * @return the number of partial levels.
+     */
+    public long getPartialLevels() {
+      return partialLevels;
+    }
+
+    /**
+     * Get the number of levels visited by a strategy.
+     *
+     * @param strategy the strategy.
+     * @return the number of visited levels.
+     */
+    public long getLevels(StackingStrategy strategy) {
+      return levels[strategy.ordinal()];
+    }
+
+    /**
+     * Get the estimated memory used by the shapemap of a strategy.
+     *
+     * @param strategy the strategy.
+     * @return the estimated memory, in bytes.
+     */
+    public long getBytes(StackingStrategy strategy) {
+      return bytes[strategy.ordinal()];
+    }
+
+    /**
+     * Get the estimated work done by a strategy.
+     *
+     * @param strategy the strategy.
+     * @return the estimated work, in arbitrary units.
+     */
+    public long getWork(StackingStrategy strategy) {
+      return work[strategy.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(painted).append(" columns, ").append(partialLevels).append(" partial levels;");
+
+      for (StackingStrategy s : StackingStrategy.values()) {
+        sb.append(String.format(Locale.ROOT, " %s %d levels/%.1f MB/%.1f Mops", s, getLevels(s),
+            getBytes(s) / (1024.0 * 1024.0), getWork(s) / 1e6));
+      }
+
+      return sb.toString();
+    }
+  }
+}
@@ -35,7 +35,6 @@ public final class StairShape extends Shape {
 
   public static final String NAME = "stairs";
 
-  private final Map<String, Material[]> materials = new HashMap<>();
   private final Matrix stairShape = Matrix.of(new float[][]{
       {1, 1},
       {0.5f, 0.5f}
@@ -97,35 +96,24 @@ public final class StairShape extends Shape {
   }
 
   @Override
-  public Material getMaterial(Material baseMaterial, int i, @Nullable Options option) {
-    if (!materials.containsKey(baseMaterial.name)) {
-      // Create materials if does not exist
-      String materialName = Shapes.getMaterial(this, baseMaterial.name);
+  protected Material[] createMaterials(String materialName, @Nullable Options option) {
+    Material[] stairMaterials = new Material[12];
 
-      if (materialName == null) {
-        return Material.AIR;
-      }
-
-      Material[] stairMaterials = new Material[12];
-
-      stairMaterials[0] = Material.get(materialName, MC_FACING, "west", MC_SHAPE, "straight", MC_HALF, "bottom");
-      stairMaterials[1] = Material.get(materialName, MC_FACING, "south", MC_SHAPE, "straight", MC_HALF, "bottom");
-      stairMaterials[2] = Material.get(materialName, MC_FACING, "east", MC_SHAPE, "straight", MC_HALF, "bottom");
-      stairMaterials[3] = Material.get(materialName, MC_FACING, "north", MC_SHAPE, "straight", MC_HALF, "bottom");
+    stairMaterials[0] = Material.get(materialName, MC_FACING, "west", MC_SHAPE, "straight", MC_HALF, "bottom");
+    stairMaterials[1] = Material.get(materialName, MC_FACING, "south", MC_SHAPE, "straight", MC_HALF, "bottom");
+    stairMaterials[2] = Material.get(materialName, MC_FACING, "east", MC_SHAPE, "straight", MC_HALF, "bottom");
+    stairMaterials[3] = Material.get(materialName, MC_FACING, "north", MC_SHAPE, "straight", MC_HALF, "bottom");
 
-      stairMaterials[4] = Material.get(materialName, MC_FACING, "east", MC_SHAPE, "inner_right", MC_HALF, "bottom");
-      stairMaterials[5] = Material.get(materialName, MC_FACING, "east", MC_SHAPE, "inner_left", MC_HALF, "bottom");
-      stairMaterials[6] = Material.get(materialName, MC_FACING, "west", MC_SHAPE, "inner_right", MC_HALF, "bottom");
-      stairMaterials[7] = Material.get(materialName, MC_FACING, "west", MC_SHAPE, "inner_left", MC_HALF, "bottom");
+    stairMaterials[4] = Material.get(materialName, MC_FACING, "east", MC_SHAPE, "inner_right", MC_HALF, "bottom");
+    stairMaterials[5] = Material.get(materialName, MC_FACING, "east", MC_SHAPE, "inner_left", MC_HALF, "bottom");
+    stairMaterials[6] = Material.get(materialName, MC_FACING, "west", MC_SHAPE, "inner_right", MC_HALF, "bottom");
+    stairMaterials[7] = Material.get(materialName, MC_FACING, "west", MC_SHAPE, "inner_left", MC_HALF, "bottom");
 
-      stairMaterials[8] = Material.get(materialName, MC_FACING, "west", MC_SHAPE, "outer_right", MC_HALF, "bottom");
-      stairMaterials[9] = Material.get(materialName, MC_FACING, "west", MC_SHAPE, "outer_left", MC_HALF, "bottom");
-      stairMaterials[10] = Material.get(materialName, MC_FACING, "east", MC_SHAPE, "outer_right", MC_HALF, "bottom");
-      stairMaterials[11] = Material.get(materialName, MC_FACING, "east", MC_SHAPE, "outer_left", MC_HALF, "bottom");
-
-      materials.put(baseMaterial.name, stairMaterials);
-    }
+    stairMaterials[8] = Material.get(materialName, MC_FACING, "west", MC_SHAPE, "outer_right", MC_HALF, "bottom");
+    stairMaterials[9] = Material.get(materialName, MC_FACING, "west", MC_SHAPE, "outer_left", MC_HALF, "bottom");
+    stairMaterials[10] = Material.get(materialName, MC_FACING, "east", MC_SHAPE, "outer_right", MC_HALF, "bottom");
+    stairMaterials[11] = Material.get(materialName, MC_FACING, "east", MC_SHAPE, "outer_left", MC_HALF, "bottom");
 
-    return materials.get(baseMaterial.name)[i];
+    return stairMaterials;
   }
 }
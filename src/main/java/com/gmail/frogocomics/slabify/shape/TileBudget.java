@@ -0,0 +1,103 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.shape;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the memory and time spent matching the stacked shapes of a single tile, so that a few steep tiles cannot hold
+ * up an export. Only {@link ContiguousStackedShapemap}s are limited: when contiguous shapemaps are turned off, the
+ * nested shapemaps are matched in full, with no limit on either memory or time.
+ *
+ * <ul>
+ *   <li>The memory is limited by only keeping the closest {@link #getDepth() depth} shapes of every level, instead of
+ *   the whole bank. The full and empty shapes are always kept, as they are available for every material.</li>
+ *   <li>The time is limited by approximating every column that has not been matched once the time is up: each of its
+ *   levels is full if it is at least half covered, and empty otherwise.</li>
+ * </ul>
+ */
+public final class TileBudget {
+
+  /**
+   * The smallest depth, which is the closest shape followed by the full and empty shapes.
+   */
+  public static final int MIN_DEPTH = 3;
+
+  private final int depth;
+  private final long start;
+  private final long nanos;
+  private final AtomicInteger approximated = new AtomicInteger();
+
+  /**
+   * Create a new budget, starting now.
+   *
+   * @param depth the number of shapes to keep for every level, at least {@link #MIN_DEPTH}.
+   * @param nanos the time allowed for matching, in nanoseconds, or {@code 0} for no limit.
+   * @throws IllegalArgumentException if {@code depth} is less than {@link #MIN_DEPTH}.
+   */
+  public TileBudget(int depth, long nanos) {
+    if (depth < MIN_DEPTH) {
+      throw new IllegalArgumentException("depth must be at least " + MIN_DEPTH);
+    }
+
+    this.depth = depth;
+    this.nanos = nanos;
+    start = System.nanoTime();
+  }
+
+  /**
+   * Get the number of shapes to keep for every level.
+   *
+   * @return the depth.
+   */
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * Get whether the time allowed for matching is up.
+   *
+   * @return {@code true} if the remaining columns should be approximated.
+   */
+  public boolean isExpired() {
+    return nanos > 0 && System.nanoTime() - start > nanos;
+  }
+
+  /**
+   * Get the time elapsed since the budget was created.
+   *
+   * @return the elapsed time, in nanoseconds.
+   */
+  public long getElapsedNanos() {
+    return System.nanoTime() - start;
+  }
+
+  /**
+   * Get the number of columns that were approximated because the time was up.
+   *
+   * @return the number of columns.
+   */
+  public int getApproximated() {
+    return approximated.get();
+  }
+
+  void addApproximated(int columns) {
+    approximated.addAndGet(columns);
+  }
+}
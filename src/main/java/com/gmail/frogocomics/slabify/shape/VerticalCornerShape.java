@@ -36,7 +36,6 @@ public final class VerticalCornerShape extends Shape {
 
   public static final String NAME = "vert_corner";
 
-  private final Map<String, Material[]> materials = new HashMap<>();
   private final Matrix quarter1 = Matrix.of(new float[][]{
       {1, 1, 1, 1, 1, 1, 1, 1},
       {1, 0, 0, 0, 0, 0, 0, 0},
@@ -158,76 +157,65 @@ public final class VerticalCornerShape extends Shape {
   }
 
   @Override
-  public Material getMaterial(Material baseMaterial, int i, @Nullable Options option) {
-    if (!materials.containsKey(baseMaterial.name)) {
-      // Create materials if does not exist
-      String materialName = Shapes.getMaterial(this, baseMaterial.name);
-
-      if (materialName == null) {
-        return Material.AIR;
-      }
-
-      if (option == null) {
-        throw new IllegalArgumentException("Option cannot be null for a vertical corner");
-      }
-
-      Material[] slabMaterials = null;
-
-      switch (option) {
-        case HALVES:
-          slabMaterials = new Material[4];
-
-          slabMaterials[0] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "3");
-          slabMaterials[1] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "3");
-          slabMaterials[2] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "3");
-          slabMaterials[3] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "3");
-
-          break;
-        case QUARTERS:
-          slabMaterials = new Material[12];
-
-          slabMaterials[0] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "3");
-          slabMaterials[1] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "3");
-          slabMaterials[2] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "3");
-          slabMaterials[3] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "3");
-          slabMaterials[4] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "2");
-          slabMaterials[5] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "2");
-          slabMaterials[6] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "2");
-          slabMaterials[7] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "2");
-          slabMaterials[8] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "4");
-          slabMaterials[9] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "4");
-          slabMaterials[10] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "4");
-          slabMaterials[11] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "4");
-
-          break;
-        case EIGHTHS:
-          slabMaterials = new Material[16];
-
-          slabMaterials[0] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "3");
-          slabMaterials[1] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "3");
-          slabMaterials[2] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "3");
-          slabMaterials[3] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "3");
-
-          slabMaterials[4] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "2");
-          slabMaterials[5] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "2");
-          slabMaterials[6] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "2");
-          slabMaterials[7] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "2");
-          slabMaterials[8] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "4");
-          slabMaterials[9] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "4");
-          slabMaterials[10] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "4");
-          slabMaterials[11] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "4");
-
-          slabMaterials[12] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "1");
-          slabMaterials[13] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "1");
-          slabMaterials[14] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "1");
-          slabMaterials[15] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "1");
-
-          break;
-      }
+  protected Material[] createMaterials(String materialName, @Nullable Options option) {
+    if (option == null) {
+      throw new IllegalArgumentException("Option cannot be null for a vertical corner");
+    }
 
-      materials.put(baseMaterial.name, slabMaterials);
+    Material[] slabMaterials = null;
+
+    switch (option) {
+      case HALVES:
+        slabMaterials = new Material[4];
+
+        slabMaterials[0] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "3");
+        slabMaterials[1] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "3");
+        slabMaterials[2] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "3");
+        slabMaterials[3] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "3");
+
+        break;
+      case QUARTERS:
+        slabMaterials = new Material[12];
+
+        slabMaterials[0] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "3");
+        slabMaterials[1] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "3");
+        slabMaterials[2] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "3");
+        slabMaterials[3] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "3");
+        slabMaterials[4] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "2");
+        slabMaterials[5] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "2");
+        slabMaterials[6] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "2");
+        slabMaterials[7] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "2");
+        slabMaterials[8] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "4");
+        slabMaterials[9] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "4");
+        slabMaterials[10] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "4");
+        slabMaterials[11] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "4");
+
+        break;
+      case EIGHTHS:
+        slabMaterials = new Material[16];
+
+        slabMaterials[0] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "3");
+        slabMaterials[1] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "3");
+        slabMaterials[2] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "3");
+        slabMaterials[3] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "3");
+
+        slabMaterials[4] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "2");
+        slabMaterials[5] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "2");
+        slabMaterials[6] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "2");
+        slabMaterials[7] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "2");
+        slabMaterials[8] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "4");
+        slabMaterials[9] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "4");
+        slabMaterials[10] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "4");
+        slabMaterials[11] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "4");
+
+        slabMaterials[12] = Material.get(materialName, MC_FACING, "south", CQ_LAYER, "1");
+        slabMaterials[13] = Material.get(materialName, MC_FACING, "east", CQ_LAYER, "1");
+        slabMaterials[14] = Material.get(materialName, MC_FACING, "north", CQ_LAYER, "1");
+        slabMaterials[15] = Material.get(materialName, MC_FACING, "west", CQ_LAYER, "1");
+
+        break;
     }
 
-    return materials.get(baseMaterial.name)[i];
+    return slabMaterials;
   }
 }
@@ -37,7 +37,6 @@ public final class VerticalCornerSlabShape extends Shape {
 
   public static final String NAME = "vert_corner_slab";
 
-  private final Map<String, Material[]> materials = new HashMap<>();
   private final Matrix leftStairShape = Matrix.of(new float[][]{
       {1, 0},
       {0.5f, 0}
@@ -82,30 +81,19 @@ public final class VerticalCornerSlabShape extends Shape {
   }
 
   @Override
-  public Material getMaterial(Material baseMaterial, int i, @Nullable Options option) {
-    if (!materials.containsKey(baseMaterial.name)) {
-      // Create materials if does not exist
-      String materialName = Shapes.getMaterial(this, baseMaterial.name);
+  protected Material[] createMaterials(String materialName, @Nullable Options option) {
+    Material[] slabMaterials = new Material[8];
 
-      if (materialName == null) {
-        return Material.AIR;
-      }
-
-      Material[] slabMaterials = new Material[8];
-
-      slabMaterials[0] = Material.get(materialName, MC_FACING, "south", CQ_HINGE, "right", MC_HALF, "bottom");
-      slabMaterials[7] = Material.get(materialName, MC_FACING, "east", CQ_HINGE, "right", MC_HALF, "bottom");
-      slabMaterials[4] = Material.get(materialName, MC_FACING, "north", CQ_HINGE, "right", MC_HALF, "bottom");
-      slabMaterials[3] = Material.get(materialName, MC_FACING, "west", CQ_HINGE, "right", MC_HALF, "bottom");
+    slabMaterials[0] = Material.get(materialName, MC_FACING, "south", CQ_HINGE, "right", MC_HALF, "bottom");
+    slabMaterials[7] = Material.get(materialName, MC_FACING, "east", CQ_HINGE, "right", MC_HALF, "bottom");
+    slabMaterials[4] = Material.get(materialName, MC_FACING, "north", CQ_HINGE, "right", MC_HALF, "bottom");
+    slabMaterials[3] = Material.get(materialName, MC_FACING, "west", CQ_HINGE, "right", MC_HALF, "bottom");
 
-      slabMaterials[2] = Material.get(materialName, MC_FACING, "north", CQ_HINGE, "left", MC_HALF, "bottom");
-      slabMaterials[5] = Material.get(materialName, MC_FACING, "west", CQ_HINGE, "left", MC_HALF, "bottom");
-      slabMaterials[6] = Material.get(materialName, MC_FACING, "south", CQ_HINGE, "left", MC_HALF, "bottom");
-      slabMaterials[1] = Material.get(materialName, MC_FACING, "east", CQ_HINGE, "left", MC_HALF, "bottom");
-
-      materials.put(baseMaterial.name, slabMaterials);
-    }
+    slabMaterials[2] = Material.get(materialName, MC_FACING, "north", CQ_HINGE, "left", MC_HALF, "bottom");
+    slabMaterials[5] = Material.get(materialName, MC_FACING, "west", CQ_HINGE, "left", MC_HALF, "bottom");
+    slabMaterials[6] = Material.get(materialName, MC_FACING, "south", CQ_HINGE, "left", MC_HALF, "bottom");
+    slabMaterials[1] = Material.get(materialName, MC_FACING, "east", CQ_HINGE, "left", MC_HALF, "bottom");
 
-    return materials.get(baseMaterial.name)[i];
+    return slabMaterials;
   }
 }
@@ -0,0 +1,118 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.utils;
+
+import com.gmail.frogocomics.slabify.Constants;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits work on a tile into bands of rows, which are run on the common {@link ForkJoinPool} when it has idle workers.
+ * Exports usually keep every core busy with tiles of their own, in which case the bands are simply run one after the
+ * other on the calling thread. Every band must only write to its own rows, so that the result does not depend on how
+ * the work was split.
+ */
+public final class Bands {
+
+  private Bands() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Run a task over the rows {@code [0, size)}.
+   *
+   * @param size    the number of rows.
+   * @param minRows the smallest number of rows worth running as a separate band.
+   * @param task    the task, which is given the first row and the row after the last row of a band.
+   */
+  public static void run(int size, int minRows, Band task) {
+    int bands = Math.min(size / Math.max(1, minRows), idleWorkers() + 1);
+
+    if (bands <= 1) {
+      task.run(0, size);
+    } else if (ExportMetrics.isRecorded()) {
+      new BandAction(task, 0, size, bands).invoke();
+    } else {
+      // The workers do not share the metrics setting of the calling thread
+      new BandAction((from, to) -> ExportMetrics.unrecorded(() -> {
+        task.run(from, to);
+        return null;
+      }), 0, size, bands).invoke();
+    }
+  }
+
+  private static int idleWorkers() {
+    if (!Constants.PARALLEL_BANDS) {
+      return 0;
+    }
+
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    if (pool.getQueuedSubmissionCount() > 0) {
+      return 0;
+    }
+
+    return Math.max(0, pool.getParallelism() - pool.getActiveThreadCount());
+  }
+
+  /**
+   * Represents a piece of work on a band of rows.
+   */
+  @FunctionalInterface
+  public interface Band {
+
+    /**
+     * Run the work on a band of rows.
+     *
+     * @param from the first row.
+     * @param to   the row after the last row.
+     */
+    void run(int from, int to);
+  }
+
+  private static final class BandAction extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Band task;
+    private final int from;
+    private final int to;
+    private final int bands;
+
+    private BandAction(Band task, int from, int to, int bands) {
+      this.task = task;
+      this.from = from;
+      this.to = to;
+      this.bands = bands;
+    }
+
+    @Override
+    protected void compute() {
+      if (bands <= 1) {
+        task.run(from, to);
+      } else {
+        // Split in two, keeping the rows proportional to the number of bands on either side
+        int leftBands = bands / 2;
+        int middle = from + (int) ((long) (to - from) * leftBands / bands);
+        invokeAll(new BandAction(task, from, middle, leftBands), new BandAction(task, middle, to, bands - leftBands));
+      }
+    }
+  }
+}
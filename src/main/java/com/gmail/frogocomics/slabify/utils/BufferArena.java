@@ -0,0 +1,308 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.utils;
+
+import com.gmail.frogocomics.slabify.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A shared pool of scratch buffers, sized exactly as requested. Buffers are borrowed with one of the {@code acquire}
+ * methods and must be handed back with the matching {@code release} method once they are no longer used; the contents
+ * of a borrowed buffer are undefined.
+ *
+ * <p>At most {@link Constants#ARENA_BYTES} are kept in the pool, unless more are {@link #reserve(long) reserved};
+ * buffers released beyond that are left to the garbage collector. Buffers that have not been borrowed for a while, such as after an export finishes, are dropped by a
+ * background thread.
+ */
+public final class BufferArena {
+
+  private static final Logger logger = LoggerFactory.getLogger(BufferArena.class);
+  private static final long IDLE_SECONDS = 30;
+
+  private static final Object lock = new Object();
+  private static final Map<Key, ArrayDeque<Pooled>> pools = new HashMap<>();
+  private static long retainedBytes = 0;
+  private static long borrowedBytes = 0;
+  private static long peakBytes = 0;
+  private static long maxBytes = Constants.ARENA_BYTES;
+  private static ScheduledExecutorService trimmer;
+
+  private BufferArena() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Borrow an array.
+   *
+   * @param length the length of the array.
+   * @return the array.
+   */
+  public static float[] acquire(int length) {
+    Object buffer = take(new Key(Kind.ARRAY, length, 0), (long) length * Float.BYTES);
+    return buffer != null ? (float[]) buffer : new float[length];
+  }
+
+  /**
+   * Borrow a two-dimensional array.
+   *
+   * @param rows    the number of rows.
+   * @param columns the length of every row.
+   * @return the array.
+   */
+  public static float[][] acquire(int rows, int columns) {
+    Object buffer = take(new Key(Kind.GRID, rows, columns), (long) rows * columns * Float.BYTES);
+    return buffer != null ? (float[][]) buffer : new float[rows][columns];
+  }
+
+  /**
+   * Borrow a difference map.
+   *
+   * @param size       the number of columns along each side.
+   * @param resolution the upscaled resolution.
+   * @param fixedPoint whether the samples are stored as fixed point values.
+   * @return the difference map.
+   */
+  public static DifferenceMap acquireDifferenceMap(int size, int resolution, boolean fixedPoint) {
+    Object buffer = take(differenceMapKey(size, resolution, fixedPoint),
+        differenceMapBytes(size, resolution, fixedPoint));
+    return buffer != null ? (DifferenceMap) buffer : new DifferenceMap(size, resolution, fixedPoint);
+  }
+
+  /**
+   * Hand back an array borrowed with {@link #acquire(int)}.
+   *
+   * @param buffer the array.
+   */
+  public static void release(float[] buffer) {
+    give(new Key(Kind.ARRAY, buffer.length, 0), buffer, (long) buffer.length * Float.BYTES);
+  }
+
+  /**
+   * Hand back an array borrowed with {@link #acquire(int, int)}.
+   *
+   * @param buffer the array.
+   */
+  public static void release(float[][] buffer) {
+    int columns = buffer.length > 0 ? buffer[0].length : 0;
+    give(new Key(Kind.GRID, buffer.length, columns), buffer, (long) buffer.length * columns * Float.BYTES);
+  }
+
+  /**
+   * Hand back a difference map borrowed with {@link #acquireDifferenceMap(int, int, boolean)}.
+   *
+   * @param differenceMap the difference map.
+   */
+  public static void release(DifferenceMap differenceMap) {
+    int size = differenceMap.getSize();
+    int resolution = differenceMap.getResolution();
+    boolean fixedPoint = differenceMap.isFixedPoint();
+    give(differenceMapKey(size, resolution, fixedPoint), differenceMap,
+        differenceMapBytes(size, resolution, fixedPoint));
+  }
+
+  /**
+   * Drop every buffer that is currently in the pool.
+   */
+  public static void clear() {
+    synchronized (lock) {
+      pools.clear();
+      retainedBytes = 0;
+    }
+  }
+
+  /**
+   * Keep at least the given memory in the pool. The pool is shared by every layer, so it only ever grows, to fit the
+   * layer that needs the most.
+   *
+   * @param bytes the memory to keep, in bytes.
+   */
+  public static void reserve(long bytes) {
+    synchronized (lock) {
+      maxBytes = Math.max(maxBytes, bytes);
+    }
+  }
+
+  /**
+   * Get the most memory that is kept in the pool.
+   *
+   * @return the memory, in bytes.
+   */
+  public static long getMaxBytes() {
+    synchronized (lock) {
+      return maxBytes;
+    }
+  }
+
+  /**
+   * Get the memory used by the buffers in the pool, waiting to be borrowed.
+   *
+   * @return the memory used, in bytes.
+   */
+  public static long getRetainedBytes() {
+    synchronized (lock) {
+      return retainedBytes;
+    }
+  }
+
+  /**
+   * Get the memory used by the buffers that are currently borrowed.
+   *
+   * @return the memory used, in bytes.
+   */
+  public static long getBorrowedBytes() {
+    synchronized (lock) {
+      return borrowedBytes;
+    }
+  }
+
+  /**
+   * Get the highest memory used by pooled and borrowed buffers together.
+   *
+   * @return the highest memory used, in bytes.
+   */
+  public static long getPeakBytes() {
+    synchronized (lock) {
+      return peakBytes;
+    }
+  }
+
+  private static Object take(Key key, long bytes) {
+    synchronized (lock) {
+      borrowedBytes += bytes;
+      ArrayDeque<Pooled> pool = pools.get(key);
+
+      if (pool != null && !pool.isEmpty()) {
+        // Last in, first out, as the most recently used buffer is the most likely to still be cached
+        retainedBytes -= bytes;
+        return pool.pop().buffer;
+      }
+
+      peakBytes = Math.max(peakBytes, retainedBytes + borrowedBytes);
+      return null;
+    }
+  }
+
+  private static void give(Key key, Object buffer, long bytes) {
+    synchronized (lock) {
+      borrowedBytes -= bytes;
+
+      if (retainedBytes + bytes > maxBytes) {
+        return;
+      }
+
+      pools.computeIfAbsent(key, k -> new ArrayDeque<>()).push(new Pooled(buffer, bytes, System.nanoTime()));
+      retainedBytes += bytes;
+
+      if (trimmer == null) {
+        trimmer = Executors.newSingleThreadScheduledExecutor(
+            Utils.newThreadFactory("Slabify buffer trimmer", Thread.NORM_PRIORITY));
+        trimmer.scheduleWithFixedDelay(BufferArena::trim, IDLE_SECONDS, IDLE_SECONDS, TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  private static void trim() {
+    long cutoff = System.nanoTime() - TimeUnit.SECONDS.toNanos(IDLE_SECONDS);
+    long trimmed = 0;
+
+    synchronized (lock) {
+      for (Iterator<ArrayDeque<Pooled>> it = pools.values().iterator(); it.hasNext(); ) {
+        ArrayDeque<Pooled> pool = it.next();
+
+        // The oldest buffers are at the bottom of the stack
+        while (!pool.isEmpty() && pool.peekLast().releasedAt - cutoff < 0) {
+          trimmed += pool.removeLast().bytes;
+        }
+
+        if (pool.isEmpty()) {
+          it.remove();
+        }
+      }
+
+      retainedBytes -= trimmed;
+    }
+
+    if (trimmed > 0) {
+      logger.debug("Dropped {} bytes of idle buffers", trimmed);
+    }
+  }
+
+  private static Key differenceMapKey(int size, int resolution, boolean fixedPoint) {
+    return new Key(fixedPoint ? Kind.FIXED_DIFFERENCE_MAP : Kind.DIFFERENCE_MAP, size, resolution);
+  }
+
+  private static long differenceMapBytes(int size, int resolution, boolean fixedPoint) {
+    long columns = (long) size * size;
+    return columns * resolution * resolution * (fixedPoint ? Short.BYTES : Float.BYTES) + 2 * columns * Float.BYTES;
+  }
+
+  private enum Kind {
+    ARRAY, GRID, DIFFERENCE_MAP, FIXED_DIFFERENCE_MAP
+  }
+
+  private static final class Key {
+
+    private final Kind kind;
+    private final int a;
+    private final int b;
+
+    private Key(Kind kind, int a, int b) {
+      this.kind = kind;
+      this.a = a;
+      this.b = b;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+
+      Key other = (Key) o;
+      return kind == other.kind && a == other.a && b == other.b;
+    }
+
+    @Override
+    public int hashCode() {
+      return (kind.ordinal() * 31 + a) * 31 + b;
+    }
+  }
+
+  private static final class Pooled {
+
+    private final Object buffer;
+    private final long bytes;
+    private final long releasedAt;
+
+    private Pooled(Object buffer, long bytes, long releasedAt) {
+      this.buffer = buffer;
+      this.bytes = bytes;
+      this.releasedAt = releasedAt;
+    }
+  }
+}
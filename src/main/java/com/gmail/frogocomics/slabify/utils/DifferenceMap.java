@@ -0,0 +1,273 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.utils;
+
+import com.gmail.frogocomics.slabify.linalg.FixedPoint;
+
+/**
+ * Represents the difference between the upscaled height and the original height of a tile. The samples are kept in a
+ * single flat array, one column (the {@code resolution} by {@code resolution} samples above a block) after another, so
+ * that the samples of a column are contiguous. The minimum and maximum of every column are recorded as the map is
+ * written.
+ *
+ * <p>The samples are either floats or {@link FixedPoint} values, which halves the memory used and read during
+ * matching. In the latter case, the recorded bounds are those of the rounded samples.
+ */
+public final class DifferenceMap {
+
+  private final int size;
+  private final int resolution;
+  private final float[] data;
+  private final short[] fixedData;
+  private final float[] columnMin;
+  private final float[] columnMax;
+
+  /**
+   * Create a new difference map.
+   *
+   * @param size       the number of columns along each side.
+   * @param resolution the upscaled resolution.
+   */
+  public DifferenceMap(int size, int resolution) {
+    this(size, resolution, false);
+  }
+
+  /**
+   * Create a new difference map.
+   *
+   * @param size       the number of columns along each side.
+   * @param resolution the upscaled resolution.
+   * @param fixedPoint whether to store the samples as {@link FixedPoint} values rather than floats.
+   */
+  public DifferenceMap(int size, int resolution, boolean fixedPoint) {
+    this.size = size;
+    this.resolution = resolution;
+    this.data = fixedPoint ? null : new float[size * size * resolution * resolution];
+    this.fixedData = fixedPoint ? new short[size * size * resolution * resolution] : null;
+    this.columnMin = new float[size * size];
+    this.columnMax = new float[size * size];
+  }
+
+  /**
+   * Get the number of columns along each side.
+   *
+   * @return the number of columns along each side.
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Get the upscaled resolution.
+   *
+   * @return the upscaled resolution.
+   */
+  public int getResolution() {
+    return resolution;
+  }
+
+  /**
+   * Get whether the samples are stored as {@link FixedPoint} values.
+   *
+   * @return {@code true} if the samples are stored as fixed point values.
+   */
+  public boolean isFixedPoint() {
+    return fixedData != null;
+  }
+
+  /**
+   * Get the samples of the whole map. The sample at {@code (i, j)} of column {@code (x, y)} is at
+   * {@code getOffset(x, y) + i * resolution + j}.
+   *
+   * @return the samples.
+   * @throws IllegalStateException if the samples are stored as fixed point values.
+   */
+  public float[] getData() {
+    if (data == null) {
+      throw new IllegalStateException("The samples are stored as fixed point values");
+    }
+
+    return data;
+  }
+
+  /**
+   * Get the samples of the whole map as {@link FixedPoint} values, laid out as in {@link #getData()}.
+   *
+   * @return the samples.
+   * @throws IllegalStateException if the samples are stored as floats.
+   */
+  public short[] getFixedData() {
+    if (fixedData == null) {
+      throw new IllegalStateException("The samples are stored as floats");
+    }
+
+    return fixedData;
+  }
+
+  /**
+   * Get the index of the first sample of a column.
+   *
+   * @param x the x coordinate of the column.
+   * @param y the y coordinate of the column.
+   * @return the index of the first sample.
+   */
+  public int getOffset(int x, int y) {
+    return (x * size + y) * resolution * resolution;
+  }
+
+  /**
+   * Copy the samples of a column.
+   *
+   * @param x      the x coordinate of the column.
+   * @param y      the y coordinate of the column.
+   * @param target the array to write to, with a length of at least {@code resolution * resolution}.
+   */
+  public void copyColumn(int x, int y, float[] target) {
+    if (data != null) {
+      System.arraycopy(data, getOffset(x, y), target, 0, resolution * resolution);
+    } else {
+      int offset = getOffset(x, y);
+
+      for (int i = 0; i < resolution * resolution; i++) {
+        target[i] = FixedPoint.toFloat(fixedData[offset + i]);
+      }
+    }
+  }
+
+  /**
+   * Copy the samples of a column as {@link FixedPoint} values.
+   *
+   * @param x      the x coordinate of the column.
+   * @param y      the y coordinate of the column.
+   * @param target the array to write to, with a length of at least {@code resolution * resolution}.
+   * @throws IllegalStateException if the samples are stored as floats.
+   */
+  public void copyColumn(int x, int y, short[] target) {
+    System.arraycopy(getFixedData(), getOffset(x, y), target, 0, resolution * resolution);
+  }
+
+  /**
+   * Overwrite this map with the samples of another map, raised by an offset.
+   *
+   * @param source the map to copy, which must have the same size, resolution and sample format.
+   * @param offset the offset to add to every sample.
+   * @throws IllegalArgumentException if the maps do not match.
+   */
+  public void copyFrom(DifferenceMap source, float offset) {
+    if (source.size != size || source.resolution != resolution || source.isFixedPoint() != isFixedPoint()) {
+      throw new IllegalArgumentException("The difference maps do not match");
+    }
+
+    float boundsOffset = offset;
+
+    if (data != null) {
+      for (int i = 0; i < data.length; i++) {
+        data[i] = source.data[i] + offset;
+      }
+    } else {
+      int fixedOffset = FixedPoint.toFixed(offset);
+      boundsOffset = FixedPoint.toFloat(fixedOffset);
+
+      for (int i = 0; i < fixedData.length; i++) {
+        int value = source.fixedData[i] + fixedOffset;
+        fixedData[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+      }
+    }
+
+    for (int i = 0; i < columnMin.length; i++) {
+      columnMin[i] = source.columnMin[i] + boundsOffset;
+      columnMax[i] = source.columnMax[i] + boundsOffset;
+    }
+  }
+
+  /**
+   * Get the lowest sample of a column.
+   *
+   * @param x the x coordinate of the column.
+   * @param y the y coordinate of the column.
+   * @return the lowest sample.
+   */
+  public float getColumnMin(int x, int y) {
+    return columnMin[x * size + y];
+  }
+
+  /**
+   * Get the highest sample of a column.
+   *
+   * @param x the x coordinate of the column.
+   * @param y the y coordinate of the column.
+   * @return the highest sample.
+   */
+  public float getColumnMax(int x, int y) {
+    return columnMax[x * size + y];
+  }
+
+  /**
+   * Get the lowest sample of the columns within a mask.
+   *
+   * @param mask the mask; only columns where the value is {@code true} are considered.
+   * @return the lowest sample, or {@link Float#POSITIVE_INFINITY} if no column is within the mask.
+   */
+  public float getMin(boolean[][] mask) {
+    float min = Float.POSITIVE_INFINITY;
+
+    for (int x = 0; x < size; x++) {
+      for (int y = 0; y < size; y++) {
+        if (mask[x][y] && columnMin[x * size + y] < min) {
+          min = columnMin[x * size + y];
+        }
+      }
+    }
+
+    return min;
+  }
+
+  /**
+   * Get the highest sample of the columns within a mask.
+   *
+   * @param mask the mask; only columns where the value is {@code true} are considered.
+   * @return the highest sample, or {@link Float#NEGATIVE_INFINITY} if no column is within the mask.
+   */
+  public float getMax(boolean[][] mask) {
+    float max = Float.NEGATIVE_INFINITY;
+
+    for (int x = 0; x < size; x++) {
+      for (int y = 0; y < size; y++) {
+        if (mask[x][y] && columnMax[x * size + y] > max) {
+          max = columnMax[x * size + y];
+        }
+      }
+    }
+
+    return max;
+  }
+
+  /**
+   * Set the lowest and highest sample of a column. This is done by whatever writes the samples.
+   *
+   * @param x   the x coordinate of the column.
+   * @param y   the y coordinate of the column.
+   * @param min the lowest sample.
+   * @param max the highest sample.
+   */
+  void setColumnBounds(int x, int y, float min, float max) {
+    columnMin[x * size + y] = min;
+    columnMax[x * size + y] = max;
+  }
+}
@@ -0,0 +1,469 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.utils;
+
+import com.gmail.frogocomics.slabify.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Counters and latency histograms of the export, such as the time spent matching tiles and the number of blocks placed
+ * of every shape. Everything is counted with {@link LongAdder}s, so threads recording at the same time do not contend.
+ *
+ * <p>The metrics are exposed through JMX as {@code com.gmail.frogocomics.slabify:type=ExportMetrics}, and a summary is
+ * logged every {@link Constants#METRICS_INTERVAL} seconds while anything is being recorded.
+ *
+ * <p>The editor matches tiles for its previews and estimates; the cells it matches are run
+ * {@link #unrecorded(Supplier) unrecorded}, so that they are not counted as part of the export.
+ */
+public final class ExportMetrics {
+
+  private static final Logger logger = LoggerFactory.getLogger(ExportMetrics.class);
+  private static final String OBJECT_NAME = "com.gmail.frogocomics.slabify:type=ExportMetrics";
+
+  private static final LongAdder tilesPrepared = new LongAdder();
+  private static final LongAdder cacheHits = new LongAdder();
+  private static final LongAdder cacheMisses = new LongAdder();
+  private static final LongAdder cacheEvictions = new LongAdder();
+  private static final LongAdder cellsMatched = new LongAdder();
+  private static final LongAdder blocksPlaced = new LongAdder();
+  private static final LongAdder shapemapBytes = new LongAdder();
+  private static final ConcurrentMap<String, LongAdder> blocksPlacedByShape = new ConcurrentHashMap<>();
+  private static final Histogram[] histograms = new Histogram[Stage.values().length];
+  private static long lastReported = -1; // Guarded by ExportMetrics.class
+  private static final ThreadLocal<Boolean> unrecorded = ThreadLocal.withInitial(() -> false);
+
+  static {
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new Histogram();
+    }
+
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(OBJECT_NAME));
+    } catch (JMException | SecurityException e) {
+      logger.debug("Could not register the export metrics", e);
+    }
+
+    // Started here rather than on the first record, which would take a lock on every record
+    if (Constants.METRICS_INTERVAL > 0) {
+      ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(
+          Utils.newThreadFactory("Slabify metrics reporter", Thread.NORM_PRIORITY));
+      reporter.scheduleAtFixedRate(ExportMetrics::report, Constants.METRICS_INTERVAL, Constants.METRICS_INTERVAL,
+          TimeUnit.SECONDS);
+    }
+  }
+
+  private ExportMetrics() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Record the time taken by a stage of the export for a single tile or chunk.
+   *
+   * @param stage the stage.
+   * @param nanos the time taken, in nanoseconds.
+   */
+  public static void record(Stage stage, long nanos) {
+    histograms[stage.ordinal()].record(nanos);
+  }
+
+  /**
+   * Count a tile whose heights have been upscaled for the export.
+   */
+  public static void tilePrepared() {
+    tilesPrepared.increment();
+  }
+
+  /**
+   * Count an acquisition of a per-tile result that was already held by another exporter.
+   */
+  public static void cacheHit() {
+    cacheHits.increment();
+  }
+
+  /**
+   * Count an acquisition of a per-tile result that had to be created.
+   */
+  public static void cacheMiss() {
+    cacheMisses.increment();
+  }
+
+  /**
+   * Count a per-tile result that was disposed of after its last exporter released it.
+   */
+  public static void cacheEviction() {
+    cacheEvictions.increment();
+  }
+
+  /**
+   * Count a column or level that was ranked against a bank of shapes, unless the thread is running unrecorded.
+   */
+  public static void cellMatched() {
+    if (!unrecorded.get()) {
+      cellsMatched.increment();
+    }
+  }
+
+  /**
+   * Run a task on the current thread without counting the cells that it matches.
+   *
+   * @param task the task.
+   * @param <T>  the type of the result.
+   * @return the result of the task.
+   */
+  public static <T> T unrecorded(Supplier<T> task) {
+    boolean previous = unrecorded.get();
+    unrecorded.set(true);
+
+    try {
+      return task.get();
+    } finally {
+      unrecorded.set(previous);
+    }
+  }
+
+  /**
+   * Get whether the cells matched on the current thread are counted.
+   *
+   * @return {@code false} if the thread is running a task {@link #unrecorded(Supplier) unrecorded}.
+   */
+  public static boolean isRecorded() {
+    return !unrecorded.get();
+  }
+
+  /**
+   * Count blocks placed of a shape.
+   *
+   * @param shape the name of the shape.
+   * @param count the number of blocks.
+   */
+  public static void blocksPlaced(String shape, long count) {
+    blocksPlaced.add(count);
+    blocksPlacedByShape.computeIfAbsent(shape, s -> new LongAdder()).add(count);
+  }
+
+  /**
+   * Account for the memory of a shapemap that has been created or released.
+   *
+   * @param bytes the memory of the shapemap, negative if it was released.
+   */
+  public static void shapemapBytes(long bytes) {
+    shapemapBytes.add(bytes);
+  }
+
+  /**
+   * Get a single line summary of the metrics.
+   *
+   * @return the summary.
+   */
+  public static String getSummary() {
+    StringBuilder summary = new StringBuilder();
+    summary.append(tilesPrepared.sum()).append(" tiles prepared, ")
+        .append(cacheHits.sum()).append(" cache hits, ")
+        .append(cacheMisses.sum()).append(" misses, ")
+        .append(cacheEvictions.sum()).append(" evictions, ")
+        .append(cellsMatched.sum()).append(" cells matched, ")
+        .append(blocksPlaced.sum()).append(" blocks placed, ")
+        .append(shapemapBytes.sum() / 1024).append(" KB in shapemaps, ")
+        .append(BufferArena.getPeakBytes() / 1024).append(" KB peak in the buffer arena");
+
+    for (Stage stage : Stage.values()) {
+      Histogram histogram = histograms[stage.ordinal()];
+      summary.append("; ").append(stage).append(' ').append(histogram.getCount())
+          .append(String.format(" in %.0f ms (p50 %.1f ms, p99 %.1f ms)", histogram.getTotalNanos() / 1e6,
+              histogram.getPercentileNanos(0.5) / 1e6, histogram.getPercentileNanos(0.99) / 1e6));
+    }
+
+    return summary.toString();
+  }
+
+  /**
+   * Reset every counter and histogram, except for the memory held by shapemaps.
+   */
+  public static void reset() {
+    tilesPrepared.reset();
+    cacheHits.reset();
+    cacheMisses.reset();
+    cacheEvictions.reset();
+    cellsMatched.reset();
+    blocksPlaced.reset();
+    blocksPlacedByShape.clear();
+
+    for (Histogram histogram : histograms) {
+      histogram.reset();
+    }
+  }
+
+  // Only log when something has been recorded since the last summary
+  private static void report() {
+    long recorded = 0;
+
+    for (Histogram histogram : histograms) {
+      recorded += histogram.getCount();
+    }
+
+    synchronized (ExportMetrics.class) {
+      if (recorded == lastReported) {
+        return;
+      }
+
+      lastReported = recorded;
+    }
+
+    logger.info("Export metrics: {}", getSummary());
+  }
+
+  /**
+   * A stage of the export that is timed.
+   */
+  public enum Stage {
+    /**
+     * Padding, upscaling and differencing the heights of a tile.
+     */
+    UPSCALE("upscale"),
+    /**
+     * Matching the shapes of a tile.
+     */
+    MATCH("match"),
+    /**
+     * Placing the blocks of a chunk.
+     */
+    PLACE("place");
+
+    private final String name;
+
+    Stage(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  /**
+   * A histogram of times, with a bucket for every power of two microseconds.
+   */
+  private static final class Histogram {
+
+    private static final int BUCKETS = 40;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    private Histogram() {
+      for (int i = 0; i < BUCKETS; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    private void record(long nanos) {
+      long micros = Math.max(0, nanos) / 1000;
+      // Bucket i holds times of less than 2^i microseconds
+      int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+      buckets[bucket].increment();
+      count.increment();
+      totalNanos.add(nanos);
+    }
+
+    private long getCount() {
+      return count.sum();
+    }
+
+    private long getTotalNanos() {
+      return totalNanos.sum();
+    }
+
+    // The upper bound of the bucket that holds the percentile
+    private long getPercentileNanos(double percentile) {
+      long total = count.sum();
+
+      if (total == 0) {
+        return 0;
+      }
+
+      long target = (long) Math.ceil(total * percentile);
+      long seen = 0;
+
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += buckets[i].sum();
+
+        if (seen >= target) {
+          return (1L << i) * 1000;
+        }
+      }
+
+      return (1L << (BUCKETS - 1)) * 1000;
+    }
+
+    private void reset() {
+      for (LongAdder bucket : buckets) {
+        bucket.reset();
+      }
+
+      count.reset();
+      totalNanos.reset();
+    }
+  }
+
+  private static final class Bean implements ExportMetricsMXBean {
+
+    @Override
+    public long getTilesPrepared() {
+      return tilesPrepared.sum();
+    }
+
+    @Override
+    public long getCacheHits() {
+      return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+      return cacheMisses.sum();
+    }
+
+    @Override
+    public long getCacheEvictions() {
+      return cacheEvictions.sum();
+    }
+
+    @Override
+    public long getCellsMatched() {
+      return cellsMatched.sum();
+    }
+
+    @Override
+    public long getBlocksPlaced() {
+      return blocksPlaced.sum();
+    }
+
+    @Override
+    public Map<String, Long> getBlocksPlacedByShape() {
+      Map<String, Long> result = new TreeMap<>();
+      blocksPlacedByShape.forEach((shape, count) -> result.put(shape, count.sum()));
+      return result;
+    }
+
+    @Override
+    public long getShapemapBytes() {
+      return shapemapBytes.sum();
+    }
+
+    @Override
+    public long getArenaRetainedBytes() {
+      return BufferArena.getRetainedBytes();
+    }
+
+    @Override
+    public long getArenaBorrowedBytes() {
+      return BufferArena.getBorrowedBytes();
+    }
+
+    @Override
+    public long getArenaPeakBytes() {
+      return BufferArena.getPeakBytes();
+    }
+
+    @Override
+    public long getUpscaleCount() {
+      return histograms[Stage.UPSCALE.ordinal()].getCount();
+    }
+
+    @Override
+    public double getUpscaleMillis() {
+      return histograms[Stage.UPSCALE.ordinal()].getTotalNanos() / 1e6;
+    }
+
+    @Override
+    public double getUpscaleP50Millis() {
+      return histograms[Stage.UPSCALE.ordinal()].getPercentileNanos(0.5) / 1e6;
+    }
+
+    @Override
+    public double getUpscaleP99Millis() {
+      return histograms[Stage.UPSCALE.ordinal()].getPercentileNanos(0.99) / 1e6;
+    }
+
+    @Override
+    public long getMatchCount() {
+      return histograms[Stage.MATCH.ordinal()].getCount();
+    }
+
+    @Override
+    public double getMatchMillis() {
+      return histograms[Stage.MATCH.ordinal()].getTotalNanos() / 1e6;
+    }
+
+    @Override
+    public double getMatchP50Millis() {
+      return histograms[Stage.MATCH.ordinal()].getPercentileNanos(0.5) / 1e6;
+    }
+
+    @Override
+    public double getMatchP99Millis() {
+      return histograms[Stage.MATCH.ordinal()].getPercentileNanos(0.99) / 1e6;
+    }
+
+    @Override
+    public long getPlaceCount() {
+      return histograms[Stage.PLACE.ordinal()].getCount();
+    }
+
+    @Override
+    public double getPlaceMillis() {
+      return histograms[Stage.PLACE.ordinal()].getTotalNanos() / 1e6;
+    }
+
+    @Override
+    public double getPlaceP50Millis() {
+      return histograms[Stage.PLACE.ordinal()].getPercentileNanos(0.5) / 1e6;
+    }
+
+    @Override
+    public double getPlaceP99Millis() {
+      return histograms[Stage.PLACE.ordinal()].getPercentileNanos(0.99) / 1e6;
+    }
+
+    @Override
+    public String getSummary() {
+      return ExportMetrics.getSummary();
+    }
+
+    @Override
+    public void reset() {
+      ExportMetrics.reset();
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.utils;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link ExportMetrics}, registered as
+ * {@code com.gmail.frogocomics.slabify:type=ExportMetrics}. Times are in milliseconds, and percentiles are rounded up to
+ * the next power of two microseconds.
+ */
+public interface ExportMetricsMXBean {
+
+  long getTilesPrepared();
+
+  long getCacheHits();
+
+  long getCacheMisses();
+
+  long getCacheEvictions();
+
+  long getCellsMatched();
+
+  long getBlocksPlaced();
+
+  Map<String, Long> getBlocksPlacedByShape();
+
+  long getShapemapBytes();
+
+  long getArenaRetainedBytes();
+
+  long getArenaBorrowedBytes();
+
+  long getArenaPeakBytes();
+
+  long getUpscaleCount();
+
+  double getUpscaleMillis();
+
+  double getUpscaleP50Millis();
+
+  double getUpscaleP99Millis();
+
+  long getMatchCount();
+
+  double getMatchMillis();
+
+  double getMatchP50Millis();
+
+  double getMatchP99Millis();
+
+  long getPlaceCount();
+
+  double getPlaceMillis();
+
+  double getPlaceP50Millis();
+
+  double getPlaceP99Millis();
+
+  String getSummary();
+
+  void reset();
+}
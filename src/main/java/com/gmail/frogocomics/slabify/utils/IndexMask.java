@@ -0,0 +1,172 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.utils;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of shape indices, stored as a bitmask. Checking whether an index is in the set is a single array
+ * access.
+ */
+public final class IndexMask {
+
+  private static final IndexMask EMPTY = new IndexMask(new long[0]);
+
+  private final long[] words;
+
+  private IndexMask(long[] words) {
+    this.words = words;
+  }
+
+  /**
+   * Get the empty set.
+   *
+   * @return the empty set.
+   */
+  public static IndexMask empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Create a set of indices.
+   *
+   * @param indices the indices, which must not be negative.
+   * @return the set.
+   */
+  public static IndexMask of(int... indices) {
+    int max = -1;
+
+    for (int index : indices) {
+      max = Math.max(max, index);
+    }
+
+    long[] words = new long[(max >> 6) + 1];
+
+    for (int index : indices) {
+      words[index >> 6] |= 1L << index;
+    }
+
+    return new IndexMask(words);
+  }
+
+  /**
+   * Check whether an index is in the set.
+   *
+   * @param index the index.
+   * @return {@code true} if the index is in the set.
+   */
+  public boolean contains(int index) {
+    int word = index >> 6;
+    return index >= 0 && word < words.length && (words[word] & (1L << index)) != 0;
+  }
+
+  /**
+   * Check whether the set is empty.
+   *
+   * @return {@code true} if the set is empty.
+   */
+  public boolean isEmpty() {
+    for (long word : words) {
+      if (word != 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Get the union of this set and another set.
+   *
+   * @param other the other set.
+   * @return the union.
+   */
+  public IndexMask or(IndexMask other) {
+    long[] longer = words.length >= other.words.length ? words : other.words;
+    long[] shorter = longer == words ? other.words : words;
+    long[] result = Arrays.copyOf(longer, longer.length);
+
+    for (int i = 0; i < shorter.length; i++) {
+      result[i] |= shorter[i];
+    }
+
+    return new IndexMask(result);
+  }
+
+  /**
+   * Get the indices of this set that are not in another set.
+   *
+   * @param other the other set.
+   * @return the difference.
+   */
+  public IndexMask andNot(IndexMask other) {
+    long[] result = Arrays.copyOf(words, words.length);
+
+    for (int i = 0; i < Math.min(result.length, other.words.length); i++) {
+      result[i] &= ~other.words[i];
+    }
+
+    return new IndexMask(result);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof IndexMask)) {
+      return false;
+    }
+
+    IndexMask other = (IndexMask) o;
+    long[] longer = words.length >= other.words.length ? words : other.words;
+    long[] shorter = longer == words ? other.words : words;
+
+    for (int i = 0; i < longer.length; i++) {
+      if (longer[i] != (i < shorter.length ? shorter[i] : 0)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 0;
+
+    for (int i = 0; i < words.length; i++) {
+      if (words[i] != 0) {
+        hash += Long.hashCode(words[i]) * 31 + i;
+      }
+    }
+
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("[");
+
+    for (int i = 0; i < words.length * 64; i++) {
+      if (contains(i)) {
+        sb.append(sb.length() > 1 ? ", " : "").append(i);
+      }
+    }
+
+    return sb.append(']').toString();
+  }
+}
@@ -29,7 +29,8 @@ import org.pepsoft.minecraft.TileEntity;
 import java.util.*;
 
 /**
- * Represents the player head tile entity.
+ * Represents the player head tile entity. The profile, which holds the texture, is the same for every head with the same
+ * texture, so it is created once with {@link #createProfile(String)} and shared by every skull that uses it.
  */
 public final class Skull extends TileEntity {
 
@@ -44,17 +45,22 @@ public final class Skull extends TileEntity {
    * @param worldZ the world z coordinate.
    */
   public Skull(@Nullable String texture, int worldX, int worldY, int worldZ) {
+    this(texture != null ? createProfile(texture) : null, worldX, worldY, worldZ);
+  }
+
+  /**
+   * Create a new skull with a shared profile.
+   *
+   * @param profile the profile of the skull, created with {@link #createProfile(String)}. It must not be modified.
+   * @param worldX the world x coordinate.
+   * @param worldY the world y coordinate.
+   * @param worldZ the world z coordinate.
+   */
+  public Skull(@Nullable CompoundTag profile, int worldX, int worldY, int worldZ) {
     super(Constants.ID_SKULL);
 
-    if (texture != null) {
-      Map<String, Tag> profileMap = new HashMap<>();
-      List<CompoundTag> l = new ArrayList<>();
-      Map<String, Tag> m = new HashMap<>();
-      m.put("name", new StringTag("name", "textures"));
-      m.put("value", new StringTag("value", texture));
-      l.add(new CompoundTag(null, m));
-      profileMap.put("properties", new ListTag<>("properties", CompoundTag.class, l));
-      setMap("profile", profileMap);
+    if (profile != null) {
+      setTag("profile", profile);
     }
 
     //Set the coordinate
@@ -62,4 +68,20 @@ public final class Skull extends TileEntity {
     setY(worldY);
     setZ(worldZ);
   }
+
+  /**
+   * Create the profile of a skull, which can be shared by any number of skulls.
+   *
+   * @param texture the texture of the skull.
+   * @return the profile.
+   */
+  public static CompoundTag createProfile(String texture) {
+    Map<String, Tag> m = new HashMap<>();
+    m.put("name", new StringTag("name", "textures"));
+    m.put("value", new StringTag("value", texture));
+    List<CompoundTag> l = Collections.singletonList(new CompoundTag(null, Collections.unmodifiableMap(m)));
+    Map<String, Tag> profileMap = Collections.singletonMap("properties",
+        new ListTag<>("properties", CompoundTag.class, l));
+    return new CompoundTag("profile", profileMap);
+  }
 }
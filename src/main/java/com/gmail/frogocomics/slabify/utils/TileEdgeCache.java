@@ -0,0 +1,197 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.utils;
+
+import com.gmail.frogocomics.slabify.Constants;
+import org.pepsoft.worldpainter.Dimension;
+import org.pepsoft.worldpainter.Tile;
+import org.pepsoft.worldpainter.layers.Layer;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import static org.pepsoft.worldpainter.Constants.TILE_SIZE;
+
+/**
+ * Caches the heights along the edges of the tiles of a dimension, {@link Constants#TILE_PADDING} blocks deep, so that
+ * padding a tile with the heights of its neighbours is a matter of copying arrays. Every tile is read once, no matter
+ * how many of its neighbours are padded. An entry is dropped when the heights of its tile change.
+ *
+ * <p>The heights may be changed on the event dispatch thread while they are read on another thread, so the cache
+ * listens to a tile before reading it, and only keeps edges whose tile did not change while they were read.
+ */
+public final class TileEdgeCache implements Tile.Listener {
+
+  private static final int DEPTH = Constants.TILE_PADDING;
+  private static final Map<Dimension, TileEdgeCache> caches = new WeakHashMap<>();
+
+  private final Map<Tile, Edges> edges = new WeakHashMap<>();
+  // The number of times the heights of every tile that is listened to have changed
+  private final Map<Tile, Integer> changes = new WeakHashMap<>();
+
+  private TileEdgeCache() {
+  }
+
+  /**
+   * Get the cache of a dimension, creating it if needed.
+   *
+   * @param dimension the dimension.
+   * @return the cache.
+   */
+  public static TileEdgeCache forDimension(Dimension dimension) {
+    synchronized (caches) {
+      return caches.computeIfAbsent(dimension, d -> new TileEdgeCache());
+    }
+  }
+
+  /**
+   * Get the edges of a tile, reading them from the tile if they are not cached.
+   *
+   * @param tile the tile.
+   * @return the edges of the tile.
+   */
+  public Edges getEdges(Tile tile) {
+    int before;
+
+    synchronized (edges) {
+      Edges cached = edges.get(tile);
+
+      if (cached != null) {
+        return cached;
+      }
+
+      Integer count = changes.get(tile);
+
+      if (count == null) {
+        tile.addListener(this);
+        count = 0;
+        changes.put(tile, count);
+      }
+
+      before = count;
+    }
+
+    // Reading the tile is idempotent, so there is no need to hold the lock while doing so
+    Edges read = new Edges(tile);
+
+    synchronized (edges) {
+      Edges cached = edges.get(tile);
+
+      if (cached != null) {
+        return cached;
+      }
+
+      // Edges that were read while the heights changed are used once, but not kept
+      if (changes.get(tile) == before) {
+        edges.put(tile, read);
+      }
+
+      return read;
+    }
+  }
+
+  @Override
+  public void heightMapChanged(Tile tile) {
+    synchronized (edges) {
+      edges.remove(tile);
+      changes.merge(tile, 1, Integer::sum);
+    }
+  }
+
+  @Override
+  public void terrainChanged(Tile tile) {
+    // Not relevant
+  }
+
+  @Override
+  public void waterLevelChanged(Tile tile) {
+    // Not relevant
+  }
+
+  @Override
+  public void layerDataChanged(Tile tile, Set<Layer> changedLayers) {
+    // Not relevant
+  }
+
+  @Override
+  public void allBitLayerDataChanged(Tile tile) {
+    // Not relevant
+  }
+
+  @Override
+  public void allNonBitlayerDataChanged(Tile tile) {
+    // Not relevant
+  }
+
+  @Override
+  public void seedsChanged(Tile tile) {
+    // Not relevant
+  }
+
+  /**
+   * The heights along the four edges of a tile. The corners are part of both edges that meet there.
+   */
+  public static final class Edges {
+
+    // The first and last DEPTH rows (constant x), each TILE_SIZE long
+    private final float[] lowX = new float[DEPTH * TILE_SIZE];
+    private final float[] highX = new float[DEPTH * TILE_SIZE];
+    // The first and last DEPTH columns (constant y), stored as TILE_SIZE rows that are DEPTH long
+    private final float[] lowY = new float[TILE_SIZE * DEPTH];
+    private final float[] highY = new float[TILE_SIZE * DEPTH];
+
+    private Edges(Tile tile) {
+      for (int i = 0; i < DEPTH; i++) {
+        for (int j = 0; j < TILE_SIZE; j++) {
+          lowX[i * TILE_SIZE + j] = tile.getHeight(i, j);
+          highX[i * TILE_SIZE + j] = tile.getHeight(TILE_SIZE - DEPTH + i, j);
+          lowY[j * DEPTH + i] = tile.getHeight(j, i);
+          highY[j * DEPTH + i] = tile.getHeight(j, TILE_SIZE - DEPTH + i);
+        }
+      }
+    }
+
+    /**
+     * Copy part of a row of heights. The part must lie on one of the edges: either {@code x} is within
+     * {@link Constants#TILE_PADDING} of the first or last row, or the whole part is within {@code TILE_PADDING} of the
+     * first or last column.
+     *
+     * @param x      the x coordinate of the row.
+     * @param y      the y coordinate of the first height to copy.
+     * @param target the array to copy to.
+     * @param offset the index in {@code target} to copy the first height to.
+     * @param length the number of heights to copy.
+     * @throws IllegalArgumentException if the part does not lie on an edge.
+     */
+    public void copyRow(int x, int y, float[] target, int offset, int length) {
+      if (x < DEPTH) {
+        System.arraycopy(lowX, x * TILE_SIZE + y, target, offset, length);
+      } else if (x >= TILE_SIZE - DEPTH) {
+        System.arraycopy(highX, (x - TILE_SIZE + DEPTH) * TILE_SIZE + y, target, offset, length);
+      } else if (y + length <= DEPTH) {
+        System.arraycopy(lowY, x * DEPTH + y, target, offset, length);
+      } else if (y >= TILE_SIZE - DEPTH) {
+        System.arraycopy(highY, x * DEPTH + y - TILE_SIZE + DEPTH, target, offset, length);
+      } else {
+        throw new IllegalArgumentException("Not on an edge: " + x + ", " + y + " (" + length + ")");
+      }
+    }
+  }
+}
@@ -20,8 +20,10 @@ package com.gmail.frogocomics.slabify.utils;
 
 import com.gmail.frogocomics.slabify.Constants;
 import com.gmail.frogocomics.slabify.layers.Slab.Interpolation;
+import com.gmail.frogocomics.slabify.linalg.FixedPoint;
 import com.gmail.frogocomics.slabify.shape.Shapes;
 import org.javatuples.Pair;
+import org.jspecify.annotations.Nullable;
 import org.pepsoft.worldpainter.Configuration;
 import org.pepsoft.worldpainter.Dimension;
 import org.pepsoft.worldpainter.Tile;
@@ -30,8 +32,10 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ThreadFactory;
 
 import static org.pepsoft.worldpainter.Constants.TILE_SIZE;
 
@@ -41,70 +45,118 @@ import static org.pepsoft.worldpainter.Constants.TILE_SIZE;
 public final class Utils {
 
   private static final int PADDED_SIZE = TILE_SIZE + 2 * Constants.TILE_PADDING;
-  private static final ThreadLocal<float[][]> PADDED_BUFFER =
-      ThreadLocal.withInitial(() -> new float[PADDED_SIZE][PADDED_SIZE]);
-  private static final ThreadLocal<float[][]> UPSCALE_BUFFER =
-      ThreadLocal.withInitial(() -> new float[PADDED_SIZE * Constants.MAX_UPSCALE_RESOLUTION][PADDED_SIZE * Constants.MAX_UPSCALE_RESOLUTION]);
 
   private Utils() {
     // Prevent instantiation
   }
 
   /**
-   * Get the difference between the upscaled height and the original height.
+   * Get the difference between the upscaled height and the original height of a tile. Padding, upscaling and taking
+   * the difference are done in a single stage, which writes straight into the difference map and records the bounds of
+   * every column on the way.
    *
-   * @param upscaledMap the upscaled map, as a float array.
-   * @param originalMap the original tile.
-   * @param addHeight   the height to add.
-   * @param buffer      the buffer to write to.
+   * @param tile       the tile.
+   * @param dimension  the dimension the tile belongs to, or {@code null} if the tile has no neighbors.
+   * @param method     the interpolation method to use. The method must be either {@link Interpolation#BICUBIC} or
+   *                   {@link Interpolation#BILINEAR}. It is not used if the resolution is 1.
+   * @param resolution the amount of upscaling needed, must be a power of 2.
+   * @param addHeight  the height to add.
+   * @param out        the difference map to write to, with the same resolution.
    */
-  public static void getDifference(float[][] upscaledMap, Tile originalMap, float addHeight, float[][] buffer) {
+  public static void getDifference(Tile tile, @Nullable Dimension dimension, Interpolation method, int resolution,
+                                   float addHeight, DifferenceMap out) {
+    getDifference(tile, dimension, method, resolution, addHeight, 0, 0, TILE_SIZE, out);
+  }
 
-    int resolution = upscaledMap.length / TILE_SIZE;
+  /**
+   * Get the difference between the upscaled height and the original height of a square region of a tile. Only the
+   * columns of the region are written; the rest of the difference map is left as it was. The heights around the region
+   * are still used for interpolation, so the region is upscaled exactly as it would be with the rest of the tile.
+   *
+   * @param tile       the tile.
+   * @param dimension  the dimension the tile belongs to, or {@code null} if the tile has no neighbors.
+   * @param method     the interpolation method to use. The method must be either {@link Interpolation#BICUBIC} or
+   *                   {@link Interpolation#BILINEAR}. It is not used if the resolution is 1.
+   * @param resolution the amount of upscaling needed, must be a power of 2.
+   * @param addHeight  the height to add.
+   * @param x0         the x coordinate of the region within the tile.
+   * @param y0         the y coordinate of the region within the tile.
+   * @param size       the size of the region in blocks.
+   * @param out        the difference map to write to, with the same resolution.
+   */
+  public static void getDifference(Tile tile, @Nullable Dimension dimension, Interpolation method, int resolution,
+                                   float addHeight, int x0, int y0, int size, DifferenceMap out) {
+    if (x0 < 0 || y0 < 0 || size < 0 || x0 + size > TILE_SIZE || y0 + size > TILE_SIZE) {
+      throw new IllegalArgumentException("The region must be within the tile");
+    }
 
     // Resolution must be a power of two: 1, 2, 4, 8, etc.
     if (resolution == 0 || (resolution & (resolution - 1)) != 0) {
       throw new IllegalArgumentException("Resolution must be a power of two");
     }
 
-    // Special case of resolution of 1
+    if (out.getSize() != TILE_SIZE || out.getResolution() != resolution) {
+      throw new IllegalArgumentException("The difference map does not match the resolution");
+    }
+
+    // Special case of resolution of 1: no upscaling
     if (resolution == 1) {
-      for (int x = 0; x < TILE_SIZE; x++) {
-        for (int y = 0; y < TILE_SIZE; y++) {
-          buffer[x][y] = upscaledMap[x][y] - originalMap.getIntHeight(x, y) + addHeight;
+      for (int x = x0; x < x0 + size; x++) {
+        for (int y = y0; y < y0 + size; y++) {
+          float value = tile.getHeight(x, y) - tile.getIntHeight(x, y) + addHeight;
+
+          if (out.isFixedPoint()) {
+            short fixed = FixedPoint.toFixed(value);
+            out.getFixedData()[x * TILE_SIZE + y] = fixed;
+            value = FixedPoint.toFloat(fixed);
+          } else {
+            out.getData()[x * TILE_SIZE + y] = value;
+          }
+
+          out.setColumnBounds(x, y, value, value);
         }
       }
-    } else {
-      for (int i1 = 0; i1 < TILE_SIZE; i1++) {
-        for (int i2 = 0; i2 < TILE_SIZE; i2++) {
-          float baseHeight = originalMap.getIntHeight(i1, i2);
-          float offset = addHeight - baseHeight;
-          int rowStart = i1 * resolution;
-          int colStart = i2 * resolution;
-
-          for (int i3 = 0; i3 < resolution; i3++) {
-            for (int i4 = 0; i4 < resolution; i4++) {
-              int x = rowStart + i3;
-              int y = colStart + i4;
-              buffer[x][y] = upscaledMap[x][y] + offset;
-            }
-          }
+
+      return;
+    }
+
+    float[][] paddedBuffer = BufferArena.acquire(PADDED_SIZE, PADDED_SIZE);
+    float[][] upscaleBuffer = BufferArena.acquire(PADDED_SIZE, TILE_SIZE * resolution);
+    float[] offsets = BufferArena.acquire(TILE_SIZE * TILE_SIZE);
+
+    try {
+      for (int x = x0; x < x0 + size; x++) {
+        for (int y = y0; y < y0 + size; y++) {
+          offsets[x * TILE_SIZE + y] = addHeight - tile.getIntHeight(x, y);
         }
       }
+
+      padTile(tile, dimension, Constants.TILE_PADDING, paddedBuffer);
+      upscale(paddedBuffer, resolution, Constants.TILE_PADDING, method, upscaleBuffer, offsets, x0, y0, size, out);
+    } finally {
+      BufferArena.release(paddedBuffer);
+      BufferArena.release(upscaleBuffer);
+      BufferArena.release(offsets);
     }
   }
 
   /**
-   * Get a heightmap from a {@link Tile} with padding from neighboring {@link Tile}s.
+   * Get a heightmap from a {@link Tile} with padding from neighboring {@link Tile}s. The edges of the neighbors are read
+   * through the {@link TileEdgeCache} of the dimension.
    *
    * @param tile      the tile to get the heightmap from.
-   * @param dimension the dimension the tile belongs to.
-   * @param pad       the padding on each side.
+   * @param dimension the dimension the tile belongs to, or {@code null} if the tile has no neighbors.
+   * @param pad       the padding on each side, at most {@link Constants#TILE_PADDING}.
    * @param buffer    the scratch array.
    */
-  public static void padTile(Tile tile, Dimension dimension, int pad, float[][] buffer) {
+  public static void padTile(Tile tile, @Nullable Dimension dimension, int pad, float[][] buffer) {
+    if (pad > Constants.TILE_PADDING) {
+      throw new IllegalArgumentException("Padding must not exceed " + Constants.TILE_PADDING);
+    }
+
     int tileX = tile.getX();
     int tileY = tile.getY();
+    TileEdgeCache edgeCache = dimension != null ? TileEdgeCache.forDimension(dimension) : null;
 
     // Fill center from current tile
     for (int x = 0; x < TILE_SIZE; x++) {
@@ -121,7 +173,7 @@ public final class Utils {
           continue;
         }
 
-        Tile neighborTile = dimension.getTile(tileX + dx, tileY + dy);
+        Tile neighborTile = dimension != null ? dimension.getTile(tileX + dx, tileY + dy) : null;
 
         int xStart = (dx < 0) ? 0 : (dx == 0 ? pad : TILE_SIZE + pad);
         int xEnd = (dx < 0) ? pad : (dx == 0 ? TILE_SIZE + pad : PADDED_SIZE);
@@ -129,14 +181,17 @@ public final class Utils {
         int yStart = (dy < 0) ? 0 : (dy == 0 ? pad : TILE_SIZE + pad);
         int yEnd = (dy < 0) ? pad : (dy == 0 ? TILE_SIZE + pad : PADDED_SIZE);
 
-        for (int px = xStart; px < xEnd; px++) {
-          for (int py = yStart; py < yEnd; py++) {
-            if (neighborTile != null) {
-              // Map padded index back to neighbor local index
-              int nx = px - (dx * TILE_SIZE + pad);
-              int ny = py - (dy * TILE_SIZE + pad);
-              buffer[px][py] = neighborTile.getHeight(nx, ny);
-            } else {
+        if (neighborTile != null) {
+          TileEdgeCache.Edges edges = edgeCache.getEdges(neighborTile);
+          // Map padded index back to neighbor local index
+          int ny = yStart - (dy * TILE_SIZE + pad);
+
+          for (int px = xStart; px < xEnd; px++) {
+            edges.copyRow(px - (dx * TILE_SIZE + pad), ny, buffer[px], yStart, yEnd - yStart);
+          }
+        } else {
+          for (int px = xStart; px < xEnd; px++) {
+            for (int py = yStart; py < yEnd; py++) {
               // Clamp to the center tile
               int cx = Math.max(pad, Math.min(TILE_SIZE + pad - 1, px));
               int cy = Math.max(pad, Math.min(TILE_SIZE + pad - 1, py));
@@ -149,126 +204,174 @@ public final class Utils {
   }
 
   /**
-   * Upscale a tile using basic interpolation.
+   * Upscale the centre of a padded heightmap, leaving out the padding, and write its difference from the original
+   * height into a difference map.
    *
-   * @param tile       the tile to upscale.
-   * @param dimension  the dimension the tile belongs to.
-   * @param method     the interpolation method to use. The method must be either
-   *                   {@link Interpolation#BICUBIC} or {@link Interpolation#BILINEAR}.
-   * @param resolution the amount of upscaling needed, must be a power of 2.
-   * @param buffer     the buffer.
+   * <p>The interpolation is separable, so it is done in two passes: first along the rows of the input, then along the
+   * columns of the output. Because the scale is a power of two, every output sample falls on one of {@code scale}
+   * phases between two input samples, and the weights are only computed once per phase. The padding must cover every
+   * tap of the kernel (two samples for bicubic, one for bilinear), so no indices need to be clamped.
+   *
+   * @param input   the padded heightmap.
+   * @param scale   the amount of upscaling, a power of 2.
+   * @param pad     the padding on each side of the input.
+   * @param type    the interpolation method.
+   * @param scratch a buffer for the first pass, with as many rows as the input and at least {@code TILE_SIZE * scale}
+   *                columns.
+   * @param offsets the offset to add to every column, indexed by {@code x * TILE_SIZE + y}.
+   * @param x0      the first row of the tile to upscale.
+   * @param y0      the first column of the tile to upscale.
+   * @param size    the number of rows and columns to upscale.
+   * @param out     the difference map to write to.
    */
-  public static void upscaleTile(Tile tile, Dimension dimension, Interpolation method, int resolution, float[][] buffer) {
-    // Resolution must be a power of two: 1, 2, 4, 8, etc.
-    if (resolution == 0 || (resolution & (resolution - 1)) != 0) {
-      throw new IllegalArgumentException("Resolution must be a power of two");
-    }
-
-    float[][] paddedBuffer = PADDED_BUFFER.get();
-    float[][] upscaleBuffer = UPSCALE_BUFFER.get();
-
-    padTile(tile, dimension, Constants.TILE_PADDING, paddedBuffer);
-    upscale(paddedBuffer, resolution, method, upscaleBuffer);
-    trimPadding(upscaleBuffer, resolution, Constants.TILE_PADDING, buffer);
-  }
-
-  private static void upscale(float[][] input, int scale, Interpolation type, float[][] buffer) {
-    int inH = input.length;
-    int inW = input[0].length;
+  private static void upscale(float[][] input, int scale, int pad, Interpolation type, float[][] scratch,
+                              float[] offsets, int x0, int y0, int size, DifferenceMap out) {
+    boolean bilinear = type == Interpolation.BILINEAR;
+    int[] firstTap = new int[scale];
+    float[][] weights = new float[scale][];
 
-    int outH = inH * scale;
-    int outW = inW * scale;
-
-    for (int y = 0; y < outH; y++) {
+    for (int p = 0; p < scale; p++) {
       // Standard center-alignment: maps the center of the output pixel
       // to the corresponding center in the input image.
-      float srcY = ((y + 0.5f) / scale) - 0.5f;
+      float src = ((p + 0.5f) / scale) - 0.5f;
+      int srcInt = (int) Math.floor(src);
+      float frac = src - srcInt;
+
+      if (bilinear) {
+        firstTap[p] = srcInt;
+        weights[p] = new float[]{1 - frac, frac};
+      } else {
+        // Catmull-Rom weights for the samples at srcInt - 1, srcInt, srcInt + 1 and srcInt + 2
+        firstTap[p] = srcInt - 1;
+        weights[p] = new float[]{cubic(frac + 1.0f), cubic(frac), cubic(frac - 1.0f), cubic(frac - 2.0f)};
+      }
+    }
 
-      for (int x = 0; x < outW; x++) {
-        float srcX = ((x + 0.5f) / scale) - 0.5f;
+    // Every row of either pass is independent, so both passes can be split into bands
+    // The second pass reads up to pad rows of the first pass on either side of the region
+    Bands.run(size + 2 * pad, Constants.CHUNK_SIZE, (from, to) -> upscaleRows(input, x0 + from, x0 + to, y0,
+        y0 + size, scale, pad, bilinear, firstTap, weights, scratch));
+    Bands.run(size, Constants.CHUNK_SIZE, (from, to) -> upscaleColumns(scratch, x0 + from, x0 + to, y0, y0 + size,
+        scale, pad, bilinear, firstTap, weights, offsets, out));
+  }
 
-        if (type == Interpolation.BILINEAR) {
-          buffer[y][x] = bilinearSample(input, srcX, srcY);
-        } else { // Interpolation.BICUBIC
-          buffer[y][x] = bicubicSample(input, srcX, srcY);
+  /**
+   * The horizontal pass of
+   * {@link #upscale(float[][], int, int, Interpolation, float[][], float[], int, int, int, DifferenceMap)}, over the
+   * rows {@code [from, to)} of the input and the tile columns {@code [colFrom, colTo)}.
+   */
+  private static void upscaleRows(float[][] input, int from, int to, int colFrom, int colTo, int scale, int pad,
+                                  boolean bilinear, int[] firstTap, float[][] weights, float[][] scratch) {
+    for (int y = from; y < to; y++) {
+      float[] inRow = input[y];
+      float[] outRow = scratch[y];
+
+      for (int p = 0; p < scale; p++) {
+        float[] w = weights[p];
+        int x = pad + firstTap[p] + colFrom;
+
+        if (bilinear) {
+          for (int i = colFrom; i < colTo; i++, x++) {
+            outRow[i * scale + p] = inRow[x] * w[0] + inRow[x + 1] * w[1];
+          }
+        } else {
+          for (int i = colFrom; i < colTo; i++, x++) {
+            outRow[i * scale + p] = inRow[x] * w[0] + inRow[x + 1] * w[1] + inRow[x + 2] * w[2] + inRow[x + 3] * w[3];
+          }
         }
       }
     }
   }
 
-  private static float bilinearSample(float[][] img, float x, float y) {
-    int inH = img.length;
-    int inW = img[0].length;
+  /**
+   * The vertical pass of
+   * {@link #upscale(float[][], int, int, Interpolation, float[][], float[], int, int, int, DifferenceMap)}, for the
+   * output rows of the tile rows {@code [from, to)} and the tile columns {@code [colFrom, colTo)}. Each output row is
+   * computed across the columns, then spread over the columns it belongs to.
+   */
+  private static void upscaleColumns(float[][] scratch, int from, int to, int colFrom, int colTo, int scale, int pad,
+                                     boolean bilinear, int[] firstTap, float[][] weights, float[] offsets,
+                                     DifferenceMap out) {
+    int scaleSquared = scale * scale;
+    int lineFrom = colFrom * scale;
+    int lineTo = colTo * scale;
+    float[] data = out.isFixedPoint() ? null : out.getData();
+    short[] fixedData = out.isFixedPoint() ? out.getFixedData() : null;
+    float[] line = new float[TILE_SIZE * scale];
+    float[] min = new float[TILE_SIZE];
+    float[] max = new float[TILE_SIZE];
+
+    for (int i = from; i < to; i++) {
+      Arrays.fill(min, Float.POSITIVE_INFINITY);
+      Arrays.fill(max, Float.NEGATIVE_INFINITY);
+
+      for (int p = 0; p < scale; p++) {
+        int y = pad + i + firstTap[p];
+        float[] w = weights[p];
+
+        if (bilinear) {
+          float[] row0 = scratch[y];
+          float[] row1 = scratch[y + 1];
+
+          for (int x = lineFrom; x < lineTo; x++) {
+            line[x] = row0[x] * w[0] + row1[x] * w[1];
+          }
+        } else {
+          float[] row0 = scratch[y];
+          float[] row1 = scratch[y + 1];
+          float[] row2 = scratch[y + 2];
+          float[] row3 = scratch[y + 3];
 
-    // Find the 4 neighboring pixels
-    int x1 = (int) Math.floor(x);
-    int y1 = (int) Math.floor(y);
+          for (int x = lineFrom; x < lineTo; x++) {
+            line[x] = w[0] * row0[x] + w[1] * row1[x] + w[2] * row2[x] + w[3] * row3[x];
+          }
+        }
 
-    // Fraction for interpolation
-    float xFrac = x - x1;
-    float yFrac = y - y1;
-    float xInv = 1 - xFrac;
+        for (int j = colFrom; j < colTo; j++) {
+          float offset = offsets[i * TILE_SIZE + j];
+          int index = (i * TILE_SIZE + j) * scaleSquared + p * scale;
+          float localMin = min[j];
+          float localMax = max[j];
 
-    // Clamp coordinates to valid array bounds
-    int xL = (x1 < 0) ? 0 : (x1 > inW - 1 ? inW - 1 : x1);
-    int xR = (x1 + 1 < 0) ? 0 : (x1 + 1 > inW - 1 ? inW - 1 : x1 + 1);
-    int yT = (y1 < 0) ? 0 : (y1 > inH - 1 ? inH - 1 : y1);
-    int yB = (y1 + 1 < 0) ? 0 : (y1 + 1 > inH - 1 ? inH - 1 : y1 + 1);
+          if (data != null) {
+            for (int q = 0; q < scale; q++) {
+              float value = line[j * scale + q] + offset;
+              data[index + q] = value;
 
-    float v00 = img[yT][xL];
-    float v10 = img[yT][xR];
-    float v01 = img[yB][xL];
-    float v11 = img[yB][xR];
+              if (value < localMin) {
+                localMin = value;
+              }
 
-    return (v00 * xInv + v10 * xFrac) * (1 - yFrac) + (v01 * xInv + v11 * xFrac) * yFrac;
-  }
+              if (value > localMax) {
+                localMax = value;
+              }
+            }
+          } else {
+            // The bounds are those of the rounded samples, so that they agree with what is matched
+            for (int q = 0; q < scale; q++) {
+              short fixed = FixedPoint.toFixed(line[j * scale + q] + offset);
+              float value = FixedPoint.toFloat(fixed);
+              fixedData[index + q] = fixed;
+
+              if (value < localMin) {
+                localMin = value;
+              }
+
+              if (value > localMax) {
+                localMax = value;
+              }
+            }
+          }
+
+          min[j] = localMin;
+          max[j] = localMax;
+        }
+      }
 
-  private static float bicubicSample(float[][] img, float x, float y) {
-    int inH = img.length;
-    int inW = img[0].length;
-
-    int xInt = (int) Math.floor(x);
-    int yInt = (int) Math.floor(y);
-
-    // Pre-calculate weights for the 4x4 grid
-    float xFrac = x - xInt;
-    float yFrac = y - yInt;
-
-    // Horizontal weights (n = -1, 0, 1, 2)
-    float wx0 = cubic(xFrac + 1.0f); // distance from xInt-1
-    float wx1 = cubic(xFrac);          // distance from xInt
-    float wx2 = cubic(xFrac - 1.0f); // distance from xInt+1
-    float wx3 = cubic(xFrac - 2.0f); // distance from xInt+2
-
-    // Vertical weights (m = -1, 0, 1, 2)
-    float wy0 = cubic(yFrac + 1.0f);
-    float wy1 = cubic(yFrac);
-    float wy2 = cubic(yFrac - 1.0f);
-    float wy3 = cubic(yFrac - 2.0f);
-
-    // Clamp Y coordinates
-    int y0 = (yInt - 1 < 0) ? 0 : (yInt - 1 > inH - 1 ? inH - 1 : yInt - 1);
-    int y1 = (yInt < 0) ? 0 : (yInt > inH - 1 ? inH - 1 : yInt);
-    int y2 = (yInt + 1 < 0) ? 0 : (yInt + 1 > inH - 1 ? inH - 1 : yInt + 1);
-    int y3 = (yInt + 2 < 0) ? 0 : (yInt + 2 > inH - 1 ? inH - 1 : yInt + 2);
-
-    float[] row0 = img[y0];
-    float[] row1 = img[y1];
-    float[] row2 = img[y2];
-    float[] row3 = img[y3];
-
-    // Clamp X coordinates
-    int x0 = (xInt - 1 < 0) ? 0 : (xInt - 1 > inW - 1 ? inW - 1 : xInt - 1);
-    int x1 = (xInt < 0) ? 0 : (xInt > inW - 1 ? inW - 1 : xInt);
-    int x2 = (xInt + 1 < 0) ? 0 : (xInt + 1 > inW - 1 ? inW - 1 : xInt + 1);
-    int x3 = (xInt + 2 < 0) ? 0 : (xInt + 2 > inW - 1 ? inW - 1 : xInt + 2);
-
-    float result = wy0 * (row0[x0] * wx0 + row0[x1] * wx1 + row0[x2] * wx2 + row0[x3] * wx3);
-    result += wy1 * (row1[x0] * wx0 + row1[x1] * wx1 + row1[x2] * wx2 + row1[x3] * wx3);
-    result += wy2 * (row0[x0] * wx0 + row2[x1] * wx1 + row2[x2] * wx2 + row2[x3] * wx3);
-    result += wy3 * (row3[x0] * wx0 + row3[x1] * wx1 + row3[x2] * wx2 + row3[x3] * wx3);
-
-    return result;
+      for (int j = colFrom; j < colTo; j++) {
+        out.setColumnBounds(i, j, min[j], max[j]);
+      }
+    }
   }
 
   private static float cubic(float t) {
@@ -286,15 +389,6 @@ public final class Utils {
     return 0;
   }
 
-  private static void trimPadding(float[][] buffer, int scale, int pad, float[][] outBuffer) {
-    int finalSize = TILE_SIZE * scale;
-    int offset = pad * scale;
-
-    for (int y = 0; y < finalSize; y++) {
-      System.arraycopy(buffer[y + offset], offset, outBuffer[y], 0, finalSize);
-    }
-  }
-
   /**
    * Get the first value of an input array that is in a set.
    *
@@ -303,7 +397,7 @@ public final class Utils {
    * @return the first value of the input array that is within the set.
    * @throws IllegalStateException if none of the values of the input array are in the set.
    */
-  public static int filter(int[] arr, Set<Integer> allowed) {
+  public static int filter(int[] arr, IndexMask allowed) {
     for (int j : arr) {
       if (allowed.contains(j)) {
         return j;
@@ -339,48 +433,6 @@ public final class Utils {
     return new Pair<>(max, min);
   }
 
-  /**
-   * Find the maximum and minimum value in a float array.
-   *
-   * @param arr  the array.
-   * @param mask the mask; only when the value true will the point be considered in the calculation of the maximum and
-   *             minimum.
-   * @return the maximum and minimum value, as a pair.
-   */
-  public static Pair<Float, Float> findMinAndMax(float[][] arr, boolean[][] mask, int resolution) {
-    float min = Integer.MAX_VALUE;
-    float max = Integer.MIN_VALUE;
-
-    for (int i = 0; i < mask.length; i++) {
-      for (int j = 0; j < mask[i].length; j++) {
-        // Skip when mask value is false
-        if (!mask[i][j]) {
-          continue;
-        }
-
-        for (int k = 0 ; k < resolution; k++) {
-          for (int l = 0 ; l < resolution; l++) {
-
-            int x = i * resolution + k;
-            int y = j * resolution + l;
-
-            if (arr[x][y] < min) {
-              min = arr[x][y];
-            }
-
-            if (arr[x][y] > max) {
-              max = arr[x][y];
-            }
-          }
-        }
-
-
-      }
-    }
-
-    return new Pair<>(max, min);
-  }
-
   /**
    * Check whether all values of the array are at or below 0.
    *
@@ -447,11 +499,42 @@ public final class Utils {
    */
   public static List<String[]> readCsv(File file) throws IOException {
     List<String[]> rows = new ArrayList<>();
-    BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file.toPath())));
-    String line;
-    while ((line = reader.readLine()) != null) {
-      rows.add(line.split(","));
+
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file.toPath())))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        rows.add(line.split(","));
+      }
     }
+
     return rows;
   }
+
+  /**
+   * Stop a computation in the background if its thread has been interrupted.
+   *
+   * @throws CancellationException if the thread has been interrupted.
+   */
+  public static void checkCancelled() {
+    if (Thread.currentThread().isInterrupted()) {
+      throw new CancellationException();
+    }
+  }
+
+  /**
+   * Create a factory for the background threads of an executor. The threads are daemons, so they do not keep
+   * WorldPainter running once it is closed.
+   *
+   * @param name     the name of the threads.
+   * @param priority the priority of the threads.
+   * @return the factory.
+   */
+  public static ThreadFactory newThreadFactory(String name, int priority) {
+    return runnable -> {
+      Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      thread.setPriority(priority);
+      return thread;
+    };
+  }
 }
@@ -0,0 +1,145 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.layers;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks the reference counting of the {@link TileCache}: a result is created by the first acquire, shared by the
+ * others, and disposed of exactly once, by the last release or, if it is never released, by the cleaner.
+ */
+class TileCacheTest {
+
+  private final AtomicInteger created = new AtomicInteger();
+  private final AtomicInteger disposed = new AtomicInteger();
+
+  @Test
+  void resultIsSharedAndDisposedAfterTheLastRelease() {
+    TileCache cache = new TileCache();
+    List<?> key = Arrays.asList("tile", 2);
+
+    Object first = acquire(cache, key);
+    Object second = acquire(cache, key);
+    assertSame(first, second, "Both holders must get the same result");
+    assertEquals(1, created.get(), "created");
+
+    cache.release(key);
+    assertEquals(0, disposed.get(), "disposed while still held");
+
+    cache.release(key);
+    assertEquals(1, disposed.get(), "disposed");
+    assertThrows(IllegalStateException.class, () -> cache.release(key));
+    assertEquals(1, disposed.get(), "disposed");
+
+    // Once disposed, the next acquire creates the result again
+    assertNotSame(first, acquire(cache, key));
+    assertEquals(2, created.get(), "created");
+    cache.release(key);
+    assertEquals(2, disposed.get(), "disposed");
+  }
+
+  @Test
+  void keysAreHeldIndependently() {
+    TileCache cache = new TileCache();
+    List<?> key = Arrays.asList("tile", 2);
+    List<?> other = Arrays.asList("tile", 4);
+
+    assertNotSame(acquire(cache, key), acquire(cache, other));
+    cache.release(other);
+    assertEquals(1, disposed.get(), "disposed");
+    assertThrows(IllegalStateException.class, () -> cache.release(other));
+
+    cache.release(key);
+    assertEquals(2, disposed.get(), "disposed");
+  }
+
+  @Test
+  void releasingWithoutAcquiringFails() {
+    TileCache cache = new TileCache();
+    assertThrows(IllegalStateException.class, () -> cache.release(Arrays.asList("tile", 2)));
+  }
+
+  @Test
+  void failedFactoryDoesNotKeepTheReference() {
+    TileCache cache = new TileCache();
+    List<?> key = Arrays.asList("tile", 2);
+    IllegalArgumentException failure = new IllegalArgumentException("Could not create");
+
+    IllegalArgumentException thrown = assertThrows(IllegalArgumentException.class,
+        () -> cache.acquire(key, () -> {
+          throw failure;
+        }, value -> disposed.incrementAndGet()));
+    assertSame(failure, thrown, "The failure of the factory must be passed on");
+    assertEquals(0, disposed.get(), "disposed");
+    // The failed acquire has already been released
+    assertThrows(IllegalStateException.class, () -> cache.release(key));
+
+    acquire(cache, key);
+    assertEquals(1, created.get(), "created");
+    cache.release(key);
+    assertEquals(1, disposed.get(), "disposed");
+  }
+
+  @Test
+  void failedFactoryLeavesOtherHoldersAlone() {
+    TileCache cache = new TileCache();
+    List<?> key = Arrays.asList("tile", 2);
+    Object held = acquire(cache, key);
+
+    // The result exists, so the factory of another holder is not called
+    assertSame(held, cache.acquire(key, () -> {
+      throw new IllegalStateException("Must not be called");
+    }, value -> disposed.incrementAndGet()));
+    cache.release(key);
+    assertEquals(0, disposed.get(), "disposed while still held");
+
+    cache.release(key);
+    assertEquals(1, disposed.get(), "disposed");
+  }
+
+  @Test
+  void unreleasedResultsAreDisposedByTheCleaner() throws InterruptedException {
+    acquire(new TileCache(), Arrays.asList("tile", 2));
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+    while (disposed.get() == 0 && System.nanoTime() < deadline) {
+      System.gc();
+      Thread.sleep(10);
+    }
+
+    assertEquals(1, disposed.get(), "disposed once the cache is unreachable");
+  }
+
+  private Object acquire(TileCache cache, List<?> key) {
+    return cache.acquire(key, () -> {
+      created.incrementAndGet();
+      return new Object();
+    }, value -> disposed.incrementAndGet());
+  }
+}
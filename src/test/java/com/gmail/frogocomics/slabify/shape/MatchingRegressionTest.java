@@ -0,0 +1,403 @@
+/*
+ *     A plugin for WorldPainter that adds additional shape detail to terrain.
+ *     Copyright (C) 2026  Jeff Chen
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.frogocomics.slabify.shape;
+
+import com.gmail.frogocomics.slabify.Constants;
+import com.gmail.frogocomics.slabify.layers.Slab.Interpolation;
+import com.gmail.frogocomics.slabify.linalg.FixedPoint;
+import com.gmail.frogocomics.slabify.linalg.Matrix;
+import com.gmail.frogocomics.slabify.shape.Shape.Options;
+import com.gmail.frogocomics.slabify.utils.BufferArena;
+import com.gmail.frogocomics.slabify.utils.DifferenceMap;
+import com.gmail.frogocomics.slabify.utils.Utils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.pepsoft.worldpainter.Tile;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.pepsoft.worldpainter.Constants.TILE_SIZE;
+
+/**
+ * Checks the optimized upscaling and matching against straightforward versions of the same computation on a seeded
+ * tile: the separable upscaling against per-sample interpolation, the contiguous shapemaps against the nested ones, the
+ * row bands against a single band, and the fixed point kernel against the float kernel.
+ */
+class MatchingRegressionTest {
+
+  private static final int PADDED_SIZE = TILE_SIZE + 2 * Constants.TILE_PADDING;
+
+  private final boolean contiguous = Constants.CONTIGUOUS_SHAPEMAPS;
+  private final boolean parallel = Constants.PARALLEL_BANDS;
+
+  @BeforeAll
+  static void init() {
+    Shapes.init();
+  }
+
+  @AfterEach
+  void restore() {
+    Constants.CONTIGUOUS_SHAPEMAPS = contiguous;
+    Constants.PARALLEL_BANDS = parallel;
+  }
+
+  @Test
+  void upscalingMatchesPerSampleInterpolation() {
+    Tile tile = createTile(12, 1);
+
+    for (Interpolation method : new Interpolation[] {Interpolation.BILINEAR, Interpolation.BICUBIC}) {
+      for (int resolution = 1; resolution <= Constants.MAX_UPSCALE_RESOLUTION; resolution *= 2) {
+        float[] expected = upscaleReference(tile, method, resolution, 0.5f);
+
+        for (boolean bands : new boolean[] {false, true}) {
+          Constants.PARALLEL_BANDS = bands;
+          DifferenceMap actual = new DifferenceMap(TILE_SIZE, resolution);
+          Utils.getDifference(tile, null, method, resolution, 0.5f, actual);
+          assertArrayEquals(expected, actual.getData(), method + " at resolution " + resolution);
+        }
+      }
+    }
+  }
+
+  @Test
+  void regionUpscalingMatchesTheTile() {
+    Tile tile = createTile(12, 7);
+
+    for (Interpolation method : new Interpolation[] {Interpolation.BILINEAR, Interpolation.BICUBIC}) {
+      for (int resolution = 1; resolution <= Constants.MAX_UPSCALE_RESOLUTION; resolution *= 2) {
+        int samples = resolution * resolution;
+        float[] expected = upscaleReference(tile, method, resolution, 0.5f);
+        DifferenceMap actual = new DifferenceMap(TILE_SIZE, resolution);
+        // Pooled scratch buffers could hide rows that the region does not compute
+        BufferArena.clear();
+        // Touches the edge of the tile, so the padding is read too
+        Utils.getDifference(tile, null, method, resolution, 0.5f, 96, 40, 32, actual);
+
+        for (int x = 96; x < TILE_SIZE; x++) {
+          for (int y = 40; y < 72; y++) {
+            String message = method + " at resolution " + resolution + ", " + x + ", " + y;
+            int from = (x * TILE_SIZE + y) * samples;
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+
+            for (int i = from; i < from + samples; i++) {
+              assertEquals(expected[i], actual.getData()[i], message);
+              min = Math.min(min, expected[i]);
+              max = Math.max(max, expected[i]);
+            }
+
+            assertEquals(min, actual.getColumnMin(x, y), message);
+            assertEquals(max, actual.getColumnMax(x, y), message);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  void columnBoundsMatchSamples() {
+    DifferenceMap heights = upscale(createTile(16, 2), 4, false);
+    float[] column = new float[16];
+
+    for (int x = 0; x < TILE_SIZE; x++) {
+      for (int y = 0; y < TILE_SIZE; y++) {
+        heights.copyColumn(x, y, column);
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+
+        for (float sample : column) {
+          min = Math.min(min, sample);
+          max = Math.max(max, sample);
+        }
+
+        assertEquals(min, heights.getColumnMin(x, y));
+        assertEquals(max, heights.getColumnMax(x, y));
+      }
+    }
+  }
+
+  @Test
+  void flatMatchingDoesNotDependOnBands() {
+    ShapeBank bank = getBank(false);
+    DifferenceMap heights = upscale(createTile(3, 3), bank.getResolution(), false);
+
+    Constants.PARALLEL_BANDS = false;
+    Shapemap expected = Shapes.findMostSimilarShapes(heights, bank.getShapeMatrices(),
+        bank.getShapeMatricesStacked(), false, null);
+    Constants.PARALLEL_BANDS = true;
+    Shapemap actual = Shapes.findMostSimilarShapes(heights, bank.getShapeMatrices(),
+        bank.getShapeMatricesStacked(), false, null);
+
+    for (int x = 0; x < TILE_SIZE; x++) {
+      for (int y = 0; y < TILE_SIZE; y++) {
+        assertArrayEquals(expected.getIndicesAt(x, y, -1), actual.getIndicesAt(x, y, -1), x + ", " + y);
+      }
+    }
+  }
+
+  @Test
+  void flatMatchingOnlyMatchesTheMask() {
+    ShapeBank bank = getBank(false);
+    DifferenceMap heights = upscale(createTile(3, 8), bank.getResolution(), false);
+    boolean[][] mask = createMask(9);
+
+    Shapemap expected = Shapes.findMostSimilarShapes(heights, bank.getShapeMatrices(),
+        bank.getShapeMatricesStacked(), false, null);
+    Shapemap actual = Shapes.findMostSimilarShapes(heights, bank.getShapeMatrices(),
+        bank.getShapeMatricesStacked(), false, mask);
+
+    for (int x = 0; x < TILE_SIZE; x++) {
+      for (int y = 0; y < TILE_SIZE; y++) {
+        if (mask[x][y]) {
+          assertArrayEquals(expected.getIndicesAt(x, y, -1), actual.getIndicesAt(x, y, -1), x + ", " + y);
+        }
+      }
+    }
+  }
+
+  @Test
+  void contiguousShapemapsMatchNested() {
+    ShapeBank bank = getBank(true);
+    DifferenceMap heights = upscale(createTile(10, 4), bank.getResolution(), false);
+    boolean[][] mask = createMask(5);
+
+    Constants.CONTIGUOUS_SHAPEMAPS = false;
+    Constants.PARALLEL_BANDS = false;
+    Shapemap dense = Shapes.findMostSimilarShapes(heights, bank.getShapeMatrices(), bank.getShapeMatricesStacked(),
+        true, mask);
+    Shapemap ragged = Shapes.findMostSimilarShapesRagged(heights, bank.getShapeMatrices(),
+        bank.getShapeMatricesStacked(), mask);
+
+    Constants.CONTIGUOUS_SHAPEMAPS = true;
+    Constants.PARALLEL_BANDS = true;
+    Shapemap contiguousDense = Shapes.findMostSimilarShapes(heights, bank.getShapeMatrices(),
+        bank.getShapeMatricesStacked(), true, mask);
+    Shapemap contiguousRagged = Shapes.findMostSimilarShapesRagged(heights, bank.getShapeMatrices(),
+        bank.getShapeMatricesStacked(), mask);
+
+    assertSameTopShapes(dense, contiguousDense, mask);
+    assertSameTopShapes(ragged, contiguousRagged, mask);
+  }
+
+  @Test
+  void fixedPointPicksTheBestFloatShape() {
+    ShapeBank bank = getBank(true);
+    List<Matrix> matrices = bank.getShapeMatrices();
+    FixedPoint.Bank fixedBank = new FixedPoint.Bank(matrices, Constants.LOSS_EXPONENT);
+    DifferenceMap heights = upscale(createTile(6, 6), bank.getResolution(), true);
+    int samples = bank.getResolution() * bank.getResolution();
+    short[] column = new short[samples];
+    float[] unclip = new float[samples];
+    float[] min0 = new float[samples];
+    float[] max1 = new float[samples];
+    int[] ranking = new int[matrices.size()];
+    long[] scratch = new long[matrices.size()];
+    int partial = 0;
+
+    for (int x = 0; x < TILE_SIZE; x++) {
+      for (int y = 0; y < TILE_SIZE; y++) {
+        heights.copyColumn(x, y, column);
+        int minZ = (int) Math.floor(heights.getColumnMin(x, y));
+        int maxZ = (int) Math.ceil(heights.getColumnMax(x, y));
+
+        for (int z = minZ; z < maxZ; z++) {
+          int base = z * FixedPoint.ONE;
+          Shapes.findMostSimilarShape(ranking, 0, column, base, fixedBank, scratch);
+          float best = Float.POSITIVE_INFINITY;
+
+          for (int j = 0; j < samples; j++) {
+            unclip[j] = FixedPoint.toFloat(column[j] - base);
+            min0[j] = Math.max(0f, unclip[j]);
+            max1[j] = Math.min(1f, unclip[j]);
+          }
+
+          for (Matrix matrix : matrices) {
+            best = Math.min(best, matrix.getLossClip(unclip, min0, max1, Constants.LOSS_EXPONENT));
+          }
+
+          float chosen = matrices.get(ranking[0]).getLossClip(unclip, min0, max1, Constants.LOSS_EXPONENT);
+          assertTrue(chosen <= best + 1e-4f * (1 + best), x + ", " + y + ", level " + z);
+          partial++;
+        }
+      }
+    }
+
+    assertTrue(partial > 0);
+  }
+
+  private static void assertSameTopShapes(Shapemap expected, Shapemap actual, boolean[][] mask) {
+    for (int x = 0; x < TILE_SIZE; x++) {
+      for (int y = 0; y < TILE_SIZE; y++) {
+        if (!mask[x][y]) {
+          continue;
+        }
+
+        assertEquals(expected.getMinZ(x, y), actual.getMinZ(x, y), x + ", " + y);
+        assertEquals(expected.getRange(x, y), actual.getRange(x, y), x + ", " + y);
+
+        for (int z = 0; z < expected.getRange(x, y); z++) {
+          assertEquals(expected.getIndicesAt(x, y, z)[0], actual.getIndicesAt(x, y, z)[0],
+              x + ", " + y + ", level " + z);
+        }
+      }
+    }
+  }
+
+  private static ShapeBank getBank(boolean stacking) {
+    Map<String, Options> shapes = new HashMap<>();
+
+    for (Shape shape : Shapes.shapesList) {
+      if (shape.getDefaultOption() != null) {
+        shapes.put(shape.getName(), shape.getDefaultOption());
+      }
+    }
+
+    return ShapeBank.get(shapes, stacking);
+  }
+
+  private static DifferenceMap upscale(Tile tile, int resolution, boolean fixedPoint) {
+    DifferenceMap heights = new DifferenceMap(TILE_SIZE, resolution, fixedPoint);
+    Utils.getDifference(tile, null, Interpolation.BICUBIC, resolution, 0, heights);
+    return heights;
+  }
+
+  // Hills of the given amplitude, with some noise
+  private static Tile createTile(float amplitude, long seed) {
+    Random random = new Random(seed);
+    Tile tile = new Tile(0, 0, 0, 256);
+
+    for (int x = 0; x < TILE_SIZE; x++) {
+      for (int y = 0; y < TILE_SIZE; y++) {
+        double height = 64 + amplitude * Math.sin(x * 0.11) * Math.cos(y * 0.07) + random.nextFloat() * 0.8;
+        tile.setHeight(x, y, (float) height);
+      }
+    }
+
+    return tile;
+  }
+
+  private static boolean[][] createMask(long seed) {
+    Random random = new Random(seed);
+    boolean[][] mask = new boolean[TILE_SIZE][TILE_SIZE];
+
+    for (boolean[] row : mask) {
+      for (int y = 0; y < row.length; y++) {
+        row[y] = random.nextInt(4) != 0;
+      }
+    }
+
+    return mask;
+  }
+
+  // The per-sample interpolation that the separable upscaling replaced, on a tile without neighbors
+  private static float[] upscaleReference(Tile tile, Interpolation method, int resolution, float addHeight) {
+    float[][] padded = new float[PADDED_SIZE][PADDED_SIZE];
+    int pad = Constants.TILE_PADDING;
+
+    for (int x = 0; x < PADDED_SIZE; x++) {
+      for (int y = 0; y < PADDED_SIZE; y++) {
+        int cx = Math.max(0, Math.min(TILE_SIZE - 1, x - pad));
+        int cy = Math.max(0, Math.min(TILE_SIZE - 1, y - pad));
+        padded[x][y] = tile.getHeight(cx, cy);
+      }
+    }
+
+    float[] out = new float[TILE_SIZE * TILE_SIZE * resolution * resolution];
+
+    for (int x = 0; x < TILE_SIZE * resolution; x++) {
+      float srcX = ((x + pad * resolution + 0.5f) / resolution) - 0.5f;
+
+      for (int y = 0; y < TILE_SIZE * resolution; y++) {
+        float srcY = ((y + pad * resolution + 0.5f) / resolution) - 0.5f;
+        float value;
+
+        if (resolution == 1) {
+          value = padded[x + pad][y + pad];
+        } else if (method == Interpolation.BILINEAR) {
+          value = bilinear(padded, srcY, srcX);
+        } else {
+          value = bicubic(padded, srcY, srcX);
+        }
+
+        int bx = x / resolution;
+        int by = y / resolution;
+        int index = (bx * TILE_SIZE + by) * resolution * resolution + (x % resolution) * resolution + y % resolution;
+        out[index] = value + (addHeight - tile.getIntHeight(bx, by));
+      }
+    }
+
+    return out;
+  }
+
+  // img[row][column], sampled at column x and row y
+  private static float bilinear(float[][] img, float x, float y) {
+    int x1 = (int) Math.floor(x);
+    int y1 = (int) Math.floor(y);
+    float xFrac = x - x1;
+    float yFrac = y - y1;
+    float xInv = 1 - xFrac;
+
+    float v00 = img[y1][x1];
+    float v10 = img[y1][x1 + 1];
+    float v01 = img[y1 + 1][x1];
+    float v11 = img[y1 + 1][x1 + 1];
+
+    return (v00 * xInv + v10 * xFrac) * (1 - yFrac) + (v01 * xInv + v11 * xFrac) * yFrac;
+  }
+
+  private static float bicubic(float[][] img, float x, float y) {
+    int xInt = (int) Math.floor(x);
+    int yInt = (int) Math.floor(y);
+    float xFrac = x - xInt;
+    float yFrac = y - yInt;
+    float[] wx = {cubic(xFrac + 1), cubic(xFrac), cubic(xFrac - 1), cubic(xFrac - 2)};
+    float[] wy = {cubic(yFrac + 1), cubic(yFrac), cubic(yFrac - 1), cubic(yFrac - 2)};
+    float result = 0;
+
+    for (int m = 0; m < 4; m++) {
+      float[] row = img[yInt - 1 + m];
+      float sum = row[xInt - 1] * wx[0] + row[xInt] * wx[1] + row[xInt + 1] * wx[2] + row[xInt + 2] * wx[3];
+      result = m == 0 ? wy[0] * sum : result + wy[m] * sum;
+    }
+
+    return result;
+  }
+
+  // Catmull-Rom spline
+  private static float cubic(float t) {
+    t = Math.abs(t);
+
+    if (t <= 1) {
+      return (1.5f * t - 2.5f) * t * t + 1;
+    }
+
+    if (t < 2) {
+      return ((-0.5f * t + 2.5f) * t - 4) * t + 2;
+    }
+
+    return 0;
+  }
+}